@@ -29,11 +29,14 @@ if ! docker info >/dev/null 2>&1; then
     cat /var/log/dockerd.log
     exit 1
 fi
-echo "Pre-pulling docker images..."
-docker pull eclipse-temurin:21-alpine
-docker pull python:3.12-alpine
-docker pull alpine:latest
-echo "All images pulled successfully!"
+echo "Building runner images..."
+# One image per runners/<language>/Dockerfile; the tag must match RunnerImages.TAG
+RUNNER_TAG=7
+for dir in /app/runners/*/; do
+    lang=$(basename "$dir")
+    docker build -q -t "coderunner-$lang:$RUNNER_TAG" "$dir"
+done
+echo "All runner images built successfully!"
 echo "Starting Spring Boot application..."
 # Start Spring Boot app
 exec java -jar app.jar
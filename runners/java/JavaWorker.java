@@ -0,0 +1,368 @@
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/** Long-lived JVM for the in-JVM Java backend (see JvmWorkerPool on the server), run inside a limited container.
+ * Each request is compiled in memory with javax.tools and its main run in a throwaway classloader,
+ * with System.in/out/err redirected to the request's input and capture buffers.
+ * The worker halts itself when a run can't be stopped cleanly (time or output limit), and the server replaces it.
+ * Submissions share this JVM and its stdout, so they can forge responses or reach the worker by reflection:
+ * the backend is for trusted code only (see JvmWorkerPool).
+ *
+ * Protocol on stdin/stdout, big-endian, strings as int length + UTF-8 bytes:
+ * request:  mainClass, source, input, long wallMs, long cpuMs, int outputLimitBytes
+ * response: int kind, int exitCode, long compileNanos, long runNanos, long cpuNanos, boolean recycle, stdout, stderr
+ */
+public class JavaWorker {
+    //Response kinds; keep in step with WorkerPool.Kind
+    static final int EXITED = 0, COMPILE_ERROR = 1, TIME_LIMIT = 2, CPU_LIMIT = 3, OUTPUT_LIMIT = 4, SYSTEM_EXIT = 5;
+    //How often a running program is checked against its limits
+    private static final long POLL_MS = 5;
+    private static final int MAX_CACHED_BUILDS = 32;
+
+    private static DataOutputStream protocol;
+    //The run in progress, so the shutdown hook can answer for a program that called System.exit
+    private static volatile Run current;
+
+    //Compiled classes by source hash; a fresh loader defines them again for every run
+    private static final Map<String, Map<String, byte[]>> builds = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Map<String, byte[]>> eldest) {
+            return size() > MAX_CACHED_BUILDS;
+        }
+    };
+
+    public static void main(String[] args) throws Exception {
+        //The real stdout carries responses only; programs get their own streams per run
+        protocol = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)));
+        DataInputStream requests = new DataInputStream(new BufferedInputStream(System.in));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            Run run = current;
+            if (run != null) run.respond(SYSTEM_EXIT, -1, false);
+        }));
+
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        while (true) {
+            String mainClass;
+            try {
+                mainClass = readString(requests);
+            } catch (EOFException e) {
+                return;
+            }
+            Run run = new Run(readString(requests), readBytes(requests), requests.readLong(), requests.readLong(), requests.readInt());
+            run.execute(compiler, mainClass);
+        }
+    }
+
+    static final class Run {
+        final String source;
+        final byte[] input;
+        final long wallMs;
+        final long cpuMs;
+        final Capture stdout;
+        final Capture stderr;
+        final AtomicBoolean responded = new AtomicBoolean();
+        long compileNanos;
+        long runStart;
+        long cpuNanos;
+        //main's own CPU at the moment it ends, which a poll after it has ended can't read anymore
+        volatile long mainCpuNanos = -1;
+
+        Run(String source, byte[] input, long wallMs, long cpuMs, int outputLimitBytes) {
+            this.source = source;
+            this.input = input;
+            this.wallMs = wallMs;
+            this.cpuMs = cpuMs;
+            this.stdout = new Capture(outputLimitBytes);
+            this.stderr = new Capture(outputLimitBytes);
+        }
+
+        void execute(JavaCompiler compiler, String mainClass) throws IOException {
+            long compileStart = System.nanoTime();
+            Map<String, byte[]> classes = compile(compiler, mainClass);
+            compileNanos = System.nanoTime() - compileStart;
+            if (classes == null) {
+                respond(COMPILE_ERROR, 1, false);
+                return;
+            }
+
+            PrintStream realOut = System.out, realErr = System.err;
+            InputStream realIn = System.in;
+            //JVM-wide defaults a program may change for itself; put back before the next run
+            Locale locale = Locale.getDefault();
+            TimeZone timeZone = TimeZone.getDefault();
+            Properties properties = (Properties) System.getProperties().clone();
+            //Threads the program starts land in its group, so they can be waited on and timed
+            ThreadGroup group = new ThreadGroup("submission");
+            int[] exitCode = {0};
+            Thread main = new Thread(group, () -> {
+                try {
+                    Class<?> type = new MemoryClassLoader(classes).loadClass(mainClass);
+                    Method entry = type.getMethod("main", String[].class);
+                    if (!Modifier.isStatic(entry.getModifiers())) throw new NoSuchMethodException("static main(String[])");
+                    entry.setAccessible(true);
+                    entry.invoke(null, (Object) new String[0]);
+                } catch (InvocationTargetException e) {
+                    exitCode[0] = 1;
+                    System.err.print("Exception in thread \"main\" ");
+                    e.getCause().printStackTrace();
+                } catch (ReflectiveOperationException | LinkageError e) {
+                    exitCode[0] = 1;
+                    System.err.println("Error: could not run " + mainClass + ": " + e);
+                } finally {
+                    mainCpuNanos = ManagementFactory.getThreadMXBean().getCurrentThreadCpuTime();
+                }
+            }, "main");
+
+            current = this;
+            System.setIn(new ByteArrayInputStream(input));
+            System.setOut(new PrintStream(stdout, true, StandardCharsets.UTF_8));
+            System.setErr(new PrintStream(stderr, true, StandardCharsets.UTF_8));
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            runStart = System.nanoTime();
+            main.start();
+
+            //Wait for main and any non-daemon threads it started, like a JVM would before exiting
+            int kind = EXITED;
+            long deadline = runStart + wallMs * 1_000_000;
+            Map<Thread, Long> cpuSeen = new HashMap<>();
+            while (true) {
+                if (mainCpuNanos >= 0) cpuSeen.merge(main, mainCpuNanos, Math::max);
+                cpuNanos = cpuTime(threads, group, cpuSeen);
+                if (stdout.exceeded || stderr.exceeded) kind = OUTPUT_LIMIT;
+                else if (cpuNanos > cpuMs * 1_000_000) kind = CPU_LIMIT;
+                else if (System.nanoTime() >= deadline) kind = TIME_LIMIT;
+                if (kind != EXITED || !anyAlive(group, false)) break;
+                try {
+                    //Returns as soon as main ends, so short programs don't wait out a poll
+                    if (main.isAlive()) main.join(POLL_MS);
+                    else Thread.sleep(POLL_MS);
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+
+            if (mainCpuNanos >= 0) {
+                cpuSeen.merge(main, mainCpuNanos, Math::max);
+                cpuNanos = cpuSeen.values().stream().mapToLong(Long::longValue).sum();
+            }
+            System.setIn(realIn);
+            System.setOut(realOut);
+            System.setErr(realErr);
+            Locale.setDefault(locale);
+            TimeZone.setDefault(timeZone);
+            System.setProperties(properties);
+            //Processes the program started would outlive it; kill them and don't trust this JVM again
+            List<ProcessHandle> strays = ProcessHandle.current().descendants().toList();
+            strays.forEach(ProcessHandle::destroyForcibly);
+            if (kind != EXITED) {
+                //The program can't be stopped from here, so answer and take the whole JVM down with it
+                respond(kind, 137, true);
+                Runtime.getRuntime().halt(137);
+            }
+            //Leftover daemon threads could see the next run's streams
+            respond(EXITED, exitCode[0], !strays.isEmpty() || anyAlive(group, true));
+        }
+
+        private Map<String, byte[]> compile(JavaCompiler compiler, String mainClass) {
+            String key = hash(mainClass + "\n" + source);
+            Map<String, byte[]> cached = builds.get(key);
+            if (cached != null) return cached;
+
+            DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+            StandardJavaFileManager standard = compiler.getStandardFileManager(diagnostics, Locale.ROOT, StandardCharsets.UTF_8);
+            MemoryFileManager files = new MemoryFileManager(standard);
+            //Named like its place in a source tree, so a public class in a package still matches its file name
+            JavaFileObject unit = new SimpleJavaFileObject(URI.create("string:///" + mainClass.replace('.', '/') + ".java"), JavaFileObject.Kind.SOURCE) {
+                @Override
+                public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                    return source;
+                }
+            };
+            boolean ok = compiler.getTask(null, files, diagnostics, List.of("-proc:none"), null, List.of(unit)).call();
+            for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+                String line = diagnostic.getLineNumber() > 0 ? ":" + diagnostic.getLineNumber() : "";
+                String text = mainClass.substring(mainClass.lastIndexOf('.') + 1) + ".java" + line + ": " + diagnostic.getKind().toString().toLowerCase(Locale.ROOT)
+                        + ": " + diagnostic.getMessage(Locale.ROOT) + "\n";
+                byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+                stderr.write(bytes, 0, bytes.length);
+            }
+            if (!ok) return null;
+            builds.put(key, files.classes);
+            return files.classes;
+        }
+
+        //Writes the response once, whichever of the run loop and the shutdown hook gets here first
+        void respond(int kind, int exitCode, boolean recycle) {
+            if (!responded.compareAndSet(false, true)) return;
+            long runNanos = runStart == 0 ? 0 : System.nanoTime() - runStart;
+            synchronized (JavaWorker.class) {
+                try {
+                    protocol.writeInt(kind);
+                    protocol.writeInt(exitCode);
+                    protocol.writeLong(compileNanos);
+                    protocol.writeLong(runNanos);
+                    protocol.writeLong(cpuNanos);
+                    protocol.writeBoolean(recycle);
+                    writeBytes(protocol, stdout.toByteArray());
+                    writeBytes(protocol, stderr.toByteArray());
+                    protocol.flush();
+                } catch (IOException e) {
+                    //Server went away; nothing left to answer
+                }
+            }
+            current = null;
+        }
+    }
+
+    //Keeps up to limit bytes; anything past it only sets exceeded
+    static final class Capture extends OutputStream {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final int limit;
+        volatile boolean exceeded;
+
+        Capture(int limit) {
+            this.limit = limit;
+        }
+
+        @Override
+        public synchronized void write(int b) {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            int room = limit - bytes.size();
+            if (len > room) exceeded = true;
+            bytes.write(b, off, Math.max(0, Math.min(len, room)));
+        }
+
+        synchronized byte[] toByteArray() {
+            return bytes.toByteArray();
+        }
+    }
+
+    //Collects compiler output as class bytes instead of files
+    static final class MemoryFileManager extends ForwardingJavaFileManager<JavaFileManager> {
+        final Map<String, byte[]> classes = new HashMap<>();
+
+        MemoryFileManager(JavaFileManager fileManager) {
+            super(fileManager);
+        }
+
+        @Override
+        public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind, FileObject sibling) {
+            return new SimpleJavaFileObject(URI.create("mem:///" + className.replace('.', '/') + kind.extension), kind) {
+                @Override
+                public OutputStream openOutputStream() {
+                    return new ByteArrayOutputStream() {
+                        @Override
+                        public void close() {
+                            classes.put(className, toByteArray());
+                        }
+                    };
+                }
+            };
+        }
+    }
+
+    //Defines a run's classes; its parent is the platform loader, so submissions can't see the worker's own classes
+    static final class MemoryClassLoader extends ClassLoader {
+        private final Map<String, byte[]> classes;
+
+        MemoryClassLoader(Map<String, byte[]> classes) {
+            super("submission", ClassLoader.getPlatformClassLoader());
+            this.classes = classes;
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            byte[] bytes = classes.get(name);
+            if (bytes == null) throw new ClassNotFoundException(name);
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    private static Thread[] threadsIn(ThreadGroup group) {
+        Thread[] threads = new Thread[group.activeCount() + 8];
+        int count = group.enumerate(threads, true);
+        return Arrays.copyOf(threads, count);
+    }
+
+    private static boolean anyAlive(ThreadGroup group, boolean includeDaemons) {
+        for (Thread thread : threadsIn(group)) {
+            if (thread.isAlive() && (includeDaemons || !thread.isDaemon())) return true;
+        }
+        return false;
+    }
+
+    //CPU of every thread the program has run, keeping the last reading of threads that have since ended
+    private static long cpuTime(ThreadMXBean threads, ThreadGroup group, Map<Thread, Long> cpuSeen) {
+        for (Thread thread : threadsIn(group)) {
+            long nanos = threads.getThreadCpuTime(thread.threadId());
+            if (nanos >= 0) cpuSeen.put(thread, nanos);
+        }
+        long total = 0;
+        for (long nanos : cpuSeen.values()) total += nanos;
+        return total;
+    }
+
+    private static String hash(String text) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8)));
+        } catch (java.security.NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return new String(readBytes(in), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        return in.readNBytes(in.readInt());
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
@@ -0,0 +1,368 @@
+"""Zygote for the Python backend (see PythonZygotePool on the server), run inside a limited container.
+
+Imports the standard library once, then forks a fresh child for every request. The child runs the
+submission as __main__ with stdin/stdout/stderr on pipes; the zygote itself never runs submitted
+code, so every child starts from the same clean state. The zygote is a child subreaper, so processes a
+run leaves behind (even after setsid or a double fork) stay its descendants and are all killed after the
+run; it is also not dumpable, so runs can't open its protocol pipes through /proc. Children run as an
+unprivileged uid that can only write to their own working directory and the shared temp directories,
+and whatever they leave in those is removed after the run, so nothing one run writes is seen by the next.
+
+Protocol on stdin/stdout, big-endian, strings as int length + UTF-8 bytes:
+request:  mainClass (unused), source, input, long wallMs, long cpuMs, int outputLimitBytes
+response: int kind, int exitCode, long compileNanos, long runNanos, long cpuNanos, boolean recycle, stdout, stderr
+"""
+import ctypes
+import gc
+import math
+import os
+import resource
+import selectors
+import shutil
+import signal
+import struct
+import sys
+import tempfile
+import time
+import types
+
+# Response kinds; keep in step with WorkerPool.Kind
+EXITED, COMPILE_ERROR, TIME_LIMIT, CPU_LIMIT, OUTPUT_LIMIT = 0, 1, 2, 3, 4
+
+# What submissions usually import, loaded once here instead of in every run
+PRELOAD = (
+    "array", "bisect", "collections", "copy", "dataclasses", "datetime", "decimal", "fractions",
+    "functools", "heapq", "io", "itertools", "json", "math", "operator", "random", "re",
+    "statistics", "string", "textwrap", "traceback", "typing",
+)
+
+# prctl options (linux/prctl.h)
+PR_SET_DUMPABLE, PR_SET_CHILD_SUBREAPER = 4, 36
+
+# Unprivileged uid and gid runs drop to when the zygote runs as root; owns nothing outside what runs create
+RUN_UID = 10001
+# World-writable places a run could leave files in besides its working directory
+SHARED_DIRS = ("/tmp", "/var/tmp", "/dev/shm")
+
+CHUNK = 65536
+# How often a running child is checked for having exited
+POLL_SECS = 0.002
+
+
+def read_exact(stream, n):
+    data = b""
+    while len(data) < n:
+        part = stream.read(n - len(data))
+        if not part:
+            raise EOFError
+        data += part
+    return data
+
+
+def read_bytes(stream):
+    (length,) = struct.unpack(">i", read_exact(stream, 4))
+    return read_exact(stream, length)
+
+
+def write_bytes(out, data):
+    out.write(struct.pack(">i", len(data)))
+    out.write(data)
+
+
+def child(source, stdin_r, stdout_w, stderr_w, workdir, cpu_ms, drop):
+    """Runs in the forked child: wires up the pipes, drops root if drop is set and runs the source as __main__. Never returns."""
+    try:
+        os.setpgid(0, 0)
+        # The OOM killer should take the submission, not the zygote
+        try:
+            with open("/proc/self/oom_score_adj", "w") as f:
+                f.write("1000")
+        except OSError:
+            pass
+        seconds = max(1, math.ceil(cpu_ms / 1000))
+        resource.setrlimit(resource.RLIMIT_CPU, (seconds, seconds + 1))
+        for sig in (signal.SIGINT, signal.SIGTERM, signal.SIGPIPE, signal.SIGXCPU):
+            signal.signal(sig, signal.SIG_DFL)
+
+        os.dup2(stdin_r, 0)
+        os.dup2(stdout_w, 1)
+        os.dup2(stderr_w, 2)
+        os.closerange(3, 1024)
+        if drop:
+            os.setgroups([])
+            os.setgid(RUN_UID)
+            os.setuid(RUN_UID)
+        os.chdir(workdir)
+        sys.stdin = open(0, "r", encoding="utf-8", closefd=False)
+        sys.stdout = open(1, "w", encoding="utf-8", closefd=False)
+        sys.stderr = open(2, "w", encoding="utf-8", closefd=False)
+        sys.argv = ["code.py"]
+        sys.path[0] = workdir
+        # Forked children would otherwise all draw the same numbers
+        import random
+        random.seed()
+    except BaseException:
+        os._exit(70)
+
+    status = 0
+    try:
+        # Tracebacks read source lines through linecache; there is no file to read them from
+        import linecache
+        linecache.cache["code.py"] = (len(source), None, source.splitlines(True), "code.py")
+        code = compile(source, "code.py", "exec")
+        # A module of its own, so code that looks itself up through sys.modules finds it
+        main = types.ModuleType("__main__")
+        main.__file__ = "code.py"
+        sys.modules["__main__"] = main
+        exec(code, main.__dict__)
+    except SystemExit as e:
+        if e.code is None:
+            status = 0
+        elif isinstance(e.code, int):
+            status = e.code & 0xFF
+        else:
+            print(e.code, file=sys.stderr)
+            status = 1
+    except BaseException as e:
+        import traceback
+        # Leave out this frame, so the traceback starts at the submission like a plain python3 run
+        traceback.print_exception(type(e), e, e.__traceback__.tb_next)
+        status = 1
+    try:
+        sys.stdout.flush()
+        sys.stderr.flush()
+    except BaseException:
+        status = status or 120
+    os._exit(status)
+
+
+def run(source, data, wall_ms, cpu_ms, limit, drop):
+    """Forks a child for one request and collects its output; returns the response fields and whether it left strays."""
+    workdir = tempfile.mkdtemp(prefix="run")
+    if drop:
+        os.chown(workdir, RUN_UID, RUN_UID)
+    stdin_r, stdin_w = os.pipe()
+    stdout_r, stdout_w = os.pipe()
+    stderr_r, stderr_w = os.pipe()
+    start = time.monotonic_ns()
+    pid = os.fork()
+    if pid == 0:
+        os.close(stdin_w)
+        os.close(stdout_r)
+        os.close(stderr_r)
+        child(source, stdin_r, stdout_w, stderr_w, workdir, cpu_ms, drop)
+    # Also set here so the group exists before either side can signal it
+    try:
+        os.setpgid(pid, pid)
+    except OSError:
+        pass
+    os.close(stdin_r)
+    os.close(stdout_w)
+    os.close(stderr_w)
+
+    captured = {stdout_r: bytearray(), stderr_r: bytearray()}
+    kind = EXITED
+    deadline = start + wall_ms * 1_000_000
+    selector = selectors.DefaultSelector()
+    os.set_blocking(stdin_w, False)
+    if data:
+        selector.register(stdin_w, selectors.EVENT_WRITE)
+    else:
+        os.close(stdin_w)
+    selector.register(stdout_r, selectors.EVENT_READ)
+    selector.register(stderr_r, selectors.EVENT_READ)
+    pending = memoryview(data)
+    open_outputs = 2
+
+    # Feed input and drain output until the child has exited and its outputs are closed, or a limit is hit
+    status = usage = None
+    run_nanos = 0
+    strays = False
+    while kind == EXITED and (status is None or open_outputs):
+        if status is None:
+            waited, status, usage = os.wait4(pid, os.WNOHANG)
+            if waited:
+                run_nanos = time.monotonic_ns() - start
+                # Background processes it left behind would hold the outputs open
+                strays = kill_strays()
+            else:
+                status = None
+        remaining = (deadline - time.monotonic_ns()) / 1e9
+        if remaining <= 0:
+            kind = TIME_LIMIT
+            break
+        if not open_outputs:
+            time.sleep(min(remaining, POLL_SECS))
+            continue
+        for key, _ in selector.select(min(remaining, POLL_SECS)):
+            fd = key.fd
+            if fd == stdin_w:
+                try:
+                    written = os.write(fd, pending[:CHUNK])
+                    pending = pending[written:]
+                except BrokenPipeError:
+                    pending = pending[:0]
+                if not pending:
+                    selector.unregister(fd)
+                    os.close(fd)
+                continue
+            chunk = os.read(fd, CHUNK)
+            if not chunk:
+                selector.unregister(fd)
+                os.close(fd)
+                open_outputs -= 1
+                continue
+            buffer = captured[fd]
+            room = limit - len(buffer)
+            buffer += chunk[:max(0, room)]
+            if len(chunk) > room:
+                kind = OUTPUT_LIMIT
+
+    if status is None:
+        kill_group(pid)
+        _, status, usage = os.wait4(pid, 0)
+        run_nanos = time.monotonic_ns() - start
+        strays = kill_strays()
+    for key in list(selector.get_map().values()):
+        os.close(key.fd)
+    selector.close()
+    shutil.rmtree(workdir, ignore_errors=True)
+    if drop:
+        remove_run_files()
+
+    cpu_nanos = int((usage.ru_utime + usage.ru_stime) * 1e9)
+    if os.WIFSIGNALED(status):
+        signum = os.WTERMSIG(status)
+        exit_code = 128 + signum
+        if kind == EXITED and (signum == signal.SIGXCPU or cpu_nanos > cpu_ms * 1_000_000):
+            kind = CPU_LIMIT
+    else:
+        exit_code = os.WEXITSTATUS(status)
+    if kind == EXITED and cpu_nanos > cpu_ms * 1_000_000:
+        kind = CPU_LIMIT
+    if kind in (TIME_LIMIT, CPU_LIMIT, OUTPUT_LIMIT):
+        exit_code = 137
+    return kind, exit_code, run_nanos, cpu_nanos, bytes(captured[stdout_r]), bytes(captured[stderr_r]), strays
+
+
+def kill_group(pid):
+    try:
+        os.killpg(pid, signal.SIGKILL)
+    except (ProcessLookupError, PermissionError):
+        pass
+
+
+def descendants():
+    """Pids of every live process below the zygote, read from /proc."""
+    children = {}
+    for name in os.listdir("/proc"):
+        if not name.isdigit():
+            continue
+        try:
+            with open("/proc/" + name + "/stat", "rb") as f:
+                stat = f.read()
+        except OSError:
+            continue
+        # The command name may hold spaces or parentheses; the fields after it can't
+        fields = stat[stat.rindex(b")") + 2:].split()
+        if fields[0] != b"Z":
+            children.setdefault(int(fields[1]), []).append(int(name))
+    found, todo = [], [os.getpid()]
+    while todo:
+        for pid in children.get(todo.pop(), ()):
+            found.append(pid)
+            todo.append(pid)
+    return found
+
+
+def kill_strays():
+    """Kills and reaps everything a run left behind; returns True if there was anything."""
+    strays = False
+    for _ in range(10):
+        pids = descendants()
+        if not pids:
+            break
+        strays = True
+        for pid in pids:
+            try:
+                os.kill(pid, signal.SIGKILL)
+            except (ProcessLookupError, PermissionError):
+                pass
+        reap()
+        time.sleep(POLL_SECS)
+    reap()
+    # Strays had the whole run to act, so their zygote is replaced even when they are gone now
+    return strays
+
+
+def remove_run_files():
+    """Deletes everything the run uid left in the shared temp directories."""
+    for parent in set(SHARED_DIRS + (tempfile.gettempdir(),)):
+        try:
+            names = os.listdir(parent)
+        except OSError:
+            continue
+        for name in names:
+            path = os.path.join(parent, name)
+            try:
+                if os.lstat(path).st_uid != RUN_UID:
+                    continue
+                if os.path.isdir(path) and not os.path.islink(path):
+                    shutil.rmtree(path, ignore_errors=True)
+                else:
+                    os.unlink(path)
+            except OSError:
+                pass
+
+
+def reap():
+    while True:
+        try:
+            pid, _ = os.waitpid(-1, os.WNOHANG)
+        except ChildProcessError:
+            return
+        if pid == 0:
+            return
+
+
+def harden():
+    """Makes the zygote a subreaper and non-dumpable; returns False where prctl isn't available."""
+    try:
+        libc = ctypes.CDLL(None, use_errno=True)
+        return libc.prctl(PR_SET_CHILD_SUBREAPER, 1, 0, 0, 0) == 0 and libc.prctl(PR_SET_DUMPABLE, 0, 0, 0, 0) == 0
+    except (OSError, AttributeError):
+        return False
+
+
+def main():
+    for name in PRELOAD:
+        __import__(name)
+    # Keep the preloaded objects out of the collector so children don't dirty their shared pages
+    gc.collect()
+    gc.freeze()
+    # Without a subreaper, strays can escape the /proc walk, and without root, runs can't be kept to their own files;
+    # either way no zygote serves a second run
+    hardened = harden()
+    drop = os.geteuid() == 0
+
+    requests = sys.stdin.buffer
+    protocol = sys.stdout.buffer
+    while True:
+        try:
+            read_bytes(requests)
+        except EOFError:
+            return
+        source = read_bytes(requests).decode("utf-8")
+        data = read_bytes(requests)
+        wall_ms, cpu_ms, limit = struct.unpack(">qqi", read_exact(requests, 20))
+
+        kind, exit_code, run_nanos, cpu_nanos, out, err, strays = run(source, data, wall_ms, cpu_ms, limit, drop)
+        recycle = strays or not hardened or not drop
+        protocol.write(struct.pack(">iiqqq?", kind, exit_code, 0, run_nanos, cpu_nanos, recycle))
+        write_bytes(protocol, out)
+        write_bytes(protocol, err)
+        protocol.flush()
+
+
+if __name__ == "__main__":
+    main()
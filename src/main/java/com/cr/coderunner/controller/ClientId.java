@@ -0,0 +1,44 @@
+package com.cr.coderunner.controller;
+
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+//Identifies who a request is from, for per-user fair queuing (there are no accounts yet)
+@Component
+public class ClientId {
+    //Addresses of reverse proxies whose X-User-Id and X-Forwarded-For headers are believed
+    private final Set<String> trustedProxies;
+
+    public ClientId(@Value("${coderunner.trusted-proxies:}") String trustedProxies) {
+        this.trustedProxies = Arrays.stream(trustedProxies.split(",")).map(String::trim).filter(s -> !s.isEmpty()).collect(Collectors.toSet());
+    }
+
+    public String of(HttpServletRequest request) {
+        String remote = request.getRemoteAddr();
+        //Anyone can send these headers, so they only count when a trusted proxy set them
+        if (!trustedProxies.contains(remote)) {
+            return remote;
+        }
+        String userId = request.getHeader("X-User-Id");
+        if (userId != null && !userId.isBlank()) {
+            return userId;
+        }
+        //The client is the last hop before our own proxies; earlier entries are whatever the client claimed
+        String forwarded = request.getHeader("X-Forwarded-For");
+        if (forwarded != null) {
+            String[] hops = forwarded.split(",");
+            for (int i = hops.length - 1; i >= 0; i--) {
+                String hop = hops[i].trim();
+                if (!hop.isEmpty() && (!trustedProxies.contains(hop) || i == 0)) {
+                    return hop;
+                }
+            }
+        }
+        return remote;
+    }
+}
@@ -0,0 +1,43 @@
+package com.cr.coderunner.controller;
+
+import com.cr.coderunner.service.QueueFullException;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
+
+@RestControllerAdvice
+public class ExecutionExceptionHandler {
+
+    //Queue is full: tell the client when it's worth trying again
+    @ExceptionHandler(QueueFullException.class)
+    public ResponseEntity<Map<String, String>> queueFull(QueueFullException e) {
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header("Retry-After", String.valueOf(e.retryAfterSeconds))
+                .body(Map.of("error", e.getMessage()));
+    }
+
+    //Request the service can't act on (e.g. an empty or oversized batch)
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<Map<String, String>> badRequest(IllegalArgumentException e) {
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                .body(Map.of("error", e.getMessage()));
+    }
+
+    //Endpoint this node's role doesn't serve (e.g. judging on an API node)
+    @ExceptionHandler(UnsupportedOperationException.class)
+    public ResponseEntity<Map<String, String>> notServedHere(UnsupportedOperationException e) {
+        return ResponseEntity.status(HttpStatus.NOT_IMPLEMENTED)
+                .body(Map.of("error", e.getMessage()));
+    }
+
+    //Client deadline passed while a synchronous run (e.g. /try_problem) was still queued
+    @ExceptionHandler(TimeoutException.class)
+    public ResponseEntity<Map<String, String>> deadlinePassed(TimeoutException e) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .body(Map.of("error", e.getMessage()));
+    }
+}
@@ -1,26 +1,53 @@
 package com.cr.coderunner.controller;
 
+import com.cr.coderunner.dto.BatchStatus;
+import com.cr.coderunner.dto.OutputPage;
 import com.cr.coderunner.dto.RunResult;
 import com.cr.coderunner.model.CodeExecution;
 import com.cr.coderunner.model.CodeSubmission;
 import com.cr.coderunner.model.UserData;
+import com.cr.coderunner.service.BatchExecutions;
 import com.cr.coderunner.service.CodeExecutionService;
+import com.cr.coderunner.service.ExecutionScheduler;
+import com.cr.coderunner.service.ExecutionStreams;
+import com.cr.coderunner.service.JobQueue;
+import com.cr.coderunner.service.RunnerImages;
 import io.micrometer.core.annotation.Timed;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.io.IOException;
+import java.util.List;
 
 @RestController
 public class IDEController {
     //TODO: Switch from use of userData class to SQL-Based dataset
     private final UserData userData;
     private final CodeExecutionService executionService;
+    private final RunnerImages runnerImages;
+    private final ExecutionStreams executionStreams;
+    private final BatchExecutions batchExecutions;
+    private final ClientId clientId;
+    private final long maxCheckWaitMillis;
 
     private static final String[] supported_langs = new String[] {"Java", "C", "Python"};
 
-    public IDEController(UserData userData, CodeExecutionService executionService) {
+    public IDEController(UserData userData, CodeExecutionService executionService, RunnerImages runnerImages, ExecutionStreams executionStreams,
+                         BatchExecutions batchExecutions, ClientId clientId,
+                         @Value("${coderunner.check.max-wait-ms:30000}") long maxCheckWaitMillis) {
         this.userData = userData;
         this.executionService = executionService;
+        this.runnerImages = runnerImages;
+        this.executionStreams = executionStreams;
+        this.batchExecutions = batchExecutions;
+        this.clientId = clientId;
+        this.maxCheckWaitMillis = maxCheckWaitMillis;
     }
 
     @GetMapping("/supported")
@@ -37,14 +64,74 @@ public class IDEController {
     //Submit to the executor, returns the ID used for tracking it
     @Timed(value = "code.submit.time", description = "Time to submit code")
     @PostMapping("/submit")
-    public String postSubmission(@RequestBody CodeSubmission codeSubmission) throws InterruptedException {
-        return executionService.execute(new CodeExecution(codeSubmission));
+    public String postSubmission(@RequestBody CodeSubmission codeSubmission, HttpServletRequest request) throws InterruptedException {
+        return executionService.execute(new CodeExecution(codeSubmission), clientId.of(request), ExecutionScheduler.Source.IDE);
     }
 
+    /** Runs many submissions for one request (e.g. an autograder's (code, input) pairs); returns the batch id.
+     * Batches queue behind interactive runs, with /try_problem's priority.
+     */
+    @Timed(value = "code.submit.batch.time")
+    @PostMapping("/submit_batch")
+    public String postBatch(@RequestBody List<CodeSubmission> submissions, HttpServletRequest request) {
+        return batchExecutions.submit(submissions, clientId.of(request), ExecutionScheduler.Source.PROBLEM);
+    }
+
+    //Progress of a batch; with results, every item's RunResult as ManyResults (statusOnly leaves out their output)
+    @GetMapping("/check_batch")
+    public BatchStatus checkBatch(@RequestParam String id, @RequestParam(defaultValue = "false") boolean results,
+                                  @RequestParam(defaultValue = "false") boolean statusOnly) {
+        return batchExecutions.status(id, results, statusOnly);
+    }
+
+    //Pushes "progress" as items finish, then "result" with every item's RunResult (see BatchExecutions)
+    @GetMapping(value = "/stream_batch", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamBatch(@RequestParam String id, @RequestParam(defaultValue = "false") boolean statusOnly) {
+        return batchExecutions.open(id, statusOnly);
+    }
+
+    /** Status of an execution; with waitMillis > 0 it long-polls, answering as soon as the run finishes
+     * instead of making the client poll in a loop (capped by coderunner.check.max-wait-ms).
+     * With statusOnly, output and error are left out and only their sizes reported; fetch them from /output.
+     */
     @Timed(value = "code.check.time")
     @PostMapping("/check")
-    public RunResult checkSubmission(@RequestBody String execID) {
-        return executionService.checkExecution(execID);
+    public RunResult checkSubmission(@RequestBody String execID, @RequestParam(defaultValue = "0") long waitMillis,
+                                     @RequestParam(defaultValue = "false") boolean statusOnly) {
+        return executionService.awaitExecution(execID, Math.min(waitMillis, maxCheckWaitMillis), statusOnly);
+    }
+
+    /** A page of a finished execution's stdout or stderr: length bytes from offset, or with line >= 0, length lines from that line.
+     * A finished result never changes, so the ETag lets clients revalidate pages for free (304).
+     * 400 for an unknown stream, a length below 1 or a negative offset, 404 if the execution is unknown or expired,
+     * 202 while it's still running.
+     */
+    @Timed(value = "code.output.time")
+    @GetMapping("/output")
+    public ResponseEntity<OutputPage> getOutput(@RequestParam String id, @RequestParam(defaultValue = "stdout") String stream,
+                                                @RequestParam(defaultValue = "0") long offset, @RequestParam(defaultValue = "65536") int length,
+                                                @RequestParam(defaultValue = "-1") int line,
+                                                @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        if ((!stream.equals("stdout") && !stream.equals("stderr")) || length <= 0 || offset < 0) {
+            return ResponseEntity.badRequest().build();
+        }
+        RunResult status = executionService.checkExecution(id, true);
+        if (status.status.equals("NONEXISTENT")) return ResponseEntity.notFound().build();
+        if (!status.status.equals("FINISHED")) return ResponseEntity.accepted().build();
+
+        String eTag = "\"" + id.replace("\"", "") + "-" + stream + "-" + (stream.equals("stdout") ? status.outputBytes : status.errorBytes) + "\"";
+        if (eTag.equals(ifNoneMatch)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).build();
+        }
+        OutputPage page = executionService.readOutput(id, stream, offset, length, line);
+        if (page == null) return ResponseEntity.notFound().build();
+        return ResponseEntity.ok().eTag(eTag).body(page);
+    }
+
+    //Pushes stdout/stderr as the program prints, then the final result (see ExecutionStreams); /check still works afterwards
+    @GetMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamSubmission(@RequestParam String id) {
+        return executionStreams.open(id);
     }
 
     @GetMapping("/get_template")
@@ -58,23 +145,11 @@ public class IDEController {
     }
 
     @GetMapping("/pull")
-    public String pullImages() throws IOException, InterruptedException {
-        //Builder and images to be pulled
-        ProcessBuilder builder = new ProcessBuilder();
-        String[] images = new String[] {"alpine:latest", "python:3.12-alpine", "eclipse-temurin:21-alpine"};
-        //Pull every image needed
-        for (String image : images) {
-            //Pull cmd
-            builder.command("docker", "pull", image);
-            //Start and wait for the process
-            builder.inheritIO();
-            Process pulling = builder.start();
-            pulling.waitFor();
-            //Fail if the process couldn't exit
-            if (pulling.isAlive()) return "Failure";
-        }
+    public String pullImages() {
+        //(Re)build every runner image from runners/*/Dockerfile and verify its toolchain
+        if (!runnerImages.ensureImages(true)) return "Failure";
 
-        //Success if all pulls exited.
+        //Success if all images built and verified.
         return "Success!";
     }
 
@@ -83,6 +158,12 @@ public class IDEController {
         return executionService.listExecutions();
     }
 
+    //Worker nodes pulling from the shared queue (coderunner.role=worker), with their capacity and load
+    @GetMapping("/workers")
+    public List<JobQueue.WorkerStatus> getWorkers() {
+        return executionService.workers();
+    }
+
 
     //Logging setup (Via web requests)
     private static boolean loggerOn = false;
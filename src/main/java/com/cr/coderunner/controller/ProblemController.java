@@ -2,25 +2,51 @@ package com.cr.coderunner.controller;
 
 import com.cr.coderunner.dto.ManyResults;
 import com.cr.coderunner.dto.RunResult;
+import com.cr.coderunner.model.CodeExecution;
 import com.cr.coderunner.model.CodeSubmission;
 import com.cr.coderunner.model.Problem;
 import com.cr.coderunner.model.UserData;
+import com.cr.coderunner.service.ExecutionBackends;
+import com.cr.coderunner.service.ExecutionScheduler;
+import com.cr.coderunner.service.SandboxCapacity;
+import com.cr.coderunner.service.SandboxLimits;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import java.io.IOException;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletionException;
 
 @RestController
 public class ProblemController {
     //TODO: Switch from use of userData class to SQL-Based dataset
     private final UserData userData;
+    private final ExecutionBackends backends;
+    private final ExecutionScheduler scheduler;
+    private final SandboxLimits limits;
+    private final SandboxCapacity sandboxes;
+    private final ClientId clientId;
+    private final int maxParallelCases;
+    //API nodes (coderunner.role=api) have no sandboxes of their own to judge in
+    private final boolean apiOnly;
 
-    public ProblemController(UserData userData) {
+    public ProblemController(UserData userData, ExecutionBackends backends, ExecutionScheduler scheduler, SandboxLimits limits,
+                             SandboxCapacity sandboxes, ClientId clientId, @Value("${coderunner.judge.max-parallel-cases:4}") int maxParallelCases,
+                             @Value("${coderunner.role:all}") String role) {
         this.userData = userData;
+        this.backends = backends;
+        this.scheduler = scheduler;
+        this.limits = limits;
+        this.sandboxes = sandboxes;
+        this.clientId = clientId;
+        this.maxParallelCases = maxParallelCases;
+        this.apiOnly = role.equalsIgnoreCase("api");
     }
 
     @PostMapping("/add_problem")
@@ -33,9 +59,36 @@ public class ProblemController {
         return userData.problems;
     }
 
+    /** Judges a submission against a problem's test cases
+     * @param mode FULL, FAIL_FAST (stop at the first failing case) or SAMPLED (only the first few); defaults to the problem's judgeMode
+     * @throws UnsupportedOperationException on API nodes, which only queue runs for the workers
+     */
     @PostMapping("/try_problem")
-    public ManyResults tryProblem(@RequestBody CodeSubmission submission) throws InterruptedException {
+    public ManyResults tryProblem(@RequestBody CodeSubmission submission, @RequestParam(required = false) Problem.JudgeMode mode,
+                                  HttpServletRequest request) throws Throwable {
+        if (apiOnly) {
+            throw new UnsupportedOperationException("/try_problem is not served by API nodes (coderunner.role=api); send it to a node with role all.");
+        }
         Problem problem = userData.problems.get(submission.problemName);
-        return new ManyResults(Problem.simplifyCases(problem.runCases(submission)));
+        //Judge on a worker so problem runs share the fair queue with IDE and LLM runs
+        try {
+            long queuedAt = System.nanoTime();
+            return scheduler.submit(clientId.of(request), ExecutionScheduler.Source.PROBLEM, submission.deadlineMillis, () -> {
+                double queueWaitMs = (System.nanoTime() - queuedAt) / 1e6;
+                try {
+                    //Runs in this job's sandbox, plus any free ones up to the problem's parallel cap
+                    CodeExecution[] cases = problem.runCases(submission, backends.forLanguage(submission.language), limits, mode, sandboxes, maxParallelCases);
+                    for (CodeExecution execution : cases) {
+                        execution.queueWaitMs = queueWaitMs;
+                    }
+                    return new ManyResults(Problem.simplifyCases(cases));
+                } catch (InterruptedException e) {
+                    throw new CompletionException(e);
+                }
+            }).join();
+        } catch (CompletionException e) {
+            //Unwrap so the exception handlers see the real cause (e.g. a deadline TimeoutException)
+            throw e.getCause();
+        }
     }
 }
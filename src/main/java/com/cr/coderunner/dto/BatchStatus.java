@@ -0,0 +1,22 @@
+package com.cr.coderunner.dto;
+
+import java.util.List;
+
+//Progress of a batch (POST /submit_batch); each item is also an execution that /check and /output accept
+public class BatchStatus {
+    public String id;
+    public String status; // "RUNNING", "NONEXISTENT", "FINISHED"
+    public int total;
+    public int finished;
+    //Execution ids of the items, in submission order
+    public List<String> executionIds;
+    //Item results in the same order, when asked for
+    public ManyResults results;
+
+    public BatchStatus(String id, String status, List<String> executionIds) {
+        this.id = id;
+        this.status = status;
+        this.executionIds = executionIds;
+        this.total = executionIds.size();
+    }
+}
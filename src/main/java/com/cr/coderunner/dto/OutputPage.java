@@ -0,0 +1,41 @@
+package com.cr.coderunner.dto;
+
+import java.nio.charset.StandardCharsets;
+
+//One page of a finished execution's stdout or stderr (GET /output); offsets count UTF-8 bytes
+public class OutputPage {
+    public String stream;
+    public String text;
+    //Where text starts in the stream, and where the next page starts
+    public long offset;
+    public long nextOffset;
+    public long totalBytes;
+    //When paged by lines: the first line of text and the first line of the next page (0-based); -1 otherwise
+    public int line;
+    public int nextLine;
+
+    public OutputPage(String stream) {
+        this.stream = stream;
+        this.line = this.nextLine = -1;
+    }
+
+    //Sets the text from the first length bytes, advancing nextOffset past them
+    public void setText(byte[] bytes, int length) {
+        text = new String(bytes, 0, length, StandardCharsets.UTF_8);
+        nextOffset = offset + length;
+    }
+
+    public boolean isComplete() {
+        return nextOffset >= totalBytes;
+    }
+
+    //Length of bytes without a multi-byte character cut off at the end, which then starts the next page
+    public static int completeLength(byte[] bytes) {
+        int lead = bytes.length - 1;
+        while (lead >= 0 && bytes.length - lead < 4 && (bytes[lead] & 0xC0) == 0x80) lead--;
+        if (lead < 0) return bytes.length;
+        int first = bytes[lead] & 0xFF;
+        int size = first >= 0xF0 ? 4 : first >= 0xE0 ? 3 : first >= 0xC0 ? 2 : 1;
+        return bytes.length - lead >= size ? bytes.length : lead;
+    }
+}
@@ -4,6 +4,7 @@ import com.cr.coderunner.model.CodeExecution;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Objects;
 
 //TODO: Move to its own file when used by more than one function
@@ -14,6 +15,30 @@ public class RunResult {
     public String output;
     public String error;
     public String exitStatus;
+    public int exitCode;
+    //True if the program was killed for printing past the byte limit on that stream
+    public boolean outputLimitExceeded;
+    public boolean errorLimitExceeded;
+    //OOM kill while the program ran, and the sandbox's cgroup peaks (-1 if unavailable)
+    public boolean memoryLimitExceeded;
+    public boolean timeLimitExceeded;
+    public long memoryPeakBytes;
+    public long pidsPeak;
+    //Per-phase times in ms (-1 if not measured); programWallMs/programCpuMs exclude container and compiler overhead
+    public double queueWaitMs;
+    public double setupMs;
+    public double containerStartMs;
+    public double compileMs;
+    public double programWallMs;
+    public double programCpuMs;
+    public double teardownMs;
+    //Where the program ran: "docker", "local", "jvm" (warm worker JVM) or "zygote"
+    public String backend;
+    //UTF-8 sizes of output/error, set on status-only results (which leave those out); -1 otherwise
+    public long outputBytes;
+    public long errorBytes;
+    //For judged cases with wrong output: where it first differs from the expected output; null otherwise
+    public String mismatch;
 
 
     @JsonCreator
@@ -24,6 +49,7 @@ public class RunResult {
         this.error = error;
         this.exitStatus = exitStatus;
         this.status = status;
+        this.outputBytes = this.errorBytes = -1;
     }
 
     public RunResult(CodeExecution execution, String status) {
@@ -32,7 +58,54 @@ public class RunResult {
         this.output = execution.output;
         this.error = execution.error;
         this.exitStatus = execution.exitStatus;
+        this.exitCode = execution.exitCode;
+        this.outputLimitExceeded = execution.outputLimitExceeded;
+        this.errorLimitExceeded = execution.errorLimitExceeded;
+        this.memoryLimitExceeded = execution.memoryLimitExceeded;
+        this.timeLimitExceeded = execution.timeLimitExceeded;
+        this.memoryPeakBytes = execution.memoryPeakBytes;
+        this.pidsPeak = execution.pidsPeak;
+        this.queueWaitMs = execution.queueWaitMs;
+        this.setupMs = execution.setupMs;
+        this.containerStartMs = execution.containerStartMs;
+        this.compileMs = execution.compileMs;
+        this.programWallMs = execution.programWallMs;
+        this.programCpuMs = execution.programCpuMs;
+        this.teardownMs = execution.teardownMs;
+        this.backend = execution.backend;
+        this.mismatch = execution.mismatch;
         this.status = status;
+        this.outputBytes = this.errorBytes = -1;
+    }
+
+    //Copy of this result with other output/error, e.g. for stores that keep the output elsewhere
+    public RunResult withOutput(String output, String error) {
+        RunResult copy = new RunResult(success, runtime, output, error, exitStatus, status);
+        copy.exitCode = exitCode;
+        copy.outputLimitExceeded = outputLimitExceeded;
+        copy.errorLimitExceeded = errorLimitExceeded;
+        copy.memoryLimitExceeded = memoryLimitExceeded;
+        copy.timeLimitExceeded = timeLimitExceeded;
+        copy.memoryPeakBytes = memoryPeakBytes;
+        copy.pidsPeak = pidsPeak;
+        copy.queueWaitMs = queueWaitMs;
+        copy.setupMs = setupMs;
+        copy.containerStartMs = containerStartMs;
+        copy.compileMs = compileMs;
+        copy.programWallMs = programWallMs;
+        copy.programCpuMs = programCpuMs;
+        copy.teardownMs = teardownMs;
+        copy.backend = backend;
+        copy.mismatch = mismatch;
+        return copy;
+    }
+
+    //Copy without output and error, but with their sizes (for /check?statusOnly=true)
+    public RunResult statusOnly() {
+        RunResult copy = withOutput(null, null);
+        copy.outputBytes = output == null ? 0 : output.getBytes(StandardCharsets.UTF_8).length;
+        copy.errorBytes = error == null ? 0 : error.getBytes(StandardCharsets.UTF_8).length;
+        return copy;
     }
 
     @Override
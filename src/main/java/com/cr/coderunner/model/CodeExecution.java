@@ -1,7 +1,26 @@
 package com.cr.coderunner.model;
 
-public class CodeExecution extends Thread {
+import com.cr.coderunner.controller.IDEController;
+import com.cr.coderunner.service.ExecutionBackend;
+import com.cr.coderunner.service.SandboxLimits;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+
+//One run of a submission; run() is meant for a (virtual) worker thread, completion signals when it's done
+public class CodeExecution implements Runnable {
+    public static final int DEFAULT_OUTPUT_LIMIT_BYTES = 1_000_000;
+
     public CodeSubmission codeSubmission;
+    //What runs it (see ExecutionBackends); must be set before run()
+    public ExecutionBackend runner;
+    //Where the program actually ran ("docker", "local", "jvm" or "zygote"), for comparing backends
+    public String backend;
+    //Compile, wall and CPU budgets; the sandbox kills whatever runs past them
+    public SandboxLimits.TimeLimits timeLimits;
+    //Bytes kept per stream (stdout, stderr); hitting it kills the program
+    public int outputLimitBytes;
 //    public String input;
 
     public boolean success;
@@ -9,27 +28,189 @@ public class CodeExecution extends Thread {
     public String output;
     public String error;
     public String exitStatus;
+    //Exit code of the program itself; -1 if it never exited on its own
+    public int exitCode;
+    //Set when the program was killed for printing more than outputLimitBytes
+    public boolean outputLimitExceeded;
+    public boolean errorLimitExceeded;
+    //Set when the compiler or program was killed (or judged) for running past timeLimits
+    public boolean timeLimitExceeded;
+    //Set when the kernel OOM-killed something in the sandbox while the program ran
+    public boolean memoryLimitExceeded;
+    //Sandbox cgroup peaks (-1 if cgroup v2 stats weren't readable). A pooled container's peak covers its
+    //earlier runs too, and a one-off container's includes the compiler, so memory is an upper bound there
+    public long memoryPeakBytes;
+    public long pidsPeak;
+    //Where the time went, in ms from monotonic clocks; -1 if a phase wasn't measured
+    //Queue wait and setup (writing the workspace) happen before any container is involved
+    public double queueWaitMs;
+    public double setupMs;
+    //Container start/stop or exec overhead around the program (incl. pool checkout)
+    public double containerStartMs;
+    public double compileMs;
+    //The program alone, without container or compiler overhead (10ms resolution, from inside the sandbox)
+    public double programWallMs;
+    public double programCpuMs;
+    public double teardownMs;
+    //System.nanoTime() when the execution was queued
+    public long queuedAt;
     public boolean done;
     public long completedAt;
     public boolean failed;
+    //Completes with this execution once done is set
+    public final CompletableFuture<CodeExecution> completion;
+    //Live stdout/stderr for streaming clients; closed when the execution finishes
+    public final OutputFeed feed;
+    //When judging a case, checks stdout against the expected output as it is read (see ExecutionBackend.CaseListener)
+    public OutputComparator comparator;
+    //Where a judged case's output first differs from the expected output, e.g. line 2, column 1: expected "5", got "6"
+    public String mismatch;
 
     public CodeExecution(CodeSubmission codeSubmission /*, String input*/) {
         this.codeSubmission = codeSubmission;
 //        this.input = input;
         done = false;
+        exitCode = -1;
+        outputLimitBytes = DEFAULT_OUTPUT_LIMIT_BYTES;
+        timeLimits = SandboxLimits.TimeLimits.DEFAULT;
+        backend = "docker";
+        queueWaitMs = setupMs = containerStartMs = compileMs = programWallMs = programCpuMs = teardownMs = -1;
+        memoryPeakBytes = pidsPeak = -1;
         completedAt = 0;
         this.failed = false;
+        this.completion = new CompletableFuture<>();
+        this.feed = new OutputFeed();
     }
 
     @Override
     public void run() {
-        codeSubmission.run(this);
-        System.out.println("We got here bro");
-        done = true;
+        try {
+            backend = runner.name();
+            success = false;
+            runtime = -1;
+            output = "";
+            error = "";
+            exitStatus = "";
+            runner.run(this);
+        } finally {
+            finish();
+        }
+    }
+
+    //Marks the execution done and wakes anything waiting on completion
+    public void finish() {
         completedAt = System.currentTimeMillis();
+        done = true;
+        feed.close();
+        completion.complete(this);
+    }
+
+    /** Fresh executions for judging one submission against several inputs
+     * @param caseLimits time budgets per input; null (or a null entry) uses defaults
+     * @param outputLimitBytes the configured output cap (SandboxLimits.outputLimitBytes)
+     */
+    public static CodeExecution[] forCases(CodeSubmission submission, int count, SandboxLimits.TimeLimits[] caseLimits,
+                                           SandboxLimits.TimeLimits defaults, int outputLimitBytes, String backend) {
+        CodeExecution[] executions = new CodeExecution[count];
+        for (int i = 0; i < count; i++) {
+            executions[i] = new CodeExecution(submission);
+            executions[i].timeLimits = caseLimits != null && caseLimits[i] != null ? caseLimits[i] : defaults;
+            executions[i].outputLimitBytes = outputLimitBytes;
+            executions[i].backend = backend;
+            executions[i].success = false;
+            executions[i].runtime = -1;
+            executions[i].output = "";
+            executions[i].error = "";
+            executions[i].exitStatus = "";
+        }
+        return executions;
+    }
+
+    //Marks cases from index on as never run, when judging stopped before them; backends still close them
+    public static void skip(CodeExecution[] executions, int from) {
+        for (int i = from; i < executions.length; i++) {
+            executions[i].exitStatus += "Skipped: judging stopped at an earlier test case.\n";
+        }
+    }
+
+    //Takes the compiler's diagnostics and verdict when compiling (a step of its own) failed, so the program never ran
+    public void compileFailed(CodeExecution compile) {
+        output = compile.output;
+        error = compile.error;
+        exitCode = compile.exitCode;
+        timeLimitExceeded = compile.timeLimitExceeded;
+        exitStatus += compile.timeLimitExceeded
+                ? String.format(Locale.ROOT, "Compile Time Limit Exceeded (%.0f ms, limit %d ms).\n", compile.runtime * 1000, compile.timeLimits.compileWallMs())
+                : "Compilation failed.\n";
+    }
+
+    //Adds a final status and settles success; backends call this once, after cleaning up
+    public void close(String newStatus) {
+        exitStatus += newStatus;
+        //TODO: Remove unnecessary log statements here
+        //Print out latest output for now for testing purposes
+        IDEController.logText("====OUT:\n" + output);
+        //Print out latest error for testing purposes
+        IDEController.logText("====ERR:\n" + error);
+
+        if (!error.isEmpty()) {
+            exitStatus += "Execution errors detected; see stderr.\n";
+        }
+
+        //Set success to true/false depending on status
+        success = exitStatus.isEmpty();
+    }
+
+    //Adds a status found after the output was assembled, keeping the output's error section in step
+    public void addVerdict(String status) {
+        if (exitStatus.isEmpty()) {
+            output += "\n====ERROR(S):";
+        }
+        exitStatus += status;
+        output += status;
+    }
+
+    //Waits for the captures to drain, then saves them along with limit flags and error statuses
+    public void finishOutput(OutputCapture[] captures) {
+        try {
+            for (OutputCapture capture : captures) {
+                capture.await(Duration.ofSeconds(5));
+            }
+        } catch (InterruptedException e) {
+            exitStatus += "Failed to read stdout/stderr.\n";
+        }
+
+        //Flags are set here, on the run thread, so the two readers never race on exitStatus
+        setOutput(captures[0].text(), captures[1].text(), captures[0].isLimitExceeded(), captures[1].isLimitExceeded());
+    }
+
+    //Saves stdout/stderr along with limit flags, statuses and truncation markers
+    public void setOutput(String stdout, String stderr, boolean outputLimitExceeded, boolean errorLimitExceeded) {
+        this.outputLimitExceeded = outputLimitExceeded;
+        this.errorLimitExceeded = errorLimitExceeded;
+        if (outputLimitExceeded) exitStatus += "Output Limit Exceeded\n";
+        if (errorLimitExceeded) exitStatus += "Error Limit Exceeded\n";
+
+        StringBuilder outputs = new StringBuilder(stdout);
+        if (outputLimitExceeded) {
+            outputs.append("\n\n[Output truncated, ").append(outputLimitBytes).append(" byte limit exceeded]");
+        }
+        //Show the user the error message if it comes up
+        if (!exitStatus.isEmpty()) {
+            outputs.append("\n====ERROR(S):");
+            outputs.append(exitStatus);
+        }
+
+        //Save the final output
+        output = outputs.toString();
+        error = stderr;
+        if (errorLimitExceeded) {
+            error += "\n\n[Error truncated, " + outputLimitBytes + " byte limit exceeded]";
+        }
     }
 
-    public boolean isExpired() {
-        return completedAt != 0 && System.currentTimeMillis() - completedAt > 60.00;
+    //True once it has been finished for longer than ttlMillis
+    public boolean isExpired(long ttlMillis) {
+        return completedAt != 0 && System.currentTimeMillis() - completedAt > ttlMillis;
     }
 }
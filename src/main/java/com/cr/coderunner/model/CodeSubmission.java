@@ -1,19 +1,14 @@
 package com.cr.coderunner.model;
 
-import com.cr.coderunner.controller.IDEController;
+import com.cr.coderunner.service.CompileCache;
+import com.cr.coderunner.service.SandboxLimits;
+import com.cr.coderunner.service.TimedShell;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
-import org.apache.tomcat.util.http.fileupload.FileUtils;
 
 import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
-import java.time.Duration;
-import java.util.Arrays;
-import java.util.InputMismatchException;
-import java.util.List;
-import java.util.concurrent.TimeUnit;
 
 public class CodeSubmission {
     public static final int TIME_LIMIT_SECS = 10;
@@ -24,6 +19,21 @@ public class CodeSubmission {
     public final String input;
     public final String language;
     public final String problemName;
+    //Opt-out of result memoization for code whose output can differ between runs
+    @JsonProperty("nondeterministic")
+    public boolean nondeterministic;
+    //Optional: drop the run if it is still queued after this many ms (0 = wait as long as needed)
+    @JsonProperty("deadlineMillis")
+    public long deadlineMillis;
+
+    //Calls whose results vary between runs (clock, randomness, process ids)
+    private static final java.util.regex.Pattern nondeterministicCalls = java.util.regex.Pattern.compile(
+            "\\b(?:rand|srand|random|time|clock|gettimeofday|clock_gettime|getpid|urandom|uuid\\w*|datetime|"
+                    + "currentTimeMillis|nanoTime|Random|SecureRandom|ThreadLocalRandom|Instant|LocalDateTime|LocalTime|LocalDate)\\b");
+
+    //The package a Java source declares, which javac -d turns into directories under classes
+    private static final java.util.regex.Pattern packageDeclaration = java.util.regex.Pattern.compile(
+            "^\\s*package\\s+([A-Za-z_$][A-Za-z0-9_$]*(?:\\s*\\.\\s*[A-Za-z_$][A-Za-z0-9_$]*)*)\\s*;", java.util.regex.Pattern.MULTILINE);
 
     @JsonCreator
     public CodeSubmission(@JsonProperty(value = "code", required = true) String code, @JsonProperty(value = "language", required = true) String language, @JsonProperty(value = "problem", required = true) String problemName, @JsonProperty(value = "input", required = true) String input) {
@@ -37,6 +47,11 @@ public class CodeSubmission {
         this.problemName = problemName;
     }
 
+    //True if the code may be memoized: not opted out and no clock/randomness usage detected
+    public boolean isDeterministic() {
+        return !nondeterministic && !nondeterministicCalls.matcher(code).find();
+    }
+
     public String getExtensionByLang(String language) {
         return switch (language) {
             case "java" -> ".java";
@@ -46,326 +61,93 @@ public class CodeSubmission {
         };
     }
 
-    public List<String> getCommandByFiles(String language, File codeFile, File dirFile, File inputFile) {
-        List<String> cmds = new java.util.ArrayList<>(List.of("docker", "run", "--name", dirFile.getName(), /*, "--pids-limit=64", "--memory=256m", "--cpus=0.5",*/ "--rm", "-v", dirFile.getAbsolutePath() + ":/sandbox"));
-        cmds.addAll(switch (language) {
-            case "c" -> List.of("alpine:latest", "sh", "-c", "apk add --no-cache gcc musl-dev > none.txt && " + "gcc sandbox/" + codeFile.getName() + " -o sandbox/main && ./sandbox/main < sandbox/" + inputFile.getName());
-            case "python" -> List.of("python:3.12-alpine", "sh", "-c", "python3 sandbox/" + codeFile.getName() + " < sandbox/" + inputFile.getName());
-            case "java" -> List.of("eclipse-temurin:21-alpine", "sh", "-c", "java sandbox/" + codeFile.getName() + " < sandbox/" + inputFile.getName());
-            default -> List.of("FAILURE");
-        });
-        if (cmds.getLast().equals("FAILURE")) {
-            return null;
-        } else {
-            return cmds;
+    /** Shell line that compiles (if needed) and runs the code, with files found under the given sandbox path
+     * @param compiled true if the compiled artifact is already in the sandbox (compile cache hit)
+     */
+    public String getShellByFiles(String language, String sandbox, File codeFile, File inputFile, boolean compiled) {
+        String runShell = getRunShell(language, sandbox, codeFile, inputFile);
+        String compileShell = compiled ? null : getCompileShell(language, sandbox, codeFile);
+        if (runShell == null || compileShell == null) {
+            return runShell;
         }
+        return compileShell + " && " + runShell;
     }
 
-    public File build(ProcessBuilder processBuilder, CodeExecution exec) {
-
-        System.out.println("==Part 0");
-        //Get the current directory
-        File userDir = new File(System.getProperty("user.dir"));
-        File execDir = new File(userDir, ".test");
-
-        System.out.println("==Part 1");
-        //Check if the extension is valid and save it
-        String extension = getExtensionByLang(this.language);
-        if (extension == null) {
-            exec.exitStatus += this.language + " is not a supported language in CodeRunner. SUPPORTED: python, java, c\n";
-            exec.failed = true;
-            return null;
-        }
-
-
-
-        System.out.println("==Part 2");
-
-        //Make a new directory if needed
-        if (execDir.mkdir())
-            IDEController.logText("testing directory not detected; new directory created.");
-
-        System.out.println("==Part 3");
-
-        //Files for code/input
-        // to be pulled from
-        File dirFile, codeFile, inputFile;
-
-        try {
-            //Create a temporary directory to store the code
-            Path tempDir = Files.createTempDirectory(execDir.toPath(),"run");
-
-            //Create temporary code/input files with an appropriate filename
-            codeFile = Files.createTempFile(tempDir,"code-", extension).toFile();
-            inputFile = Files.createTempFile(tempDir,"input-", ".txt").toFile();
-            dirFile = new File(tempDir.toUri());
-
-            IDEController.logText("Files made.");
-
-            //Ensure files are temporary only
-            codeFile.deleteOnExit();
-            inputFile.deleteOnExit();
-            dirFile.deleteOnExit();
-
-            //Overwrite existing text files
-            Files.writeString(codeFile.toPath(),  this.code,  StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
-            Files.writeString(inputFile.toPath(), this.input, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+    //getShellByFiles, wrapped so the sandbox enforces timeLimits and records how long compile and program took (see TimedShell)
+    public String getTimedShellByFiles(String language, String sandbox, File codeFile, File inputFile, boolean compiled, SandboxLimits.TimeLimits timeLimits) {
+        String runShell = getRunShell(language, sandbox, codeFile, inputFile);
+        if (runShell == null) return null;
+        return TimedShell.wrap(sandbox + "/" + TimedShell.TIMING_FILE, compiled ? null : getCompileShell(language, sandbox, codeFile), runShell, timeLimits);
+    }
 
-            //Catch exception if files cannot be written to
-        } catch (IOException e) {
-            exec.exitStatus += "could not write to code file.";
-            return null;
+    //Creates the code file; javac needs it named after its class, other languages take any name
+    public File createCodeFile(Path dir, String extension) throws IOException {
+        String mainClass = language.equals("java") ? getMainClassName() : null;
+        if (mainClass != null) {
+            return Files.createFile(dir.resolve(mainClass + extension)).toFile();
         }
-
-        System.out.println("==Part 4");
-
-//        processBuilder.redirectInput(inputFile);
-        processBuilder.directory(execDir);
-
-        IDEController.logText("Running code on enter.");
-        //Run different execution methods for different languages
-        processBuilder.command(getCommandByFiles(language, codeFile, dirFile, inputFile));
-
-        System.out.println("==Part 5");
-
-        return dirFile;
+        return Files.createTempFile(dir, "code-", extension).toFile();
     }
 
-    /** runs the code provided, w/ input from exec and outputting into exec
-     * @param exec contains input text and will be filled with status, output, runtime information and more.
+    /** Compile-cache key for this code, or null if it isn't compiled or there is no cache
+     * @param toolchain the running backend's compiler (see CompileCache.keyFor); null skips caching
      */
-    public void run(CodeExecution exec) {
-        //Prepare ProcessBuilder to run code file accordingly (e.g. java xxx.java)
-        ProcessBuilder processBuilder = new ProcessBuilder();
-        Process process;
-
-        System.out.println("Step 1");
-
-        //Blank values for now:
-        exec.success = false;
-        exec.runtime = -1;
-        exec.output = "";
-        exec.error = "";
-        exec.exitStatus = "";
-
-        //Build code (AKA write data to files);
-        File dirFile = build(processBuilder, exec);
-        //If build failed, stop running
-        if (dirFile == null) {
-            closeRun(null, exec, "");
-            return;
-        }
-        System.out.println("Step 2");
-
-        //Try to start the process
-        try {
-            process = processBuilder.start();
-        } catch (IOException e) {
-            closeRun(dirFile, exec, "could not start program.");
-            return;
+    public String getCompileCacheKey(CompileCache compileCache, String toolchain) {
+        //Sandbox paths are fixed placeholders so the key only depends on the command and flags
+        String compileShell = getCompileShell(language, "sandbox", new File("code" + getExtensionByLang(language)));
+        if (compileCache == null || compileShell == null) {
+            return null;
         }
-
-        System.out.println("Step 3");
-
-        //TODO: use Docker to ensure dev env has all needed build tools
-
-        //Run the process, wait until complete
-        runProcess(process, processBuilder, exec, language, dirFile);
-
-        System.out.println("Step 4");
-
-        closeRun(dirFile, exec, "");
-
-        //System.out.println("Step 5");
+        return compileCache.keyFor(toolchain, language, compileShell, code);
     }
 
-    public void closeRun(File dirFile, CodeExecution exec, String newStatus) {
-        exec.exitStatus += newStatus;
-        //TODO: Remove unnecessary log statements here
-        //Print out latest output for now for testing purposes
-        IDEController.logText("====OUT:\n" + exec.output);
-        //Print out latest error for testing purposes
-        IDEController.logText("====ERR:\n" + exec.error);
-
-        if (dirFile != null) {
-            //Delete temporary files, if possible
-            try {
-                FileUtils.cleanDirectory(dirFile);
-            } catch (IOException e) {
-                exec.exitStatus += "code files failed to delete; terminating";
-                e.printStackTrace();
-                return;
-            }
-
-            try {
-                Files.delete(dirFile.toPath());
-            } catch (IOException e) {
-                exec.exitStatus += "Failed to delete temp directory; System issues.";
-                return;
-            }
-        }
-
-        if (!exec.error.isEmpty()) {
-            exec.exitStatus += "Execution errors detected; see stderr.\n";
-        }
-
-        //Set success to true/false depending on status
-        exec.success = exec.exitStatus.isEmpty();
+    //File or directory the compile step produces inside a run directory
+    public String getArtifactName(String language) {
+        return switch (language) {
+            case "c" -> "main";
+            case "java" -> "classes";
+            default -> null;
+        };
     }
 
-    /** Runs protected process with Time and Output Limits. Returns status depending on if those limits are hit
-     * @param process Process to be run
-     * @param exec Stores process outputs and status info
-     * @throws IOException if program output cannot be accessed
-     * @throws InterruptedException for thread.sleep calls on the main process (Spring Boot server)
-     */
-    public void runProcess(Process process, ProcessBuilder builder, CodeExecution exec, String language, File dirFile) {
-        //Use BufferedReader/StringBuilder to store outputs
-        BufferedReader errorBuffer = process.errorReader();
-        BufferedReader outputBuffer = process.inputReader();
-        StringBuilder outputs = new StringBuilder();
-        StringBuilder errors = new StringBuilder();
-
-        ////System.out.println("Part 0");
-
-        exec.exitStatus = "";
-
-        //Thread to read out the buffer values for output
-        Thread readOut = new Thread() {
-            public void run() {
-                String outLine = "";
-                //While there's more to be read:
-                while (outLine != null) {
-                    try {
-                        //Read from the buffer only if not null
-                        outLine = outputBuffer.readLine();
-                        if (outLine != null) {
-                            outputs.append(outLine); outputs.append("\n");
-                        }
-                    } catch (OutOfMemoryError | IOException e) {
-                        //Notify user if reading failed
-                        exec.exitStatus += "Output Limit Exceeded\n";
-                        break;
-                    }
-                }
-            }
+    //Shell line that compiles the code once, or null if the language is interpreted
+    public String getCompileShell(String language, String sandbox, File codeFile) {
+        return switch (language) {
+            case "c" -> "gcc " + sandbox + "/" + codeFile.getName() + " -o " + sandbox + "/main";
+            case "java" -> getMainClassName() == null ? null : "javac -d " + sandbox + "/classes " + sandbox + "/" + codeFile.getName();
+            default -> null;
         };
+    }
 
-        //Thread to read out the buffer values for input
-        Thread readErr = new Thread() {
-            public void run() {
-                String errLine = "";
-                //While there's more to be read:
-                while (errLine != null) {
-                    try {
-                        //Read from the buffer only if not null
-                        errLine = errorBuffer.readLine();
-                        if (errLine != null) {
-                            errors.append(errLine); errors.append("\n");
-                        }
-                    } catch (OutOfMemoryError | IOException e) {
-                        //Notify user if reading failed
-                        exec.exitStatus += "Error Limit Exceeded\n";
-                        break;
-                    }
-                }
-            }
+    //Shell line that runs already-compiled code (see getCompileShell) against one input file; null inputFile reads stdin
+    public String getRunShell(String language, String sandbox, File codeFile, File inputFile) {
+        String mainClass = getQualifiedMainClassName();
+        String stdin = inputFile == null ? "" : " < " + sandbox + "/" + inputFile.getName();
+        return switch (language) {
+            case "c" -> "./" + sandbox + "/main" + stdin;
+            //Fall back to the source launcher if the class name couldn't be found
+            case "java" -> mainClass == null
+                    ? "java " + sandbox + "/" + codeFile.getName() + stdin
+                    : "java -cp " + sandbox + "/classes " + mainClass + stdin;
+            case "python" -> "python3 " + sandbox + "/" + codeFile.getName() + stdin;
+            default -> null;
         };
+    }
 
-        //System.out.println("Part 1");
-
-        //Begin reading stdout
-        readOut.start();
-        readErr.start();
-
-        //System.out.println("Part 2");
-
-        //wait for the process to finish
-        try {
-            process.waitFor(60, TimeUnit.SECONDS);
-        } catch (InterruptedException e) {
-            exec.exitStatus += "Failed to poll program\n";
-        }
-
-        //Time limit exceeded
-        if (process.isAlive()) {
-            exec.exitStatus += "Time Limit Exceeded.\n";
-        }
-
-        //System.out.println("Part 3");
-
-        try {
-            // Stop and remove the container by name (dirFile => container name), wait until fully removed
-            builder.command("docker", "rm", "-f", dirFile.getName());
-            Process removal = builder.start();
-            removal.waitFor(); // This blocks until removal completes
-
-            if (removal.isAlive()) {
-                exec.exitStatus += "Failed to close docker container\n";
-            }
-            IDEController.logText("Waited for thread.");
-        } catch (IOException | InterruptedException e) {
-            exec.exitStatus += "Code failed to exit.\n";
-            IDEController.logText("Failure here");
-            e.printStackTrace();
-            try {
-                Thread.sleep(200);
-            } catch (InterruptedException ex) {
-                exec.failed = true;
-                exec.exitStatus += ex.getMessage();
-                return;
-            }
-        }
-
-        //System.out.println("Part 4");
-
-        IDEController.logText("Processes killed.");
-
-        //If the process exited improperly and an error wasn't caught, note it
-        if (process.isAlive()) {
-            exec.exitStatus += "Process has not exited properly.\n";
-        } else if (process.exitValue() != 0 && exec.exitStatus.equals("success")) {
-            exec.exitStatus += "Program exited with incorrect return value: " + process.exitValue() + "\n";
-        }
-
-        //System.out.println("Part 5");
-
-        //Stop reading input/error data, close buffers
-        try {
-            readOut.join(5000);
-            readErr.join(5000);
-            outputBuffer.close();
-            errorBuffer.close();
-        } catch (InterruptedException | IOException e) {
-            exec.exitStatus += "Failed to read stdout/stderr.\n";
-        }
-
-        //System.out.println("Part 6");
-
-        //Show the user the error message if it comes up
-        if (!exec.exitStatus.isEmpty()) {
-            outputs.append("\n====ERROR(S):");
-            outputs.append(exec.exitStatus);
-        }
-
-        //System.out.println("Part 7");
-
-        //Save the final output
-        exec.output = outputs.toString();
-        exec.error = errors.toString();
-
-        //Add size limits to avoid causing app slowdowns
-        if (exec.output.length() > 1_000_000) {
-            exec.output = exec.output.substring(0, 1_000_000)
-                    + "\n\n[Output truncated, 1MB Limit Exceeded]";
-        }
-
-        if (exec.error.length() > 1_000_000) {
-            exec.error = exec.error.substring(0, 1_000_000)
-                    + "\n\n[Error truncated, 1MB Limit Exceeded]";
-        }
+    //Name of the first top-level class, which the source launcher would run; null if none is found
+    public String getMainClassName() {
+        java.util.regex.Matcher matcher = java.util.regex.Pattern
+                .compile("^\\s*(?:(?:public|final|abstract)\\s+)*class\\s+([A-Za-z_$][A-Za-z0-9_$]*)", java.util.regex.Pattern.MULTILINE)
+                .matcher(code);
+        return matcher.find() ? matcher.group(1) : null;
+    }
 
-        //System.out.println("Part 8");
+    //getMainClassName with the source's package in front (e.g. app.Main), as java -cp needs it; null if no class is found
+    public String getQualifiedMainClassName() {
+        String mainClass = getMainClassName();
+        if (mainClass == null) return null;
+        java.util.regex.Matcher matcher = packageDeclaration.matcher(code);
+        return matcher.find() ? matcher.group(1).replaceAll("\\s+", "") + "." + mainClass : mainClass;
     }
 
     public String displayStr() {
@@ -0,0 +1,194 @@
+package com.cr.coderunner.model;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/** Captures one process stream as raw bytes, enforcing a byte cap while reading.
+ * The instant the cap is hit, reading stops and the onLimit callback runs (to kill the sandbox),
+ * so a program printing in a loop can never push more than the cap into the heap.
+ * When judging, an OutputComparator can check the bytes as they are read and stop the same way at the first wrong one.
+ */
+public class OutputCapture {
+    private static final int CHUNK_SIZE = 8192;
+    //Read buffers are recycled between captures instead of allocated per stream
+    private static final ArrayBlockingQueue<ByteBuffer> bufferPool = new ArrayBlockingQueue<>(64);
+
+    private final int limit;
+    private final Runnable onLimit;
+    //Live listeners and the stream name their chunks are tagged with; feed may be null
+    private final OutputFeed feed;
+    private final String streamName;
+    //Checks the stream against the expected output while reading; null if not judging it
+    private final OutputComparator comparator;
+    private byte[] data;
+    private int size;
+    //Bytes already handed to the feed
+    private int published;
+    private volatile boolean limitExceeded;
+    private Thread reader;
+
+    private OutputCapture(int limit, Runnable onLimit, OutputFeed feed, String streamName, OutputComparator comparator) {
+        this.limit = limit;
+        this.onLimit = onLimit;
+        this.feed = feed;
+        this.streamName = streamName;
+        this.comparator = comparator;
+        this.published = 0;
+        this.data = new byte[Math.min(CHUNK_SIZE, limit)];
+        this.size = 0;
+        this.limitExceeded = false;
+    }
+
+    /** Starts draining a stream on a virtual thread.
+     * @param limitBytes most bytes kept; reaching it stops the capture
+     * @param onLimit run once when the cap is hit (e.g. kill the sandbox); may be null
+     */
+    public static OutputCapture start(InputStream stream, long limitBytes, Runnable onLimit) {
+        return start(stream, limitBytes, onLimit, null, null);
+    }
+
+    /** Like start(stream, limitBytes, onLimit), also publishing each chunk to a live feed as it is read
+     * @param streamName tag for the feed's chunks, e.g. "stdout"
+     */
+    public static OutputCapture start(InputStream stream, long limitBytes, Runnable onLimit, OutputFeed feed, String streamName) {
+        return start(stream, limitBytes, onLimit, feed, streamName, null);
+    }
+
+    /** Like start(stream, limitBytes, onLimit, feed, streamName), also checking the bytes with a comparator as they are read;
+     * the first mismatch stops the capture and runs onLimit, as the cap does, and so does cancelling the comparator.
+     * The comparator is finished when the stream ends.
+     */
+    public static OutputCapture start(InputStream stream, long limitBytes, Runnable onLimit, OutputFeed feed, String streamName,
+                                      OutputComparator comparator) {
+        OutputCapture capture = new OutputCapture((int) Math.min(limitBytes, Integer.MAX_VALUE - 8), onLimit, feed, streamName, comparator);
+        capture.reader = Thread.ofVirtual().start(() -> capture.readAll(Channels.newChannel(stream)));
+        if (comparator != null && onLimit != null) comparator.onCancel(onLimit);
+        return capture;
+    }
+
+    /** Starts captures of a process's stdout and stderr; the first cap hit runs killSandbox and kills the process
+     * @param feed receives chunks live as they are read; null if nobody can stream this run
+     */
+    public static OutputCapture[] forProcess(Process process, long limitBytes, OutputFeed feed, Runnable killSandbox) {
+        return forProcess(process, limitBytes, feed, killSandbox, null);
+    }
+
+    /** Like forProcess(process, limitBytes, feed, killSandbox), with stdout checked by a comparator
+     * @param comparator the first wrong byte kills the program like a cap hit; null to only capture
+     */
+    public static OutputCapture[] forProcess(Process process, long limitBytes, OutputFeed feed, Runnable killSandbox, OutputComparator comparator) {
+        Runnable onLimit = () -> {
+            killSandbox.run();
+            process.destroyForcibly();
+        };
+        return new OutputCapture[] {
+                start(process.getInputStream(), limitBytes, onLimit, feed, "stdout", comparator),
+                start(process.getErrorStream(), limitBytes, onLimit, feed, "stderr")
+        };
+    }
+
+    //Waits for the stream to close (or the cap to be hit); returns false if it's still being read
+    public boolean await(Duration timeout) throws InterruptedException {
+        return reader.join(timeout);
+    }
+
+    public boolean isLimitExceeded() {
+        return limitExceeded;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized byte[] toByteArray() {
+        return Arrays.copyOf(data, size);
+    }
+
+    //Decodes the captured bytes once; a multi-byte character cut by the cap becomes a replacement char
+    public synchronized String text() {
+        return new String(data, 0, size, StandardCharsets.UTF_8);
+    }
+
+    private void readAll(ReadableByteChannel channel) {
+        ByteBuffer buffer = bufferPool.poll();
+        if (buffer == null) buffer = ByteBuffer.allocate(CHUNK_SIZE);
+        try (channel) {
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                int from = size();
+                boolean withinLimit = append(buffer);
+                publish(false);
+                //A wrong answer is final, so there's no point letting the program run on
+                if (!compare(from)) {
+                    if (onLimit != null) onLimit.run();
+                    return;
+                }
+                if (!withinLimit) {
+                    limitExceeded = true;
+                    if (onLimit != null) onLimit.run();
+                    return;
+                }
+                buffer.clear();
+            }
+        } catch (IOException e) {
+            //Stream closed underneath us (process killed); keep what was read
+        } finally {
+            if (comparator != null) comparator.finish();
+            publish(true);
+            buffer.clear();
+            bufferPool.offer(buffer);
+        }
+    }
+
+    //Sends newly read bytes to the feed, holding back a character split across reads unless the stream ended
+    private void publish(boolean end) {
+        if (feed == null) return;
+        String text;
+        synchronized (this) {
+            int until = end ? size : completeCharsEnd();
+            if (until <= published) return;
+            //Nobody listening: skip decoding but still move past these bytes
+            text = feed.hasSubscribers() ? new String(data, published, until - published, StandardCharsets.UTF_8) : "";
+            published = until;
+        }
+        feed.publish(streamName, text);
+    }
+
+    //End of the longest prefix of data that doesn't cut a UTF-8 sequence
+    private int completeCharsEnd() {
+        for (int i = size - 1; i >= Math.max(published, size - 3); i--) {
+            int b = data[i] & 0xFF;
+            if (b < 0x80) return size;
+            if (b >= 0xC0) {
+                int length = b >= 0xF0 ? 4 : b >= 0xE0 ? 3 : 2;
+                return i + length <= size ? size : i;
+            }
+        }
+        return size;
+    }
+
+    //Checks the bytes appended since from; false at a mismatch
+    private synchronized boolean compare(int from) {
+        return comparator == null || comparator.accept(data, from, size - from);
+    }
+
+    //Copies the buffer in, growing geometrically up to the cap; false if bytes past the cap arrived
+    private synchronized boolean append(ByteBuffer buffer) {
+        int wanted = buffer.remaining();
+        int room = limit - size;
+        int count = Math.min(wanted, room);
+        if (size + count > data.length) {
+            data = Arrays.copyOf(data, (int) Math.min(limit, Math.max((long) data.length * 2, size + count)));
+        }
+        buffer.get(data, size, count);
+        size += count;
+        return wanted <= room;
+    }
+}
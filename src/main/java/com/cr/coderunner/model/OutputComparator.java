@@ -0,0 +1,373 @@
+package com.cr.coderunner.model;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/** Checks a program's stdout against a test case's expected output as the bytes arrive, so a judge can stop
+ * the program at the first wrong byte instead of waiting for (and keeping) all of its output.
+ * It remembers where the first difference is, as a line and column of the program's output.
+ */
+public class OutputComparator {
+    //Absolute (or relative, for large values) difference FLOAT accepts when the problem doesn't set one
+    public static final double DEFAULT_TOLERANCE = 1e-6;
+    //Most of either side shown in a mismatch
+    private static final int SNIPPET_BYTES = 40;
+    //Longest output token FLOAT buffers before calling it wrong; numbers that long are never what's expected
+    private static final int MAX_NUMBER_BYTES = 1024;
+    private static final Pattern number = Pattern.compile("[+-]?(\\d+\\.?\\d*|\\.\\d+)([eE][+-]?\\d+)?");
+
+    /** How strictly output must match:
+     * EXACT byte for byte; WHITESPACE line by line, ignoring trailing spaces/tabs/\r on a line and trailing empty lines;
+     * TOKENS the same whitespace-separated tokens, however they are spread over lines;
+     * FLOAT like TOKENS, with numbers equal within the tolerance
+     */
+    public enum Mode { EXACT, WHITESPACE, TOKENS, FLOAT }
+
+    private final Mode mode;
+    private final double tolerance;
+    //EXACT: the expected bytes; WHITESPACE: its lines, trimmed; TOKENS/FLOAT: its tokens
+    private final byte[] expected;
+    private final byte[][] parts;
+
+    //Where the next byte of output goes: 1-based line, characters already on it
+    private int line;
+    private int column;
+    //Next expected byte (EXACT, or within the current line/token), and the current line or token
+    private int position;
+    private int part;
+    //WHITESPACE: whitespace seen but not yet matched, which only counts if something follows it on the line
+    private byte[] pending;
+    private int pendingCount;
+    private int pendingKept;
+    private int pendingColumn;
+    private boolean lineStarted;
+    //TOKENS/FLOAT: the token being read and where it started
+    private byte[] token;
+    private int tokenLength;
+    private int tokenLine;
+    private int tokenColumn;
+
+    private String mismatch;
+    private boolean finished;
+    //Set when the judge no longer needs this case (FAIL_FAST failed elsewhere); stop kills the program
+    private boolean cancelled;
+    private Runnable stop;
+
+    /**
+     * @param mode null compares exactly
+     * @param tolerance for FLOAT; null uses DEFAULT_TOLERANCE
+     */
+    public OutputComparator(String expected, Mode mode, Double tolerance) {
+        this.mode = mode != null ? mode : Mode.EXACT;
+        this.tolerance = tolerance != null ? tolerance : DEFAULT_TOLERANCE;
+        this.expected = (expected != null ? expected : "").getBytes(StandardCharsets.UTF_8);
+        this.parts = switch (this.mode) {
+            case EXACT -> null;
+            case WHITESPACE -> lines(this.expected);
+            case TOKENS, FLOAT -> tokens(this.expected);
+        };
+        this.line = 1;
+        this.column = 0;
+        this.pending = new byte[16];
+        this.token = new byte[16];
+    }
+
+    /** Checks the next bytes of output
+     * @return false once the output is known to be wrong (then or earlier); nothing after that is looked at
+     */
+    public synchronized boolean accept(byte[] bytes, int offset, int length) {
+        for (int i = offset; i < offset + length && mismatch == null; i++) {
+            switch (mode) {
+                case EXACT -> acceptExact(bytes, i, offset + length);
+                case WHITESPACE -> acceptLine(bytes, i, offset + length);
+                case TOKENS, FLOAT -> acceptToken(bytes, i, offset + length);
+            }
+            advance(bytes[i]);
+        }
+        return mismatch == null;
+    }
+
+    public boolean accept(String output) {
+        byte[] bytes = output.getBytes(StandardCharsets.UTF_8);
+        return accept(bytes, 0, bytes.length);
+    }
+
+    //The output ended: whatever is still expected is missing
+    public synchronized void finish() {
+        if (finished) return;
+        finished = true;
+        if (mismatch != null) return;
+        switch (mode) {
+            case EXACT -> {
+                if (position < expected.length) {
+                    fail(line, column + 1, quote(expected, position), "end of output");
+                }
+            }
+            case WHITESPACE -> {
+                if (lineStarted && part < parts.length && !endLine()) return;
+                if (lineStarted) part++;
+                if (part < parts.length) {
+                    fail(lineStarted ? line + 1 : line, 1, describeLine(parts[part]), "end of output");
+                }
+            }
+            case TOKENS, FLOAT -> {
+                if (tokenLength > 0 && !endToken()) return;
+                if (part < parts.length) {
+                    fail(line, column + 1, quote(parts[part], 0), "end of output");
+                }
+            }
+        }
+    }
+
+    public synchronized boolean isFinished() {
+        return finished;
+    }
+
+    /** Tells whoever is reading the output how to stop the program (OutputCapture passes its kill).
+     * Runs it right away if the case was already cancelled.
+     */
+    public void onCancel(Runnable stop) {
+        boolean now;
+        synchronized (this) {
+            this.stop = stop;
+            now = cancelled;
+        }
+        if (now) stop.run();
+    }
+
+    //The case's result no longer matters: stops its program if it is running, or as soon as it starts
+    public void cancel() {
+        Runnable now;
+        synchronized (this) {
+            if (cancelled) return;
+            cancelled = true;
+            now = stop;
+        }
+        if (now != null) now.run();
+    }
+
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    //True if the whole output was seen and matched
+    public synchronized boolean matches() {
+        return finished && mismatch == null;
+    }
+
+    //Where and how the output first differs, e.g. line 3, column 5: expected "12", got "13"; null if it doesn't
+    public synchronized String getMismatch() {
+        return mismatch;
+    }
+
+    private void acceptExact(byte[] bytes, int i, int end) {
+        if (position < expected.length && expected[position] == bytes[i]) {
+            position++;
+            return;
+        }
+        int at = characterStart(bytes, i);
+        fail(line, continuation(bytes[i]) ? column : column + 1,
+                position < expected.length ? quote(expected, characterStart(expected, position)) : "end of output",
+                quote(bytes, at, end));
+    }
+
+    private void acceptLine(byte[] bytes, int i, int end) {
+        byte b = bytes[i];
+        if (b == '\n') {
+            if (part < parts.length && !endLine()) return;
+            part++;
+            position = 0;
+            pendingCount = pendingKept = 0;
+            lineStarted = false;
+            return;
+        }
+        lineStarted = true;
+        if (b == ' ' || b == '\t' || b == '\r') {
+            if (pendingCount == 0) pendingColumn = column + 1;
+            //More whitespace than the line has left can only be trailing; keep counting, stop keeping
+            if (part < parts.length && pendingKept < parts[part].length - position) {
+                if (pendingKept == pending.length) pending = Arrays.copyOf(pending, pending.length * 2);
+                pending[pendingKept++] = b;
+            }
+            pendingCount++;
+            return;
+        }
+        if (part >= parts.length) {
+            fail(line, continuation(b) ? column : column + 1, "end of output", quote(bytes, characterStart(bytes, i), end));
+            return;
+        }
+        byte[] want = parts[part];
+        for (int k = 0; k < pendingCount; k++) {
+            if (position >= want.length || want[position] != pending[k]) {
+                //The unmatched whitespace, then what followed it
+                byte[] got = Arrays.copyOfRange(pending, k, pendingKept + end - i);
+                System.arraycopy(bytes, i, got, pendingKept - k, end - i);
+                fail(line, pendingColumn + k, position < want.length ? quote(want, position) : "end of line", quote(got, 0));
+                return;
+            }
+            position++;
+        }
+        pendingCount = pendingKept = 0;
+        if (position < want.length && want[position] == b) {
+            position++;
+            return;
+        }
+        fail(line, continuation(b) ? column : column + 1,
+                position < want.length ? quote(want, characterStart(want, position)) : "end of line",
+                quote(bytes, characterStart(bytes, i), end));
+    }
+
+    //A line of output ended; false (and a mismatch) if the expected line had more on it
+    private boolean endLine() {
+        byte[] want = parts[part];
+        if (position >= want.length) return true;
+        fail(line, pendingCount > 0 ? pendingColumn : column + 1, quote(want, position), "end of line");
+        return false;
+    }
+
+    private void acceptToken(byte[] bytes, int i, int end) {
+        byte b = bytes[i];
+        if (whitespace(b)) {
+            if (tokenLength > 0) endToken();
+            return;
+        }
+        if (tokenLength == 0) {
+            tokenLine = line;
+            tokenColumn = column + 1;
+            if (part >= parts.length) {
+                fail(tokenLine, tokenColumn, "end of output", quote(bytes, i, end));
+                return;
+            }
+        }
+        byte[] want = parts[part];
+        //Exact tokens can be checked byte by byte; numbers only once they're whole
+        if (mode == Mode.TOKENS && (tokenLength >= want.length || want[tokenLength] != b)
+                || mode == Mode.FLOAT && tokenLength >= Math.max(want.length, MAX_NUMBER_BYTES)) {
+            int from = i;
+            while (from < end && !whitespace(bytes[from])) {
+                from++;
+            }
+            byte[] got = Arrays.copyOf(token, tokenLength + from - i);
+            System.arraycopy(bytes, i, got, tokenLength, from - i);
+            fail(tokenLine, tokenColumn, quote(want, 0), quote(got, 0));
+            return;
+        }
+        if (tokenLength == token.length) token = Arrays.copyOf(token, token.length * 2);
+        token[tokenLength++] = b;
+    }
+
+    //A token of output ended; false (and a mismatch) if it isn't the expected one
+    private boolean endToken() {
+        byte[] want = parts[part];
+        byte[] got = Arrays.copyOf(token, tokenLength);
+        tokenLength = 0;
+        if (Arrays.equals(want, got) || mode == Mode.FLOAT && closeEnough(want, got)) {
+            part++;
+            return true;
+        }
+        fail(tokenLine, tokenColumn, quote(want, 0), quote(got, 0));
+        return false;
+    }
+
+    private boolean closeEnough(byte[] want, byte[] got) {
+        String expectedText = new String(want, StandardCharsets.US_ASCII);
+        String actualText = new String(got, StandardCharsets.US_ASCII);
+        if (!number.matcher(expectedText).matches() || !number.matcher(actualText).matches()) return false;
+        double a = Double.parseDouble(expectedText);
+        double b = Double.parseDouble(actualText);
+        double difference = Math.abs(a - b);
+        return difference <= tolerance || difference <= tolerance * Math.abs(a);
+    }
+
+    private void advance(byte b) {
+        if (b == '\n') {
+            line++;
+            column = 0;
+        } else if (!continuation(b)) {
+            column++;
+        }
+    }
+
+    private void fail(int atLine, int atColumn, String want, String got) {
+        mismatch = "line " + atLine + ", column " + atColumn + ": expected " + want + ", got " + got;
+    }
+
+    private static String describeLine(byte[] want) {
+        return want.length == 0 ? "an empty line" : quote(want, 0);
+    }
+
+    //Up to SNIPPET_BYTES of bytes from offset, stopping at a line break, as a quoted string (or "a line break" if it starts with one)
+    private static String quote(byte[] bytes, int offset) {
+        return quote(bytes, offset, bytes.length);
+    }
+
+    private static String quote(byte[] bytes, int offset, int end) {
+        if (offset < end && bytes[offset] == '\n') return "a line break";
+        int stop = offset;
+        while (stop < end && stop - offset < SNIPPET_BYTES && bytes[stop] != '\n') {
+            stop++;
+        }
+        boolean cut = stop < end && bytes[stop] != '\n';
+        //Don't split a character at the cut
+        while (cut && stop > offset && continuation(bytes[stop])) {
+            stop--;
+        }
+        String text = new String(bytes, offset, stop - offset, StandardCharsets.UTF_8).replace("\r", "\\r").replace("\t", "\\t");
+        return "\"" + text + (cut ? "..." : "") + "\"";
+    }
+
+    //Start of the UTF-8 character holding bytes[i]
+    private static int characterStart(byte[] bytes, int i) {
+        int start = i;
+        while (start > 0 && i - start < 3 && continuation(bytes[start])) {
+            start--;
+        }
+        return start;
+    }
+
+    private static boolean continuation(byte b) {
+        return (b & 0xC0) == 0x80;
+    }
+
+    private static boolean whitespace(byte b) {
+        return b == ' ' || b == '\n' || b == '\t' || b == '\r' || b == '\f' || b == 0x0B;
+    }
+
+    //Lines without trailing whitespace, dropping trailing empty lines
+    private static byte[][] lines(byte[] text) {
+        List<byte[]> lines = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i <= text.length; i++) {
+            if (i == text.length || text[i] == '\n') {
+                int end = i;
+                while (end > start && (text[end - 1] == ' ' || text[end - 1] == '\t' || text[end - 1] == '\r')) {
+                    end--;
+                }
+                lines.add(Arrays.copyOfRange(text, start, end));
+                start = i + 1;
+            }
+        }
+        while (!lines.isEmpty() && lines.get(lines.size() - 1).length == 0) {
+            lines.remove(lines.size() - 1);
+        }
+        return lines.toArray(new byte[0][]);
+    }
+
+    private static byte[][] tokens(byte[] text) {
+        List<byte[]> tokens = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= text.length; i++) {
+            boolean boundary = i == text.length || whitespace(text[i]);
+            if (boundary && start >= 0) {
+                tokens.add(Arrays.copyOfRange(text, start, i));
+                start = -1;
+            } else if (!boundary && start < 0) {
+                start = i;
+            }
+        }
+        return tokens.toArray(new byte[0][]);
+    }
+}
@@ -0,0 +1,83 @@
+package com.cr.coderunner.model;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Fans out live stdout/stderr chunks of one execution to any streaming clients.
+ * Each subscriber has a bounded queue; a subscriber that falls behind loses chunks (counted in dropped)
+ * instead of making the feed buffer without limit or stalling the program. The full output is always
+ * in the final result.
+ */
+public class OutputFeed {
+    public record Chunk(String stream, String text) {}
+
+    public static class Subscription {
+        private final OutputFeed feed;
+        private final ArrayBlockingQueue<Chunk> queue;
+        //Characters discarded since the last takeDropped()
+        private final AtomicLong dropped;
+
+        private Subscription(OutputFeed feed, int capacity) {
+            this.feed = feed;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+            this.dropped = new AtomicLong();
+        }
+
+        private void offer(Chunk chunk) {
+            if (!queue.offer(chunk)) {
+                dropped.addAndGet(chunk.text().length());
+            }
+        }
+
+        //Next chunk, or null if none arrived within the timeout
+        public Chunk poll(long timeoutMillis) throws InterruptedException {
+            return queue.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+
+        public long takeDropped() {
+            return dropped.getAndSet(0);
+        }
+
+        //True once the execution finished and every queued chunk was taken
+        public boolean isDrained() {
+            return feed.closed && queue.isEmpty();
+        }
+
+        public void cancel() {
+            feed.subscribers.remove(this);
+        }
+    }
+
+    private final CopyOnWriteArrayList<Subscription> subscribers;
+    private volatile boolean closed;
+
+    public OutputFeed() {
+        this.subscribers = new CopyOnWriteArrayList<>();
+        this.closed = false;
+    }
+
+    /** Starts receiving chunks published from now on; earlier output is only in the final result */
+    public Subscription subscribe(int capacity) {
+        Subscription subscription = new Subscription(this, capacity);
+        subscribers.add(subscription);
+        return subscription;
+    }
+
+    public boolean hasSubscribers() {
+        return !subscribers.isEmpty();
+    }
+
+    public void publish(String stream, String text) {
+        if (text.isEmpty()) return;
+        Chunk chunk = new Chunk(stream, text);
+        for (Subscription subscription : subscribers) {
+            subscription.offer(chunk);
+        }
+    }
+
+    public void close() {
+        closed = true;
+    }
+}
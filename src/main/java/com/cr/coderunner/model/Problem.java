@@ -2,16 +2,31 @@ package com.cr.coderunner.model;
 
 
 import com.cr.coderunner.dto.RunResult;
+import com.cr.coderunner.service.ExecutionBackend;
+import com.cr.coderunner.service.SandboxCapacity;
+import com.cr.coderunner.service.SandboxLimits;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class Problem {
+    //Cases SAMPLED runs when the problem doesn't set sampleCases
+    public static final int DEFAULT_SAMPLE_CASES = 3;
+
+    //How much of a problem to judge: every case, up to the first failing one, or just the first few (IDE "run tests")
+    public enum JudgeMode { FULL, FAIL_FAST, SAMPLED }
+
     public static class TestCase {
         public String input;
         public String output;
+        //Optional per-case overrides of the problem's time limits, in ms
+        public Long timeLimitMs;
+        public Long cpuTimeLimitMs;
         @JsonCreator
         public TestCase(@JsonProperty("output") String output, @JsonProperty("input") String input) {
             this.output = output;
@@ -22,6 +37,18 @@ public class Problem {
     public TestCase[] testCases;
     public String description;
     public String name;
+    //Optional time limits in ms; unset ones come from the language's defaults (coderunner.limits.*)
+    public Long timeLimitMs;
+    public Long cpuTimeLimitMs;
+    public Long compileTimeLimitMs;
+    //Optional judging defaults: the mode when the request doesn't pick one (FULL if unset), how many leading cases
+    //SAMPLED runs, and how many cases may run at once, each slice of them in its own sandbox
+    public JudgeMode judgeMode;
+    public Integer sampleCases;
+    public Integer maxParallelCases;
+    //How output is checked against the cases' (EXACT if unset), and the difference FLOAT lets numbers have
+    public OutputComparator.Mode compareMode;
+    public Double floatTolerance;
 
     @JsonCreator
     public Problem(@JsonProperty("test cases") TestCase[] testCases, @JsonProperty("description") String description, @JsonProperty("name") String name) {
@@ -30,29 +57,128 @@ public class Problem {
         this.name = name;
     }
 
-    public CodeExecution[] runCases(CodeSubmission codeSubmission) throws InterruptedException {
-        CodeExecution[] executions = new CodeExecution[testCases.length];
+    public CodeExecution[] runCases(CodeSubmission codeSubmission, ExecutionBackend backend, SandboxLimits limits) throws InterruptedException {
+        return runCases(codeSubmission, backend, limits, JudgeMode.FULL, null, 1);
+    }
 
-        for (int i = 0; i < executions.length; i++) {
-            executions[i] = new CodeExecution(codeSubmission/*, testCases[i].input*/);
-            executions[i].start();
+    /** Judges a submission against the test cases
+     * @param mode null uses the problem's judgeMode
+     * @param sandboxes where extra sandboxes for parallel cases come from; the caller already holds one. Null runs the cases in one.
+     * @param defaultParallelCases cases run at once when the problem doesn't set maxParallelCases
+     * @return one execution per judged case, in order; cases after a FAIL_FAST failure come back skipped
+     */
+    public CodeExecution[] runCases(CodeSubmission codeSubmission, ExecutionBackend backend, SandboxLimits limits,
+                                    JudgeMode mode, SandboxCapacity sandboxes, int defaultParallelCases) throws InterruptedException {
+        JudgeMode judging = mode != null ? mode : judgeMode != null ? judgeMode : JudgeMode.FULL;
+        int count = judging == JudgeMode.SAMPLED ? Math.min(testCases.length, sampleCases != null ? sampleCases : DEFAULT_SAMPLE_CASES) : testCases.length;
+        SandboxLimits.TimeLimits problemLimits = (limits != null ? limits.timeLimits(codeSubmission.language) : SandboxLimits.TimeLimits.DEFAULT)
+                .withOverrides(compileTimeLimitMs, timeLimitMs, cpuTimeLimitMs);
+
+        //Extra sandboxes only if they're free right now, so judging never waits on (or starves) other runs
+        int wanted = Math.min(count, Math.max(1, maxParallelCases != null ? maxParallelCases : defaultParallelCases));
+        int extra = 0;
+        while (sandboxes != null && extra < wanted - 1 && sandboxes.tryAcquire()) {
+            extra++;
+        }
+        int slices = Math.max(1, Math.min(count, 1 + extra));
+
+        CodeExecution[] executions = new CodeExecution[count];
+        AtomicBoolean failed = new AtomicBoolean();
+        //Comparators of the cases running now, so a FAIL_FAST failure can stop the ones in other slices
+        Queue<OutputComparator> running = new ConcurrentLinkedQueue<>();
+        try {
+            //Case i goes to slice i % slices, so every slice starts on the early cases
+            Thread[] workers = new Thread[slices - 1];
+            for (int slice = 1; slice < slices; slice++) {
+                int first = slice;
+                workers[slice - 1] = Thread.ofVirtual().name("judge-" + name + "-" + slice)
+                        .start(() -> runSlice(codeSubmission, backend, problemLimits, first, slices, judging, failed, running, executions));
+            }
+            runSlice(codeSubmission, backend, problemLimits, 0, slices, judging, failed, running, executions);
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        } finally {
+            for (int i = 0; i < slices - 1; i++) {
+                sandboxes.release();
+            }
         }
+        return executions;
+    }
 
-        for (int i = 0; i < executions.length; i++) {
-            executions[i].join();
-            if (!executions[i].output.equals(testCases[i].output)) {
-                executions[i].success = false;
+    //Compiles once and runs cases first, first + step, ... in one sandbox, judging each as it finishes
+    private void runSlice(CodeSubmission codeSubmission, ExecutionBackend backend, SandboxLimits.TimeLimits problemLimits,
+                          int first, int step, JudgeMode judging, AtomicBoolean failed, Queue<OutputComparator> running,
+                          CodeExecution[] executions) {
+        int size = (executions.length - first + step - 1) / step;
+        String[] inputs = new String[size];
+        SandboxLimits.TimeLimits[] caseLimits = new SandboxLimits.TimeLimits[size];
+        for (int i = 0; i < size; i++) {
+            TestCase testCase = testCases[first + i * step];
+            inputs[i] = testCase.input;
+            caseLimits[i] = problemLimits.withOverrides(null, testCase.timeLimitMs, testCase.cpuTimeLimitMs);
+        }
 
-                //Empty the output if it indicates success
-                if (executions[i].exitStatus.equals("success"))
-                    executions[i].exitStatus = "";
+        //Compile once, then feed every case's input through the same sandbox, checking its output as it's printed
+        CodeExecution[] slice = backend.runAll(codeSubmission, inputs, caseLimits, new ExecutionBackend.CaseListener() {
+            @Override
+            public boolean caseFinished(int i, CodeExecution execution) {
+                running.remove(execution.comparator);
+                if (execution.comparator != null && execution.comparator.isCancelled()) {
+                    //Killed because another slice failed first; its verdict would only be the kill
+                    execution.success = false;
+                    execution.exitStatus = "";
+                    CodeExecution.skip(new CodeExecution[] {execution}, 0);
+                    return false;
+                }
+                if (!judge(execution, testCases[first + i * step]) && judging == JudgeMode.FAIL_FAST && !failed.getAndSet(true)) {
+                    //Other slices stop too, killing the case they are running
+                    running.forEach(OutputComparator::cancel);
+                }
+                return !(judging == JudgeMode.FAIL_FAST && failed.get());
+            }
 
-                //Indicate failure to pass test case.
-                executions[i].exitStatus += "Failure: Incorrect output.\n";
+            @Override
+            public OutputComparator comparator(int i) {
+                OutputComparator comparator = comparatorFor(testCases[first + i * step]);
+                if (judging == JudgeMode.FAIL_FAST) {
+                    running.add(comparator);
+                    //A failure elsewhere may have come first; then this case stops as soon as it starts
+                    if (failed.get()) comparator.cancel();
+                }
+                return comparator;
             }
+        });
+        for (int i = 0; i < size; i++) {
+            executions[first + i * step] = slice[i];
         }
+    }
 
-        return executions;
+    private OutputComparator comparatorFor(TestCase testCase) {
+        return new OutputComparator(testCase.output, compareMode, floatTolerance);
+    }
+
+    //Marks a case failed unless it ran cleanly and printed the expected output; false if it failed
+    private boolean judge(CodeExecution execution, TestCase testCase) {
+        OutputComparator comparator = execution.comparator;
+        //Backends that don't stream the output through the comparator (warm workers) are checked on the whole of it
+        if (comparator == null || !comparator.isFinished()) {
+            comparator = comparatorFor(testCase);
+            comparator.accept(execution.output);
+            comparator.finish();
+        }
+        if (!comparator.matches()) {
+            execution.success = false;
+            execution.mismatch = comparator.getMismatch();
+
+            //Empty the output if it indicates success
+            if (execution.exitStatus.equals("success"))
+                execution.exitStatus = "";
+
+            //Indicate failure to pass test case.
+            execution.exitStatus += "Failure: Incorrect output.\n";
+        }
+        return execution.exitStatus.isEmpty() && execution.error.isEmpty();
     }
 
     public static List<RunResult> simplifyCases(CodeExecution[] cases) {
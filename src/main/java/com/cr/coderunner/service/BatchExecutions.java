@@ -0,0 +1,193 @@
+package com.cr.coderunner.service;
+
+import com.cr.coderunner.controller.IDEController;
+import com.cr.coderunner.dto.BatchStatus;
+import com.cr.coderunner.dto.ManyResults;
+import com.cr.coderunner.dto.RunResult;
+import com.cr.coderunner.model.CodeSubmission;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+/** Runs many submissions for one request. Submissions with the same language and code share a sandbox job in chunks,
+ * so they compile once per chunk; a per-batch feeder keeps up to coderunner.batch.parallelism chunks queued at a time
+ * and retries when the scheduler is full, so a large batch is paced by sandbox capacity instead of being rejected.
+ */
+@Service
+public class BatchExecutions {
+    //How often a streaming client is sent the batch's progress
+    private static final long PROGRESS_INTERVAL_MS = 250;
+
+    private static class Batch {
+        final List<String> executionIds;
+        final long createdAt;
+        volatile boolean fed;
+
+        Batch(List<String> executionIds) {
+            this.executionIds = executionIds;
+            this.createdAt = System.currentTimeMillis();
+        }
+    }
+
+    private final CodeExecutionService executionService;
+    private final ConcurrentHashMap<String, Batch> batches;
+    private final int maxSize;
+    private final int chunkSize;
+    private final int parallelism;
+    private final long ttlMillis;
+    private final long streamTimeoutMillis;
+
+    public BatchExecutions(CodeExecutionService executionService, SandboxCapacity sandboxes,
+                           @Value("${coderunner.batch.max-size:500}") int maxSize,
+                           @Value("${coderunner.batch.chunk-size:8}") int chunkSize,
+                           @Value("${coderunner.batch.parallelism:0}") int parallelism,
+                           @Value("${coderunner.results.ttl-seconds:300}") long ttlSeconds,
+                           @Value("${coderunner.stream.timeout-ms:180000}") long streamTimeoutMillis) {
+        this.executionService = executionService;
+        this.batches = new ConcurrentHashMap<>();
+        this.maxSize = maxSize;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.parallelism = parallelism > 0 ? parallelism : sandboxes.total();
+        this.ttlMillis = ttlSeconds * 1000;
+        this.streamTimeoutMillis = streamTimeoutMillis;
+    }
+
+    /** Accepts a batch and starts feeding it to the scheduler
+     * @return the batch id; every item is reported RUNNING from now on, even before its chunk is queued
+     * @throws IllegalArgumentException if the batch is empty or larger than coderunner.batch.max-size
+     */
+    public String submit(List<CodeSubmission> submissions, String tenant, ExecutionScheduler.Source source) {
+        if (submissions == null || submissions.isEmpty() || submissions.size() > maxSize) {
+            throw new IllegalArgumentException("A batch needs between 1 and " + maxSize + " submissions.");
+        }
+        String[] ids = new String[submissions.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = executionService.newExecutionId();
+            executionService.reserve(ids[i], submissions.get(i));
+        }
+
+        //Same language, code and deadline: one compile serves the whole chunk
+        Map<String, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < ids.length; i++) {
+            CodeSubmission submission = submissions.get(i);
+            String key = submission.language + "\0" + submission.deadlineMillis + "\0" + submission.code;
+            groups.computeIfAbsent(key, k -> new ArrayList<>()).add(i);
+        }
+        List<int[]> chunks = new ArrayList<>();
+        for (List<Integer> group : groups.values()) {
+            for (int from = 0; from < group.size(); from += chunkSize) {
+                chunks.add(group.subList(from, Math.min(group.size(), from + chunkSize)).stream().mapToInt(Integer::intValue).toArray());
+            }
+        }
+
+        String batchId = executionService.newExecutionId();
+        Batch batch = new Batch(List.of(ids));
+        batches.put(batchId, batch);
+        Thread.ofVirtual().name("batch-" + batchId).start(() -> feed(batch, ids, submissions, chunks, tenant, source));
+        return batchId;
+    }
+
+    /**
+     * @param withResults include every item's RunResult (as ManyResults)
+     * @param statusOnly leave output and error out of those results (see /check?statusOnly=true)
+     */
+    public BatchStatus status(String batchId, boolean withResults, boolean statusOnly) {
+        batchId = batchId.replace("\"", "");
+        Batch batch = batches.get(batchId);
+        if (batch == null) {
+            return new BatchStatus(batchId, "NONEXISTENT", List.of());
+        }
+        BatchStatus status = new BatchStatus(batchId, "RUNNING", batch.executionIds);
+        List<RunResult> results = new ArrayList<>();
+        for (String id : batch.executionIds) {
+            RunResult result = executionService.checkExecution(id, statusOnly || !withResults);
+            if (!result.status.equals("RUNNING")) status.finished++;
+            results.add(result);
+        }
+        if (status.finished == status.total) status.status = "FINISHED";
+        if (withResults) status.results = new ManyResults(results);
+        return status;
+    }
+
+    //Server-sent events: "progress" (a BatchStatus) whenever more items finish, then one "result" with every RunResult
+    public SseEmitter open(String batchId, boolean statusOnly) {
+        SseEmitter emitter = new SseEmitter(streamTimeoutMillis);
+        Thread.ofVirtual().name("batch-stream-" + batchId).start(() -> {
+            try {
+                int reported = -1;
+                BatchStatus status = status(batchId, false, true);
+                while (status.status.equals("RUNNING")) {
+                    if (status.finished != reported) {
+                        emitter.send(SseEmitter.event().name("progress").data(status));
+                        reported = status.finished;
+                    }
+                    Thread.sleep(PROGRESS_INTERVAL_MS);
+                    status = status(batchId, false, true);
+                }
+                emitter.send(SseEmitter.event().name("result").data(status(batchId, true, statusOnly)));
+                emitter.complete();
+            } catch (IOException e) {
+                //Client disconnected; nothing left to send to
+                emitter.completeWithError(e);
+            } catch (InterruptedException e) {
+                emitter.complete();
+            }
+        });
+        return emitter;
+    }
+
+    @Scheduled(fixedRate = 30_000)
+    public void cleanBatches() {
+        long cutoff = System.currentTimeMillis() - ttlMillis;
+        batches.values().removeIf(batch -> batch.fed && batch.createdAt < cutoff);
+    }
+
+    //Hands chunks to the executor, at most parallelism at a time, waiting out a full scheduler
+    private void feed(Batch batch, String[] ids, List<CodeSubmission> submissions, List<int[]> chunks, String tenant, ExecutionScheduler.Source source) {
+        Semaphore running = new Semaphore(parallelism);
+        int next = 0;
+        try {
+            for (; next < chunks.size(); next++) {
+                String[] chunkIds = idsOf(chunks.get(next), ids);
+                CodeSubmission[] group = Arrays.stream(chunks.get(next)).mapToObj(submissions::get).toArray(CodeSubmission[]::new);
+                running.acquire();
+                while (true) {
+                    try {
+                        executionService.executeGroup(chunkIds, group, tenant, source).whenComplete((done, e) -> running.release());
+                        break;
+                    } catch (QueueFullException e) {
+                        //Give up once its results would have expired anyway
+                        if (System.currentTimeMillis() - batch.createdAt > ttlMillis) throw e;
+                        Thread.sleep(Math.min(1000, e.retryAfterSeconds * 1000));
+                    } catch (RuntimeException e) {
+                        IDEController.logText("Batch chunk failed to queue: " + e.getMessage());
+                        executionService.failReserved(chunkIds, "Failed to queue: " + e.getMessage() + "\n");
+                        running.release();
+                        break;
+                    }
+                }
+            }
+        } catch (InterruptedException | QueueFullException e) {
+            //Chunks not handed over yet never will be
+            for (int rest = next; rest < chunks.size(); rest++) {
+                executionService.failReserved(idsOf(chunks.get(rest), ids), "Dropped: the batch could not be queued in time.\n");
+            }
+        } finally {
+            batch.fed = true;
+        }
+    }
+
+    private static String[] idsOf(int[] chunk, String[] ids) {
+        return Arrays.stream(chunk).mapToObj(i -> ids[i]).toArray(String[]::new);
+    }
+}
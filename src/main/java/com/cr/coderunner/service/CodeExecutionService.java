@@ -1,62 +1,496 @@
 package com.cr.coderunner.service;
 
+import com.cr.coderunner.dto.OutputPage;
 import com.cr.coderunner.dto.RunResult;
 import com.cr.coderunner.model.CodeExecution;
 import com.cr.coderunner.model.CodeSubmission;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.List;
 import java.util.UUID;
 
 @Service
 public class CodeExecutionService {
-    //Arbitrarily we pick to have 10 threads executing
-    private static final int threadCount = 10;
+    //How often API nodes re-read the shared result store while a client waits
+    private static final long STORE_POLL_MS = 50;
+    //Bytes read at a time while looking for line breaks
+    private static final int LINE_SCAN_BYTES = 65536;
 
     private final ConcurrentHashMap<String, CodeExecution> results;
-    private final ExecutorService executor;
+    private final ExecutionScheduler scheduler;
+    private final ExecutionBackends backends;
+    private final ResultCache resultCache;
+    private final SandboxLimits limits;
+    private final MeterRegistry registry;
+    private final int outputLimitBytes;
+    private final int maxPageBytes;
+    //API nodes only queue runs for worker nodes (see QueueWorker); "all" and "worker" nodes run them
+    private final boolean apiOnly;
+    private final JobQueue jobQueue;
+    //Results of queued jobs, shared between API and worker nodes
+    private final ResultStore sharedResults;
+    //Finished results of executions run for this node's own clients, readable until the TTL
+    private final ResultStore finishedResults;
+    private final long resultTtlMillis;
 
-    public CodeExecutionService() {
-        this.executor = Executors.newFixedThreadPool(threadCount);
+    public CodeExecutionService(ExecutionScheduler scheduler, ExecutionBackends backends, ResultCache resultCache, SandboxLimits limits,
+                                MeterRegistry registry, JobQueue jobQueue, FileResultStore sharedResults, TieredResultStore finishedResults,
+                                @Value("${coderunner.output.limit-bytes:1000000}") int outputLimitBytes,
+                                @Value("${coderunner.output.max-page-bytes:65536}") int maxPageBytes,
+                                @Value("${coderunner.role:all}") String role,
+                                @Value("${coderunner.results.ttl-seconds:300}") long resultTtlSeconds) {
+        this.scheduler = scheduler;
         this.results = new ConcurrentHashMap<>();
+        this.backends = backends;
+        this.resultCache = resultCache;
+        this.limits = limits;
+        this.registry = registry;
+        this.jobQueue = jobQueue;
+        this.sharedResults = sharedResults;
+        this.finishedResults = finishedResults;
+        this.resultTtlMillis = resultTtlSeconds * 1000;
+        this.outputLimitBytes = outputLimitBytes;
+        this.maxPageBytes = maxPageBytes;
+        this.apiOnly = role.equalsIgnoreCase("api");
     }
 
-    public String execute(CodeExecution execution) {
+    /** Queues an execution and returns the ID used to check on it.
+     * @param tenant who submitted it (user id or client address), for fair queuing
+     * @param source which kind of client submitted it, which sets its priority class
+     * @throws QueueFullException if the scheduler (or on an API node, the shared queue) can't take more work right now
+     */
+    public String execute(CodeExecution execution, String tenant, ExecutionScheduler.Source source) {
+        String executionId = newExecutionId();
+
+        if (apiOnly) {
+            //Visible to /check on every API node before any worker picks it up
+            sharedResults.put(executionId, new RunResult(execution, "RUNNING"));
+            try {
+                jobQueue.offer(new JobQueue.Job(executionId, execution.codeSubmission, tenant, source, System.currentTimeMillis()));
+            } catch (RuntimeException e) {
+                sharedResults.remove(executionId);
+                throw e;
+            }
+            return executionId;
+        }
+        CodeExecution tracked = start(executionId, execution, tenant, source);
+        //Once finished, the result lives in the store and the execution (with its output) can be collected
+        String id = executionId;
+        tracked.completion.thenAccept(done -> {
+            finishedResults.put(id, new RunResult(done, "FINISHED"));
+            results.remove(id);
+        });
+        return executionId;
+    }
+
+    public String newExecutionId() {
         // Get a random UUID
         String executionId = UUID.randomUUID().toString();
         // Ensure that UUID isn't already used
         while  (results.containsKey(executionId)) {
             executionId = UUID.randomUUID().toString();
         }
+        return executionId;
+    }
+
+    //Makes /check report an id as RUNNING before its run is handed to executeGroup
+    public void reserve(String executionId, CodeSubmission submission) {
+        if (apiOnly) {
+            sharedResults.put(executionId, new RunResult(new CodeExecution(submission), "RUNNING"));
+        } else {
+            results.put(executionId, new CodeExecution(submission));
+        }
+    }
+
+    /** Runs reserved submissions that differ only in their input as one sandbox job: compiled once, then run on each input in turn.
+     * Each result is stored under its id and read like one from execute(). API nodes queue the group as one job,
+     * which a worker runs the same way.
+     * @return completes once every result is stored (on API nodes, once a worker has published them all)
+     * @throws QueueFullException if the scheduler (or the shared queue) can't take the group right now; nothing was queued
+     *                            and the ids stay reserved
+     */
+    public CompletableFuture<Void> executeGroup(String[] ids, CodeSubmission[] group, String tenant, ExecutionScheduler.Source source) {
+        if (apiOnly) {
+            List<JobQueue.GroupItem> items = new ArrayList<>();
+            for (int i = 0; i < ids.length; i++) {
+                items.add(new JobQueue.GroupItem(ids[i], group[i].input));
+            }
+            //One job for the whole group, so it is queued all at once or not at all
+            jobQueue.offer(new JobQueue.Job(ids[0], group[0], tenant, source, System.currentTimeMillis(), items));
+            return whenStored(ids);
+        }
+        return runGroup(ids, group, tenant, source, finishedResults);
+    }
+
+    //Runs a group in one sandbox job on this node, storing each result in the given store
+    private CompletableFuture<Void> runGroup(String[] ids, CodeSubmission[] group, String tenant, ExecutionScheduler.Source source,
+                                             ResultStore store) {
+        CodeExecution[] pending = new CodeExecution[ids.length];
+        String[] inputs = new String[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            CodeSubmission item = group[i];
+            pending[i] = results.computeIfAbsent(ids[i], id -> new CodeExecution(item));
+            inputs[i] = item.input;
+        }
+        CodeSubmission submission = group[0];
+        long queuedAt = System.nanoTime();
+        return scheduler.submit(tenant, source, submission.deadlineMillis, () -> {
+            double queueWaitMs = (System.nanoTime() - queuedAt) / 1e6;
+            CodeExecution[] done = backends.forLanguage(submission.language).runAll(submission, inputs, null);
+            for (CodeExecution execution : done) {
+                execution.queueWaitMs = queueWaitMs;
+            }
+            return done;
+        }).handle((done, e) -> {
+            for (int i = 0; i < ids.length; i++) {
+                if (done == null) {
+                    markDropped(pending[i], e instanceof TimeoutException || e.getCause() instanceof TimeoutException
+                            ? "Dropped: deadline passed before execution started.\n"
+                            : "Failed to run: " + e.getMessage() + "\n");
+                }
+                //Stored before the placeholder finishes (on both paths), so anyone it wakes reads the real result
+                store.put(ids[i], new RunResult(done != null ? done[i] : pending[i], "FINISHED"));
+                results.remove(ids[i]);
+                pending[i].finish();
+            }
+            return null;
+        });
+    }
+
+    //Gives up on reserved ids that will never run, storing the reason as their result
+    public void failReserved(String[] ids, String status) {
+        for (String id : ids) {
+            CodeExecution execution = new CodeExecution(null);
+            drop(execution, status);
+            RunResult result = new RunResult(execution, "FINISHED");
+            if (apiOnly) {
+                sharedResults.put(id, result);
+            } else {
+                finishedResults.put(id, result);
+                CodeExecution pending = results.remove(id);
+                if (pending != null) pending.finish();
+            }
+        }
+    }
+
+    /** Runs a job pulled from the shared queue and stores its result under the job's id for the API nodes
+     * @param done called once the result is stored
+     * @throws QueueFullException if the local scheduler can't take it right now; nothing is stored, so the job can be requeued
+     */
+    public void runJob(JobQueue.Job job, Runnable done) {
+        if (!job.group().isEmpty()) {
+            runGroupJob(job, done);
+            return;
+        }
+        CodeExecution execution = new CodeExecution(job.submission());
+        //The deadline started when the API node queued it
+        long deadline = job.submission().deadlineMillis;
+        long remaining = deadline - (System.currentTimeMillis() - job.enqueuedAtMillis());
+        CodeExecution tracked;
+        if (deadline > 0 && remaining <= 0) {
+            drop(execution, "Dropped: deadline passed before execution started.\n");
+            tracked = execution;
+        } else {
+            if (deadline > 0) job.submission().deadlineMillis = remaining;
+            tracked = start(job.id(), execution, job.tenant(), job.source());
+        }
+        tracked.completion.thenAccept(finished -> {
+            try {
+                sharedResults.put(job.id(), new RunResult(finished, "FINISHED"));
+            } finally {
+                results.remove(job.id());
+                done.run();
+            }
+        });
+    }
+
+    //Runs a queued batch chunk as executeGroup would on this node, publishing every item's result for the API nodes
+    private void runGroupJob(JobQueue.Job job, Runnable done) {
+        CodeSubmission shared = job.submission();
+        long deadline = shared.deadlineMillis;
+        long remaining = deadline - (System.currentTimeMillis() - job.enqueuedAtMillis());
+        String[] ids = new String[job.group().size()];
+        CodeSubmission[] group = new CodeSubmission[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = job.group().get(i).id();
+            group[i] = new CodeSubmission(shared.code, shared.language, shared.problemName, job.group().get(i).input());
+            group[i].nondeterministic = shared.nondeterministic;
+            group[i].deadlineMillis = deadline > 0 ? remaining : deadline;
+        }
+        if (deadline > 0 && remaining <= 0) {
+            for (int i = 0; i < ids.length; i++) {
+                CodeExecution execution = new CodeExecution(group[i]);
+                drop(execution, "Dropped: deadline passed before execution started.\n");
+                sharedResults.put(ids[i], new RunResult(execution, "FINISHED"));
+            }
+            done.run();
+            return;
+        }
+        try {
+            runGroup(ids, group, job.tenant(), job.source(), sharedResults).whenComplete((stored, e) -> done.run());
+        } catch (QueueFullException e) {
+            //The job goes back to the queue; this node keeps nothing for it
+            for (String id : ids) {
+                results.remove(id);
+            }
+            throw e;
+        }
+    }
 
-        //Have the workers get started on our execution
-        executor.submit(execution);
+    //Completes once workers have published every id's result (or it is gone from the shared store)
+    private CompletableFuture<Void> whenStored(String[] ids) {
+        CompletableFuture<Void> stored = new CompletableFuture<>();
+        Thread.ofVirtual().name("group-" + ids[0]).start(() -> {
+            for (String id : ids) {
+                awaitStored(id, Long.MAX_VALUE);
+            }
+            stored.complete(null);
+        });
+        return stored;
+    }
+
+    /** Queues an execution on this node under the given id
+     * @return the execution that will produce the result: this one, or an identical one already finished or running
+     */
+    private CodeExecution start(String executionId, CodeExecution execution, String tenant, ExecutionScheduler.Source source) {
+        //Identical deterministic runs share one result: memoized if finished, coalesced if still running
+        String cacheKey = resultCache.keyFor(execution.codeSubmission);
+        if (cacheKey != null) {
+            CodeExecution shared = resultCache.lookup(cacheKey, execution.codeSubmission);
+            if (shared == null) {
+                shared = resultCache.joinInFlight(cacheKey, execution);
+            }
+            if (shared != null) {
+                results.put(executionId, shared);
+                return shared;
+            }
+        }
 
         //Save the UUID mapped to the execution for later access
         results.put(executionId, execution);
-        return executionId;
+
+        //Queue our execution for the workers
+        execution.outputLimitBytes = outputLimitBytes;
+        execution.timeLimits = limits.timeLimits(execution.codeSubmission.language);
+        execution.runner = backends.forLanguage(execution.codeSubmission.language);
+        execution.queuedAt = System.nanoTime();
+        try {
+            scheduler.submit(tenant, source, execution.codeSubmission.deadlineMillis, () -> {
+                execution.queueWaitMs = (System.nanoTime() - execution.queuedAt) / 1e6;
+                long started = System.nanoTime();
+                try {
+                    execution.run();
+                } finally {
+                    //Lets backends be compared on the same traffic
+                    Timer.builder("coderunner.execution.duration")
+                            .tag("language", String.valueOf(execution.codeSubmission.language))
+                            .tag("backend", execution.backend)
+                            .register(registry)
+                            .record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+                    if (cacheKey != null) resultCache.complete(cacheKey, execution);
+                }
+                return execution;
+            }).exceptionally(e -> {
+                //Deadline passed while queued; report it like any other finished run
+                drop(execution, "Dropped: deadline passed before execution started.\n");
+                if (cacheKey != null) resultCache.complete(cacheKey, execution);
+                return execution;
+            });
+        } catch (QueueFullException e) {
+            results.remove(executionId);
+            drop(execution, e.getMessage());
+            if (cacheKey != null) resultCache.complete(cacheKey, execution);
+            throw e;
+        }
+        return execution;
+    }
+
+    //Finishes an execution that never ran
+    private void drop(CodeExecution execution, String status) {
+        markDropped(execution, status);
+        execution.finish();
+    }
+
+    //Sets the result of a run that never happened, without finishing it yet
+    private static void markDropped(CodeExecution execution, String status) {
+        execution.failed = true;
+        execution.success = false;
+        execution.output = "";
+        execution.error = "";
+        execution.exitStatus = status;
     }
 
     public RunResult checkExecution(String executionId) {
+        return checkExecution(executionId, false);
+    }
+
+    /**
+     * @param statusOnly leave out output and error, reporting only their sizes (see readOutput for the content)
+     */
+    public RunResult checkExecution(String executionId, boolean statusOnly) {
         //Remove unnecessary quotes.
         executionId = executionId.replace("\"", "");
 
-        // Return an empty CodeExecution to indicate it doesn't exist
-        if (!results.containsKey(executionId)) {
-            return new RunResult(new CodeExecution(null), "NONEXISTENT");
+        if (apiOnly) {
+            RunResult stored = statusOnly ? sharedResults.getStatus(executionId) : sharedResults.get(executionId);
+            return stored == null ? new RunResult(new CodeExecution(null), "NONEXISTENT") : stored;
         }
 
         CodeExecution execution = results.get(executionId);
-        //Only return the execution if it is done
-        if( !execution.done ) {
-            return new RunResult(execution, "RUNNING");
-        } else {
-            return new RunResult(results.remove(executionId), "FINISHED");
+        if (execution != null && !execution.done) {
+            return status(new RunResult(execution, "RUNNING"), statusOnly);
+        }
+        //Results can be read again until they expire
+        RunResult stored = statusOnly ? finishedResults.getStatus(executionId) : finishedResults.get(executionId);
+        if (stored != null) {
+            return stored;
+        }
+        //Finished a moment ago and not in the store yet
+        if (execution != null) {
+            return status(new RunResult(execution, "FINISHED"), statusOnly);
+        }
+        // Return an empty CodeExecution to indicate it doesn't exist
+        return new RunResult(new CodeExecution(null), "NONEXISTENT");
+    }
+
+    private static RunResult status(RunResult result, boolean statusOnly) {
+        return statusOnly ? result.statusOnly() : result;
+    }
+
+    /** One page of a finished execution's stdout or stderr, read from the result store.
+     * Pages end on a character boundary; nextOffset is where the following one starts.
+     * @param stream "stdout" (the output, including its error summary) or "stderr"
+     * @param length bytes (or lines) to return; at least 1
+     * @param line if >= 0, page by lines instead: up to length lines starting at this (0-based) line
+     * @return null if the execution is unknown or not finished
+     */
+    public OutputPage readOutput(String executionId, String stream, long offset, int length, int line) {
+        boolean stderr = switch (stream) {
+            case "stdout" -> false;
+            case "stderr" -> true;
+            default -> throw new IllegalArgumentException("Unknown stream: " + stream + " (expected stdout or stderr)");
+        };
+        if (length <= 0 || offset < 0) {
+            throw new IllegalArgumentException("Page needs length >= 1 and offset >= 0, got length " + length + ", offset " + offset);
+        }
+        ResultStore store = apiOnly ? sharedResults : finishedResults;
+        executionId = executionId.replace("\"", "");
+
+        OutputPage page = new OutputPage(stream);
+        long start = offset;
+        int pageBytes = Math.min(Math.max(4, length), maxPageBytes);
+        if (line >= 0) {
+            //Find the byte range of the lines by scanning from the start of the stream
+            long end = -1;
+            start = line == 0 ? 0 : -1;
+            int current = 0;
+            long position = 0;
+            long total;
+            do {
+                ResultStore.OutputRange range = store.readOutput(executionId, stderr, position, LINE_SCAN_BYTES);
+                if (range == null) return null;
+                total = range.totalBytes();
+                byte[] bytes = range.bytes();
+                for (int i = 0; i < bytes.length && end < 0; i++) {
+                    if (bytes[i] != '\n') continue;
+                    current++;
+                    if (current == line) start = position + i + 1;
+                    if (current == line + length) end = position + i + 1;
+                }
+                position += bytes.length;
+            } while (end < 0 && position < total);
+            if (start < 0) start = total;
+            if (end < 0) end = total;
+            page.line = line;
+            pageBytes = (int) Math.min(end - start, maxPageBytes);
+        }
+
+        ResultStore.OutputRange range = store.readOutput(executionId, stderr, start, pageBytes);
+        if (range == null) return null;
+        page.totalBytes = range.totalBytes();
+        page.offset = Math.min(Math.max(0, start), range.totalBytes());
+        byte[] bytes = range.bytes();
+        page.setText(bytes, page.offset + bytes.length >= range.totalBytes() ? bytes.length : OutputPage.completeLength(bytes));
+        if (line >= 0) {
+            //A line longer than a whole page is cut; continue it by nextOffset
+            page.nextLine = line + (int) page.text.chars().filter(c -> c == '\n').count();
+            if (page.nextOffset == page.totalBytes && !page.text.isEmpty() && !page.text.endsWith("\n")) page.nextLine++;
+        }
+        return page;
+    }
+
+    //Future for an execution's final result; completes right away for finished or unknown ids
+    public CompletableFuture<RunResult> resultOf(String executionId) {
+        if (apiOnly) {
+            return CompletableFuture.supplyAsync(() -> awaitStored(executionId.replace("\"", ""), Long.MAX_VALUE),
+                    task -> Thread.ofVirtual().name("await-" + executionId).start(task));
+        }
+        CodeExecution execution = peekExecution(executionId);
+        if (execution == null) {
+            return CompletableFuture.completedFuture(checkExecution(executionId));
+        }
+        return execution.completion.thenApply(done -> new RunResult(done, "FINISHED"));
+    }
+
+    /** Long-poll version of checkExecution: blocks until the execution finishes or the wait runs out.
+     * @param waitMillis longest to block; 0 behaves exactly like checkExecution
+     */
+    public RunResult awaitExecution(String executionId, long waitMillis) {
+        return awaitExecution(executionId, waitMillis, false);
+    }
+
+    public RunResult awaitExecution(String executionId, long waitMillis, boolean statusOnly) {
+        if (apiOnly) {
+            awaitStored(executionId.replace("\"", ""), waitMillis);
+            return checkExecution(executionId, statusOnly);
+        }
+        CodeExecution execution = peekExecution(executionId);
+        if (execution != null && waitMillis > 0) {
+            try {
+                execution.completion.get(waitMillis, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException | ExecutionException e) {
+                //Still running; report it as such below
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
         }
+        return checkExecution(executionId, statusOnly);
+    }
+
+    //Polls the shared store until a worker publishes the result (or it's unknown)
+    private RunResult awaitStored(String executionId, long waitMillis) {
+        long deadline = System.currentTimeMillis() + Math.min(waitMillis, Long.MAX_VALUE / 2);
+        while (true) {
+            RunResult stored = sharedResults.get(executionId);
+            if (stored == null) return new RunResult(new CodeExecution(null), "NONEXISTENT");
+            if (stored.status.equals("FINISHED") || System.currentTimeMillis() >= deadline) return stored;
+            try {
+                Thread.sleep(STORE_POLL_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return stored;
+            }
+        }
+    }
+
+    //Worker nodes sharing this node's job queue
+    public List<JobQueue.WorkerStatus> workers() {
+        return jobQueue.workers();
+    }
+
+    //Looks up an execution that is still running (or just finished); null if unknown or already in the result store
+    public CodeExecution peekExecution(String executionId) {
+        return results.get(executionId.replace("\"", ""));
     }
 
     public String listExecutions() {
@@ -71,9 +505,11 @@ public class CodeExecutionService {
     public void cleanExecutions() {
         for (String id : results.keySet()) {
             CodeExecution execution = results.get(id);
-            if (execution.isExpired()) {
+            if (execution.isExpired(resultTtlMillis)) {
                 results.remove(id);
             }
         }
+        finishedResults.evictExpired();
+        sharedResults.evictExpired();
     }
 }
@@ -9,14 +9,19 @@ import org.springframework.stereotype.Component;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 
 @Component
 public class CodeExecutionTools {
     private final CodeExecutionService executionService;
+    private final BatchExecutions batchExecutions;
 
-    public CodeExecutionTools(CodeExecutionService executionService) {
+    public CodeExecutionTools(CodeExecutionService executionService, BatchExecutions batchExecutions) {
         this.executionService = executionService;
+        this.batchExecutions = batchExecutions;
     }
 
     @Tool("Execute code and return the output. Use this to test or verify code, this does NOT modify the user's code (you need to tell them the new code so they can copy it themselves).")
@@ -25,24 +30,43 @@ public class CodeExecutionTools {
         language = language.toLowerCase();
         CodeSubmission submission = new CodeSubmission(code, language, "ONE", input);
 
-        String UUID = executionService.execute(new CodeExecution(submission));
-        RunResult result = executionService.checkExecution(UUID);
-        int count = 0;
-
-        while (result.status.equals("RUNNING") && count < 1200) {
-            System.out.println(result.toString());
-            try {
-                Thread.sleep(1000);
-            } catch (InterruptedException e) {
-                throw new RuntimeException(e);
-            }
-            count += 1;
-            result = executionService.checkExecution(UUID);
+        String UUID;
+        try {
+            UUID = executionService.execute(new CodeExecution(submission), "llm", ExecutionScheduler.Source.LLM);
+        } catch (QueueFullException e) {
+            return "Execution queue is busy (" + e.getMessage() + ") Try again in " + e.retryAfterSeconds + " seconds.";
         }
+        //Block on the execution's completion (up to the old 20 minute polling budget) instead of polling
+        RunResult result = executionService.awaitExecution(UUID, TimeUnit.MINUTES.toMillis(20));
 //        System.out.println(result.displayStr());
         return result.displayStr();
     }
 
+    @Tool("Execute the same code once per input and return each run's output. Use this instead of repeated executeCode calls to test code against several inputs.")
+    public String executeCodeOnInputs(String code, String language, List<String> inputs) {
+        language = language.toLowerCase();
+        List<CodeSubmission> submissions = new ArrayList<>();
+        for (String input : inputs) {
+            submissions.add(new CodeSubmission(code, language, "ONE", input));
+        }
+
+        String batchId;
+        try {
+            batchId = batchExecutions.submit(submissions, "llm", ExecutionScheduler.Source.LLM);
+        } catch (IllegalArgumentException e) {
+            return e.getMessage();
+        }
+        //Same overall 20 minute budget as executeCode, shared by all the inputs
+        long deadline = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(20);
+        StringBuilder sb = new StringBuilder();
+        List<String> ids = batchExecutions.status(batchId, false, true).executionIds;
+        for (int i = 0; i < ids.size(); i++) {
+            RunResult result = executionService.awaitExecution(ids.get(i), Math.max(0, deadline - System.currentTimeMillis()));
+            sb.append("=====Input ").append(i + 1).append(":\n").append(inputs.get(i)).append("\n").append(result.displayStrShorter());
+        }
+        return sb.toString();
+    }
+
 //    //Submit to the executor, returns the ID used for tracking it
 //    @Timed(value = "code.submit.time", description = "Time to submit code")
 //    @PostMapping("/submit")
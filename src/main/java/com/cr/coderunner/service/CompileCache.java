@@ -0,0 +1,256 @@
+package com.cr.coderunner.service;
+
+import com.cr.coderunner.controller.IDEController;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.tomcat.util.http.fileupload.FileUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/** Content-addressed, size-bounded disk cache of compiled artifacts (C binaries, Java class directories).
+ * Entries live in .test/cache/<key>/ and are evicted least-recently-used first.
+ */
+@Service
+public class CompileCache {
+    private final boolean enabled;
+    private final long maxBytes;
+    private final File cacheDir;
+
+    //Access-ordered so iteration starts at the least recently used entry; guarded by this
+    private final LinkedHashMap<String, Long> entries;
+    private long totalBytes;
+
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private final MeterRegistry registry;
+
+    public CompileCache(MeterRegistry registry,
+                        @Value("${coderunner.compile-cache.enabled:true}") boolean enabled,
+                        @Value("${coderunner.compile-cache.max-bytes:268435456}") long maxBytes) {
+        this.registry = registry;
+        this.enabled = enabled;
+        this.maxBytes = maxBytes;
+        this.cacheDir = new File(new File(System.getProperty("user.dir"), ".test"), "cache");
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+        this.totalBytes = 0;
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+
+        loadExisting();
+
+        Gauge.builder("coderunner.compile.cache.size", this, CompileCache::getTotalBytes)
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder("coderunner.compile.cache.entries", this, CompileCache::getEntryCount)
+                .register(registry);
+        Gauge.builder("coderunner.compile.cache.hit.ratio", this, CompileCache::getHitRatio)
+                .register(registry);
+    }
+
+    /** Hash of everything that can change a compiled artifact.
+     * @param toolchain backend and compiler the build is made with and runs on, e.g. "docker sha256:..." for a runner image;
+     *                  builds from different toolchains (glibc host vs musl image) must never be mixed
+     * @param compileShell the compile command, which carries the compiler flags
+     * @return the cache key, or null if caching is disabled or the toolchain is unknown
+     */
+    public String keyFor(String toolchain, String language, String compileShell, String code) {
+        if (!enabled || toolchain == null) return null;
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String part : new String[] {toolchain, language, compileShell, code}) {
+                digest.update(String.valueOf(part).getBytes(StandardCharsets.UTF_8));
+                //Separator so ("ab", "c") and ("a", "bc") hash differently
+                digest.update((byte) 0);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+
+    /** Copies a cached artifact into a run directory.
+     * @return true on a hit, false if the code still needs compiling
+     */
+    public synchronized boolean restore(String key, File runDir) {
+        Long size = entries.get(key);
+        if (size != null) {
+            try {
+                copyTree(new File(cacheDir, key).toPath(), runDir.toPath());
+                hits.incrementAndGet();
+                registry.counter("coderunner.compile.cache.requests", "result", "hit").increment();
+                return true;
+            } catch (IOException e) {
+                //Treat a damaged entry as a miss and drop it
+                IDEController.logText("Compile cache entry " + key + " unreadable; removing.");
+                remove(key);
+            }
+        }
+        misses.incrementAndGet();
+        registry.counter("coderunner.compile.cache.requests", "result", "miss").increment();
+        return false;
+    }
+
+    /** Directory holding a cached artifact, for callers that ship it somewhere other than a run directory.
+     * Counts as a lookup like restore(); the directory may be evicted later, so read it promptly.
+     * @return the entry directory on a hit, null on a miss
+     */
+    public synchronized Path lookup(String key) {
+        boolean hit = entries.get(key) != null;
+        (hit ? hits : misses).incrementAndGet();
+        registry.counter("coderunner.compile.cache.requests", "result", hit ? "hit" : "miss").increment();
+        return hit ? new File(cacheDir, key).toPath() : null;
+    }
+
+    /** Saves a freshly compiled artifact (file or directory) under the key, evicting old entries as needed.
+     * Missing or empty artifacts (failed compiles) are ignored.
+     */
+    public void store(String key, File artifact) {
+        if (key == null || !artifact.exists() || (artifact.isDirectory() && isEmpty(artifact))) return;
+        synchronized (this) {
+            if (entries.containsKey(key)) return;
+        }
+
+        //Copy outside the lock into a staging directory, then publish it with a rename
+        Path staging;
+        try {
+            Files.createDirectories(cacheDir.toPath());
+            staging = Files.createTempDirectory(cacheDir.toPath(), "staging-");
+            copyTree(artifact.toPath(), staging.resolve(artifact.getName()));
+        } catch (IOException e) {
+            IDEController.logText("Failed to store compile cache entry " + key);
+            return;
+        }
+        publish(key, staging);
+    }
+
+    //Renames a filled staging directory into place as the key's entry
+    private void publish(String key, Path staging) {
+        long size;
+        try {
+            size = sizeOf(staging);
+        } catch (IOException e) {
+            deleteQuietly(staging.toFile());
+            return;
+        }
+
+        synchronized (this) {
+            File entryDir = new File(cacheDir, key);
+            if (entries.containsKey(key) || size > maxBytes || !staging.toFile().renameTo(entryDir)) {
+                deleteQuietly(staging.toFile());
+                return;
+            }
+            entries.put(key, size);
+            totalBytes += size;
+            evict();
+        }
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    public double getHitRatio() {
+        long total = hits.get() + misses.get();
+        return total == 0 ? 0 : (double) hits.get() / total;
+    }
+
+    //Drops least recently used entries until the cache fits
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            it.remove();
+            totalBytes -= eldest.getValue();
+            deleteQuietly(new File(cacheDir, eldest.getKey()));
+            registry.counter("coderunner.compile.cache.evictions").increment();
+        }
+    }
+
+    private void remove(String key) {
+        Long size = entries.remove(key);
+        if (size != null) totalBytes -= size;
+        deleteQuietly(new File(cacheDir, key));
+    }
+
+    //Rebuilds the index from disk so entries survive restarts (oldest first as a stand-in for LRU order)
+    private void loadExisting() {
+        File[] dirs = cacheDir.listFiles(File::isDirectory);
+        if (dirs == null) return;
+        Arrays.sort(dirs, Comparator.comparingLong(File::lastModified));
+        for (File dir : dirs) {
+            if (dir.getName().startsWith("staging-")) {
+                deleteQuietly(dir);
+                continue;
+            }
+            try {
+                long size = sizeOf(dir.toPath());
+                entries.put(dir.getName(), size);
+                totalBytes += size;
+            } catch (IOException e) {
+                deleteQuietly(dir);
+            }
+        }
+        evict();
+    }
+
+    private static void copyTree(Path source, Path target) throws IOException {
+        try (Stream<Path> paths = Files.walk(source)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                Path dest = target.resolve(source.relativize(path).toString());
+                if (Files.isDirectory(path)) {
+                    Files.createDirectories(dest);
+                } else {
+                    Files.copy(path, dest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+                }
+            }
+        }
+    }
+
+    private static long sizeOf(Path path) throws IOException {
+        try (Stream<Path> paths = Files.walk(path)) {
+            long size = 0;
+            for (Path p : (Iterable<Path>) paths::iterator) {
+                if (Files.isRegularFile(p)) size += Files.size(p);
+            }
+            return size;
+        }
+    }
+
+    private static boolean isEmpty(File dir) {
+        String[] children = dir.list();
+        return children == null || children.length == 0;
+    }
+
+    private static void deleteQuietly(File file) {
+        try {
+            if (file.isDirectory()) {
+                FileUtils.deleteDirectory(file);
+            } else {
+                Files.deleteIfExists(file.toPath());
+            }
+        } catch (IOException e) {
+            IDEController.logText("Failed to delete " + file);
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package com.cr.coderunner.service;
+
+import com.cr.coderunner.controller.IDEController;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.apache.tomcat.util.http.fileupload.FileUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Keeps pre-started, idle sandbox containers per language so a run only pays for a `docker exec`.
+ * Each container gets its own host directory mounted at /sandbox; runs write into a subdirectory of it.
+ * The image filesystem is read-only, so between runs only /sandbox and the tmpfs mounts need wiping.
+ */
+@Service
+public class ContainerPool {
+    public static class Lease {
+        public final String language;
+        public final String containerName;
+        public final File dirFile;
+        int uses;
+
+        Lease(String language, String containerName, File dirFile) {
+            this.language = language;
+            this.containerName = containerName;
+            this.dirFile = dirFile;
+            this.uses = 0;
+        }
+    }
+
+    /** Shell line that kills every process in a container except init (PID 1) and the keepalive, so the container stays up.
+     * The keepalive is the oldest child of PID 1: it started with the container, before anything a run could leave behind.
+     * Sweeps twice to catch processes forked while the first sweep ran.
+     */
+    public static final String KILL_RUNS = "kill_runs() { keep=; oldest=; for f in /proc/[0-9]*/stat; do "
+            + "{ read -r s < \"$f\"; } 2>/dev/null || continue; set -- ${s##*\") \"}; [ \"$2\" = 1 ] || continue; "
+            + "if [ -z \"$oldest\" ] || [ \"${20}\" -lt \"$oldest\" ]; then oldest=${20}; keep=${f#/proc/}; keep=${keep%/stat}; fi; done; "
+            + "for f in /proc/[0-9]*; do p=${f#/proc/}; case $p in 1|\"$keep\"|$$) ;; *) kill -9 \"$p\" 2>/dev/null;; esac; done; }; "
+            + "kill_runs; kill_runs";
+
+    //Kills everything left from the last run, then empties every writable place (retrying once while the kills land)
+    private static final String SCRUB = KILL_RUNS + "; wipe() { find /sandbox /tmp /root -mindepth 1 -delete 2>/dev/null; }; "
+            + "wipe || { sleep 1; kill_runs; wipe; }";
+
+    private final boolean enabled;
+    private final int size;
+    private final int minIdle;
+    private final int maxIdle;
+    private final int recycleAfter;
+    private final long checkoutTimeoutMs;
+
+    private final MeterRegistry registry;
+    private final RunnerImages runnerImages;
+    private final SandboxLimits limits;
+    private final Map<String, LinkedBlockingDeque<Lease>> idle;
+    //Containers currently being started, per language
+    private final Map<String, AtomicInteger> starting;
+    private final Timer checkoutWait;
+    //Starts containers (slow: up to two minutes each)
+    private final ExecutorService maintainer;
+    //Scrubs or removes released containers, so a hand-back never waits behind a start
+    private final ExecutorService releaser;
+    private final File poolDir;
+
+    public ContainerPool(MeterRegistry registry, RunnerImages runnerImages, SandboxLimits limits,
+                         @Value("${coderunner.pool.enabled:true}") boolean enabled,
+                         @Value("${coderunner.pool.size:2}") int size,
+                         @Value("${coderunner.pool.min-idle:1}") int minIdle,
+                         @Value("${coderunner.pool.max-idle:4}") int maxIdle,
+                         @Value("${coderunner.pool.recycle-after:20}") int recycleAfter,
+                         @Value("${coderunner.pool.checkout-timeout-ms:250}") long checkoutTimeoutMs) {
+        this.registry = registry;
+        this.runnerImages = runnerImages;
+        this.limits = limits;
+        this.enabled = enabled;
+        this.size = size;
+        this.minIdle = minIdle;
+        this.maxIdle = Math.max(maxIdle, size);
+        this.recycleAfter = recycleAfter;
+        this.checkoutTimeoutMs = checkoutTimeoutMs;
+        this.idle = new ConcurrentHashMap<>();
+        this.starting = new ConcurrentHashMap<>();
+        this.maintainer = Executors.newFixedThreadPool(2);
+        this.releaser = Executors.newVirtualThreadPerTaskExecutor();
+        this.poolDir = new File(new File(System.getProperty("user.dir"), ".test"), "pool");
+
+        this.checkoutWait = Timer.builder("coderunner.pool.checkout.wait")
+                .description("Time spent waiting for a warm container")
+                .register(registry);
+
+        for (String language : RunnerImages.getImages().keySet()) {
+            LinkedBlockingDeque<Lease> queue = new LinkedBlockingDeque<>();
+            idle.put(language, queue);
+            starting.put(language, new AtomicInteger());
+            Gauge.builder("coderunner.pool.idle", queue, LinkedBlockingDeque::size)
+                    .tag("language", language)
+                    .register(registry);
+        }
+    }
+
+    @PostConstruct
+    public void warmUp() {
+        if (!enabled) return;
+        //Start the initial containers once the runner images exist; Docker may be slow or missing
+        runnerImages.startupCheck().thenRun(() -> {
+            for (String language : RunnerImages.getImages().keySet()) {
+                for (int i = 0; i < size; i++) {
+                    replenish(language);
+                }
+            }
+        });
+    }
+
+    /** Takes a warm container for one execution.
+     * @return the lease, or null on a miss (caller should fall back to a one-off container)
+     */
+    public Lease checkout(String language) {
+        LinkedBlockingDeque<Lease> queue = idle.get(language);
+        if (!enabled || queue == null) return null;
+
+        Lease lease;
+        long start = System.nanoTime();
+        try {
+            lease = queue.pollFirst(checkoutTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            lease = null;
+        }
+        checkoutWait.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+
+        //Keep the idle count topped up either way
+        topUp(language);
+
+        if (lease == null) {
+            countCheckout(language, "miss");
+            return null;
+        }
+        countCheckout(language, "hit");
+        lease.uses++;
+        return lease;
+    }
+
+    /** Hands a container back after an execution; scrubbing or replacement happens in the background.
+     * Scrubbing kills every process and empties /sandbox, /tmp and $HOME, so the next submitter starts clean;
+     * if anything can't be removed the container is recycled instead.
+     * @param healthy false if the run timed out or otherwise left the container in an unknown state
+     */
+    public void release(Lease lease, boolean healthy) {
+        releaser.submit(() -> {
+            LinkedBlockingDeque<Lease> queue = idle.get(lease.language);
+
+            boolean reuse = healthy && lease.uses < recycleAfter && queue.size() < maxIdle
+                    && scrub(lease.containerName);
+            if (reuse) {
+                queue.offerLast(lease);
+                return;
+            }
+
+            registry.counter("coderunner.pool.recycled", "language", lease.language).increment();
+            destroy(lease);
+            topUp(lease.language);
+        });
+    }
+
+    //Tops up any language that has fallen below its idle minimum (e.g. after failed starts)
+    @Scheduled(fixedDelay = 15_000)
+    public void maintain() {
+        if (!enabled || !runnerImages.startupCheck().isDone()) return;
+        for (String language : RunnerImages.getImages().keySet()) {
+            topUp(language);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        maintainer.shutdownNow();
+        releaser.shutdownNow();
+        for (LinkedBlockingDeque<Lease> queue : idle.values()) {
+            Lease lease;
+            while ((lease = queue.pollFirst()) != null) {
+                destroy(lease);
+            }
+        }
+    }
+
+    private void topUp(String language) {
+        int missing = minIdle - idle.get(language).size() - starting.get(language).get();
+        for (int i = 0; i < missing; i++) {
+            replenish(language);
+        }
+    }
+
+    private void replenish(String language) {
+        starting.get(language).incrementAndGet();
+        maintainer.submit(() -> {
+            try {
+                Lease lease = start(language);
+                if (lease != null) idle.get(language).offerLast(lease);
+            } finally {
+                starting.get(language).decrementAndGet();
+            }
+        });
+    }
+
+    private Lease start(String language) {
+        String name = "cr-pool-" + language + "-" + UUID.randomUUID().toString().substring(0, 8);
+        File dirFile = new File(poolDir, name);
+        if (!dirFile.mkdirs()) {
+            IDEController.logText("Could not create pool directory " + dirFile);
+            return null;
+        }
+
+        Lease lease = new Lease(language, name, dirFile);
+        //Limits cover the whole container, so every run leased from it shares the language's caps.
+        //Only /sandbox and the tmpfs mounts are writable; --init reaps what KILL_RUNS kills, which spares it and sleep.
+        List<String> args = new ArrayList<>(List.of("run", "-d", "--name", name, "--init", "--read-only",
+                "--tmpfs", "/tmp:rw,nosuid,size=64m", "--tmpfs", "/root:rw,nosuid,size=16m"));
+        args.addAll(limits.dockerArgs(language));
+        args.addAll(List.of("-v", dirFile.getAbsolutePath() + ":/sandbox", RunnerImages.imageFor(language), "sleep", "infinity"));
+        boolean started = DockerCli.run(120, args.toArray(new String[0]));
+        if (!started) {
+            registry.counter("coderunner.pool.start.failures", "language", language).increment();
+            destroy(lease);
+            return null;
+        }
+        return lease;
+    }
+
+    //Stops whatever a run left in a container (the program after a limit hit or wrong answer) but keeps the container
+    public static boolean killRuns(String containerName) {
+        return DockerCli.run(30, "exec", containerName, "sh", "-c", KILL_RUNS);
+    }
+
+    //Readies a container for the next submitter; false if it couldn't be cleaned and should be replaced
+    public static boolean scrub(String containerName) {
+        return DockerCli.run(30, "exec", containerName, "sh", "-c", SCRUB);
+    }
+
+    private void destroy(Lease lease) {
+        DockerCli.run(60, "rm", "-f", lease.containerName);
+        try {
+            FileUtils.deleteDirectory(lease.dirFile);
+        } catch (IOException e) {
+            IDEController.logText("Failed to delete pool directory " + lease.dirFile);
+        }
+    }
+
+    private void countCheckout(String language, String result) {
+        Counter.builder("coderunner.pool.checkout")
+                .tag("language", language)
+                .tag("result", result)
+                .register(registry)
+                .increment();
+    }
+}
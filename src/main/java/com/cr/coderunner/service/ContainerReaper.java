@@ -0,0 +1,151 @@
+package com.cr.coderunner.service;
+
+import com.cr.coderunner.controller.IDEController;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.apache.tomcat.util.http.fileupload.FileUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.regex.Pattern;
+
+/** Tears down finished runs in the background so results are published without waiting on cleanup.
+ * Container removals are batched into one call, run directories are deleted afterwards,
+ * and anything left behind by a crash is queued at startup.
+ */
+@Service
+public class ContainerReaper {
+    //Names of one-off run containers and directories (Files.createTempDirectory(..., "run"))
+    private static final Pattern runName = Pattern.compile("run\\d+");
+
+    private final LinkedBlockingQueue<String> containers;
+    private final LinkedBlockingQueue<File> dirs;
+    //One permit per queued item, so the worker sleeps while there's nothing to do
+    private final Semaphore work;
+    private final DockerEngine dockerEngine;
+    private final MeterRegistry registry;
+    private final int batchSize;
+    private final Thread worker;
+
+    public ContainerReaper(MeterRegistry registry, DockerEngine dockerEngine,
+                           @Value("${coderunner.reaper.batch-size:20}") int batchSize) {
+        this.registry = registry;
+        this.dockerEngine = dockerEngine;
+        this.batchSize = Math.max(1, batchSize);
+        this.containers = new LinkedBlockingQueue<>();
+        this.dirs = new LinkedBlockingQueue<>();
+        this.work = new Semaphore(0);
+
+        Gauge.builder("coderunner.reaper.backlog", this, ContainerReaper::getBacklog)
+                .description("Containers and run directories waiting to be cleaned up")
+                .register(registry);
+
+        this.worker = Thread.ofVirtual().name("container-reaper").start(this::reap);
+    }
+
+    //Force-removes a container (running or not) in the background
+    public void removeContainer(String name) {
+        containers.add(name);
+        work.release();
+    }
+
+    //Deletes a run directory in the background, after any queued container removals
+    public void deleteDir(File dir) {
+        dirs.add(dir);
+        work.release();
+    }
+
+    public int getBacklog() {
+        return containers.size() + dirs.size();
+    }
+
+    /** Queues containers and .test run directories orphaned by a previous crash.
+     * Runs before the web server accepts requests, so nothing listed here can belong to a live run.
+     */
+    @PostConstruct
+    public void reconcile() {
+        String names = DockerCli.output(30, "ps", "-a", "--filter", "name=^run", "--format", "{{.Names}}");
+        if (names != null) {
+            for (String name : names.split("\n")) {
+                if (runName.matcher(name.trim()).matches()) {
+                    registry.counter("coderunner.reaper.orphans", "kind", "container").increment();
+                    removeContainer(name.trim());
+                }
+            }
+        }
+
+        File[] runDirs = new File(System.getProperty("user.dir"), ".test").listFiles(file -> file.isDirectory() && runName.matcher(file.getName()).matches());
+        if (runDirs != null) {
+            for (File dir : runDirs) {
+                registry.counter("coderunner.reaper.orphans", "kind", "dir").increment();
+                deleteDir(dir);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        worker.interrupt();
+        //Best effort: don't leave this session's containers behind
+        reapOnce();
+    }
+
+    private void reap() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                work.acquire();
+            } catch (InterruptedException e) {
+                return;
+            }
+            work.drainPermits();
+            reapOnce();
+        }
+    }
+
+    //Removes everything queued so far: containers first (they may hold a run directory), then directories
+    private synchronized void reapOnce() {
+        List<String> batch = new ArrayList<>(batchSize);
+        while (containers.drainTo(batch, batchSize) > 0) {
+            removeAll(batch);
+            batch.clear();
+        }
+
+        List<File> dirBatch = new ArrayList<>();
+        dirs.drainTo(dirBatch);
+        for (File dir : dirBatch) {
+            try {
+                FileUtils.deleteDirectory(dir);
+                registry.counter("coderunner.reaper.removed", "kind", "dir").increment();
+            } catch (IOException e) {
+                registry.counter("coderunner.reaper.failures", "kind", "dir").increment();
+                IDEController.logText("Failed to delete run directory " + dir + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private void removeAll(List<String> names) {
+        int failed = 0;
+        if (dockerEngine.isAvailable()) {
+            for (String name : names) {
+                if (!dockerEngine.removeQuietly(name)) failed++;
+            }
+        } else {
+            //One CLI call for the whole batch; a failure here may just mean one of the names was already gone
+            List<String> args = new ArrayList<>(List.of("rm", "-f"));
+            args.addAll(names);
+            if (!DockerCli.run(120, args.toArray(new String[0]))) failed = names.size();
+        }
+        registry.counter("coderunner.reaper.removed", "kind", "container").increment(names.size() - failed);
+        if (failed > 0) {
+            registry.counter("coderunner.reaper.failures", "kind", "container").increment(failed);
+        }
+    }
+}
@@ -0,0 +1,768 @@
+package com.cr.coderunner.service;
+
+import com.cr.coderunner.controller.IDEController;
+import com.cr.coderunner.model.CodeExecution;
+import com.cr.coderunner.model.CodeSubmission;
+import com.cr.coderunner.model.OutputCapture;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/** The default backend: every run in a container from the language's runner image, either a warm one from
+ * ContainerPool or a one-off started through the Engine API (or the docker CLI when the socket isn't available).
+ * With coderunner.transport=stream, one-off runs write no host files at all.
+ */
+@Service
+public class DockerBackend implements ExecutionBackend {
+    private static final Capabilities capabilities = new Capabilities(true, true, true, true, true);
+
+    private final ContainerPool containerPool;
+    private final CompileCache compileCache;
+    private final RunnerImages runnerImages;
+    private final DockerEngine dockerEngine;
+    private final ContainerReaper reaper;
+    private final SandboxLimits limits;
+    //Upload code and stream input instead of writing a run directory
+    private final boolean streamTransport;
+
+    public DockerBackend(ContainerPool containerPool, CompileCache compileCache, RunnerImages runnerImages, DockerEngine dockerEngine,
+                         ContainerReaper reaper, SandboxLimits limits, @Value("${coderunner.transport:bind}") String transport) {
+        this.containerPool = containerPool;
+        this.compileCache = compileCache;
+        this.runnerImages = runnerImages;
+        this.dockerEngine = dockerEngine;
+        this.reaper = reaper;
+        this.limits = limits;
+        this.streamTransport = transport.equalsIgnoreCase("stream");
+    }
+
+    @Override
+    public String name() {
+        return "docker";
+    }
+
+    @Override
+    public Capabilities capabilities() {
+        return capabilities;
+    }
+
+    @Override
+    public boolean handles(String language) {
+        return RunnerImages.imageFor(language) != null;
+    }
+
+    //Builds are only reused with the exact runner image they were made in
+    private String toolchain(String language) {
+        String imageId = runnerImages.imageId(language);
+        return imageId == null ? null : name() + " " + imageId;
+    }
+
+    /** docker command running the code in a warm container (lease) or a new one-off container
+     * @param timeLimits compile and run budgets enforced inside the sandbox
+     */
+    public List<String> getCommandByFiles(CodeSubmission submission, File codeFile, File dirFile, File inputFile, ContainerPool.Lease lease, boolean compiled,
+                                          SandboxLimits.TimeLimits timeLimits) {
+        String language = submission.language;
+        //Warm containers already exist; run inside one and address files by the run's subdirectory
+        if (lease != null) {
+            String sandbox = "sandbox/" + dirFile.getName();
+            String shell = submission.getTimedShellByFiles(language, sandbox, codeFile, inputFile, compiled, timeLimits);
+            return shell == null ? null : List.of("docker", "exec", "-i", lease.containerName, "sh", "-c", shell);
+        }
+
+        //Runner images have each toolchain baked in (see runners/)
+        String image = RunnerImages.imageFor(language);
+        String shell = submission.getTimedShellByFiles(language, "sandbox", codeFile, inputFile, compiled, timeLimits);
+        if (image == null || shell == null) {
+            return null;
+        }
+        List<String> command = new ArrayList<>(List.of("docker", "run", "--name", dirFile.getName()));
+        command.addAll(limits.dockerArgs(language));
+        command.addAll(List.of("--rm", "-v", dirFile.getAbsolutePath() + ":/sandbox", image, "sh", "-c", shell));
+        return command;
+    }
+
+    public File build(CodeSubmission submission, ProcessBuilder processBuilder, CodeExecution exec, ContainerPool.Lease lease, String cacheKey) {
+
+        //Get the current directory (or the warm container's mounted directory)
+        File userDir = new File(System.getProperty("user.dir"));
+        File execDir = lease != null ? lease.dirFile : new File(userDir, ".test");
+
+        //Check if the extension is valid and save it
+        String extension = submission.getExtensionByLang(submission.language);
+        if (extension == null) {
+            exec.exitStatus += submission.language + " is not a supported language in CodeRunner. SUPPORTED: python, java, c\n";
+            exec.failed = true;
+            return null;
+        }
+
+        //Make a new directory if needed
+        if (execDir.mkdir())
+            IDEController.logText("testing directory not detected; new directory created.");
+
+        //Files for code/input
+        // to be pulled from
+        File dirFile, codeFile, inputFile;
+
+        try {
+            //Create a temporary directory to store the code
+            Path tempDir = Files.createTempDirectory(execDir.toPath(),"run");
+
+            //Create temporary code/input files with an appropriate filename
+            codeFile = submission.createCodeFile(tempDir, extension);
+            inputFile = Files.createTempFile(tempDir,"input-", ".txt").toFile();
+            dirFile = new File(tempDir.toUri());
+
+            IDEController.logText("Files made.");
+
+            //Ensure files are temporary only
+            codeFile.deleteOnExit();
+            inputFile.deleteOnExit();
+            dirFile.deleteOnExit();
+
+            //Overwrite existing text files
+            Files.writeString(codeFile.toPath(),  submission.code,  StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+            Files.writeString(inputFile.toPath(), submission.input, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+
+            //Catch exception if files cannot be written to
+        } catch (IOException e) {
+            exec.exitStatus += "could not write to code file.";
+            return null;
+        }
+
+//        processBuilder.redirectInput(inputFile);
+        processBuilder.directory(execDir);
+
+        IDEController.logText("Running code on enter.");
+        //Run different execution methods for different languages
+        //Skip compilation if an identical build is cached
+        boolean compiled = cacheKey != null && compileCache.restore(cacheKey, dirFile);
+        //A build that will be cached is compiled first, so it's stored before the program can touch it:
+        //in the warm container, or without one in a short-lived container of its own
+        String compileShell = submission.getCompileShell(submission.language, lease != null ? "sandbox/" + dirFile.getName() : "sandbox", codeFile);
+        if (!compiled && cacheKey != null && compileShell != null) {
+            CodeExecution compile = new CodeExecution(submission);
+            compile.exitStatus = "";
+            compile.timeLimits = exec.timeLimits;
+            compile.outputLimitBytes = exec.outputLimitBytes;
+            if (lease == null) {
+                compileInOwnContainer(submission, dockerEngine.isAvailable() ? dockerEngine : null, dirFile, codeFile, compile, cacheKey);
+            } else if (!compileInSandbox(submission, lease.containerName, compileShell, compile, cacheKey, dirFile)) {
+                //Whatever the compiler left running goes before the container is handed back
+                ContainerPool.killRuns(lease.containerName);
+            }
+            exec.compileMs = compile.runtime * 1000;
+            if (compile.exitCode != 0) {
+                exec.compileFailed(compile);
+                reaper.deleteDir(dirFile);
+                return null;
+            }
+            compiled = true;
+        }
+        processBuilder.command(getCommandByFiles(submission, codeFile, dirFile, inputFile, lease, compiled, exec.timeLimits));
+
+        return dirFile;
+    }
+
+    /** runs the code provided, w/ input from exec and outputting into exec
+     * @param exec contains input text and will be filled with status, output, runtime information and more.
+     */
+    @Override
+    public void run(CodeExecution exec) {
+        CodeSubmission submission = exec.codeSubmission;
+        String language = submission.language;
+        DockerEngine engine = dockerEngine.isAvailable() ? dockerEngine : null;
+        //Prepare ProcessBuilder to run code file accordingly (e.g. java xxx.java)
+        ProcessBuilder processBuilder = new ProcessBuilder();
+        Process process;
+
+        //Nothing to write on the host: ship the code through the Engine API in a one-off container instead
+        if (streamTransport && engine != null) {
+            runStreamed(submission, engine, exec);
+            long closing = System.nanoTime();
+            exec.close("");
+            exec.teardownMs = (System.nanoTime() - closing) / 1e6;
+            return;
+        }
+
+        //Borrow a warm container if a pool is available; a miss means a one-off container
+        long runStart = System.nanoTime();
+        ContainerPool.Lease lease = containerPool.checkout(language);
+        long checkedOut = System.nanoTime();
+
+        //Build code (AKA write data to files);
+        String cacheKey = submission.getCompileCacheKey(compileCache, toolchain(language));
+        File dirFile = build(submission, processBuilder, exec, lease, cacheKey);
+        //If build failed, stop running
+        if (dirFile == null) {
+            if (lease != null) containerPool.release(lease, true);
+            exec.close("");
+            return;
+        }
+        long built = System.nanoTime();
+        exec.setupMs = (built - checkedOut) / 1e6;
+        //Right after build the artifact only exists if it came from the compile cache
+        String artifactName = submission.getArtifactName(language);
+        boolean compileRan = submission.getCompileShell(language, "sandbox", new File("code" + submission.getExtensionByLang(language))) != null
+                && !(artifactName != null && new File(dirFile, artifactName).exists());
+
+        if (lease == null && engine != null) {
+            //One-off container through the Engine API; the shell line is always the last argument (sh -c <shell>)
+            List<String> command = processBuilder.command();
+            runWithEngine(submission, engine, exec, dirFile, command.get(command.size() - 1));
+        } else {
+            //Try to start the process
+            try {
+                process = processBuilder.start();
+            } catch (IOException e) {
+                if (lease != null) containerPool.release(lease, true);
+                closeRun(dirFile, exec, "could not start program.");
+                return;
+            }
+
+            //Run the process, wait until complete
+            runProcess(process, exec, dirFile, lease);
+        }
+
+        //Whatever the container step took beyond the shell's own span was container start/stop (or exec) overhead
+        long ran = System.nanoTime();
+        //The timing marks have no compile step when it ran ahead; keep its time
+        double compiledAhead = exec.compileMs;
+        double inContainer = TimedShell.readTimings(TimedShell.readTimingFile(dirFile, TimedShell.TIMING_FILE), exec, compileRan);
+        if (!compileRan && compiledAhead >= 0) exec.compileMs = compiledAhead;
+        double containerStep = (ran - built) / 1e9;
+        exec.containerStartMs = (checkedOut - runStart) / 1e6 + (inContainer >= 0 ? Math.max(0, containerStep - inContainer) * 1000 : 0);
+        exec.runtime = exec.programWallMs >= 0 ? exec.programWallMs / 1000 : containerStep;
+
+        closeRun(dirFile, exec, "");
+        exec.teardownMs = (System.nanoTime() - ran) / 1e6;
+    }
+
+    //Queues the run directory for deletion, then settles exec's status
+    private void closeRun(File dirFile, CodeExecution exec, String newStatus) {
+        if (dirFile != null) {
+            reaper.deleteDir(dirFile);
+        }
+        exec.close(newStatus);
+    }
+
+    /** Compiles the code once and runs it against every input inside a single sandbox container,
+     * a warm one if the pool has it or else a one-off container that idles while the cases are exec'd into it.
+     */
+    @Override
+    public CodeExecution[] runAll(CodeSubmission submission, String[] inputs, SandboxLimits.TimeLimits[] caseLimits, CaseListener listener) {
+        String language = submission.language;
+        SandboxLimits.TimeLimits defaults = limits.timeLimits(language);
+        CodeExecution[] executions = CodeExecution.forCases(submission, inputs.length, caseLimits, defaults, limits.outputLimitBytes(), name());
+
+        String image = RunnerImages.imageFor(language);
+        String extension = submission.getExtensionByLang(language);
+        if (image == null || extension == null) {
+            return failAll(executions, null, language + " is not a supported language in CodeRunner. SUPPORTED: python, java, c\n");
+        }
+
+        long runStart = System.nanoTime();
+        ContainerPool.Lease lease = containerPool.checkout(language);
+        long checkedOut = System.nanoTime();
+        File execDir = lease != null ? lease.dirFile : new File(new File(System.getProperty("user.dir")), ".test");
+        if (execDir.mkdir())
+            IDEController.logText("testing directory not detected; new directory created.");
+
+        //Write the code once and every input to its own file
+        File dirFile, codeFile;
+        File[] inputFiles = new File[inputs.length];
+        try {
+            dirFile = Files.createTempDirectory(execDir.toPath(), "run").toFile();
+            codeFile = submission.createCodeFile(dirFile.toPath(), extension);
+            Files.writeString(codeFile.toPath(), submission.code, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            for (int i = 0; i < inputs.length; i++) {
+                inputFiles[i] = Files.createTempFile(dirFile.toPath(), "input-" + i + "-", ".txt").toFile();
+                Files.writeString(inputFiles[i].toPath(), inputs[i], StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            }
+        } catch (IOException e) {
+            if (lease != null) containerPool.release(lease, true);
+            return failAll(executions, null, "could not write to code file.");
+        }
+
+        String sandbox = lease != null ? "sandbox/" + dirFile.getName() : "sandbox";
+        String container = lease != null ? lease.containerName : dirFile.getName();
+        long built = System.nanoTime();
+
+        //Without a warm container, start one that idles while the cases are exec'd into it
+        //--init like the pool's containers, so killing a case's processes leaves sleep (and the container) running
+        List<String> start = new ArrayList<>(List.of("run", "-d", "--name", container, "--init"));
+        start.addAll(limits.dockerArgs(language));
+        start.addAll(List.of("-v", dirFile.getAbsolutePath() + ":/sandbox", image, "sleep", "infinity"));
+        if (lease == null && !DockerCli.run(120, start.toArray(new String[0]))) {
+            DockerCli.run(60, "rm", "-f", container);
+            return failAll(executions, dirFile, "could not start program.");
+        }
+        //Shared phases are reported on every case; container start is the pool checkout or docker run
+        double containerStartMs = ((checkedOut - runStart) + (System.nanoTime() - built)) / 1e6;
+        for (CodeExecution exec : executions) {
+            exec.setupMs = (built - checkedOut) / 1e6;
+            exec.containerStartMs = containerStartMs;
+            exec.compileMs = 0;
+        }
+
+        boolean healthy = true;
+        String cacheKey = submission.getCompileCacheKey(compileCache, toolchain(language));
+        boolean compiled = cacheKey != null && compileCache.restore(cacheKey, dirFile);
+        String compileShell = compiled ? null : submission.getCompileShell(language, sandbox, codeFile);
+        CodeExecution compile = null;
+        if (compileShell != null) {
+            compile = new CodeExecution(submission);
+            compile.exitStatus = "";
+            compile.timeLimits = executions.length > 0 ? executions[0].timeLimits : defaults;
+            compile.outputLimitBytes = limits.outputLimitBytes();
+            healthy = compileInSandbox(submission, container, compileShell, compile, cacheKey, dirFile);
+            for (CodeExecution exec : executions) {
+                exec.compileMs = compile.runtime * 1000;
+            }
+        }
+
+        if (compile != null && compile.exitCode != 0) {
+            //Every case shares the compiler's diagnostics
+            for (CodeExecution exec : executions) {
+                exec.compileFailed(compile);
+            }
+        } else {
+            for (int i = 0; i < inputs.length; i++) {
+                String timingFile = TimedShell.TIMING_FILE + "-" + i;
+                SandboxLimits.TimeLimits timeLimits = executions[i].timeLimits;
+                String shell = TimedShell.wrap(sandbox + "/" + timingFile, null, submission.getRunShell(language, sandbox, codeFile, inputFiles[i]), timeLimits);
+                executions[i].comparator = listener.comparator(i);
+                healthy &= execInSandbox(container, shell, executions[i], timeLimits.wallMs() + timeLimits.graceMs());
+                //docker exec round trip beyond the shell's own span counts as container overhead; the shared compile time stays
+                double compileMs = executions[i].compileMs;
+                double inContainer = TimedShell.readTimings(TimedShell.readTimingFile(dirFile, timingFile), executions[i], false);
+                executions[i].compileMs = compileMs;
+                if (inContainer >= 0) {
+                    executions[i].containerStartMs += Math.max(0, executions[i].runtime - inContainer) * 1000;
+                    executions[i].runtime = executions[i].programWallMs / 1000;
+                }
+                if (!listener.caseFinished(i, executions[i])) {
+                    CodeExecution.skip(executions, i + 1);
+                    break;
+                }
+            }
+        }
+
+        long ran = System.nanoTime();
+        if (lease != null) {
+            containerPool.release(lease, healthy);
+        } else {
+            reaper.removeContainer(container);
+        }
+        failAll(executions, dirFile, "");
+        for (CodeExecution exec : executions) {
+            exec.teardownMs = (System.nanoTime() - ran) / 1e6;
+        }
+        return executions;
+    }
+
+    //Applies a shared status to every execution, cleans up the run directory and settles success flags
+    private CodeExecution[] failAll(CodeExecution[] executions, File dirFile, String status) {
+        if (dirFile != null) {
+            reaper.deleteDir(dirFile);
+        }
+        for (CodeExecution exec : executions) {
+            exec.close(status);
+        }
+        return executions;
+    }
+
+    /** Compiles in a running container as a step of its own and caches the build as soon as it succeeds, before any
+     * program runs next to it (a program could otherwise overwrite its own artifact before it's stored)
+     * @param compile has its timeLimits set; gets the compiler's output and verdicts
+     * @return false if the container may be left in a bad state
+     */
+    private boolean compileInSandbox(CodeSubmission submission, String container, String compileShell, CodeExecution compile, String cacheKey, File dirFile) {
+        long compileLimitMs = compile.timeLimits.compileWallMs();
+        boolean healthy = execInSandbox(container, TimedShell.withTimeout(compileShell, compileLimitMs), compile, compileLimitMs + compile.timeLimits.graceMs());
+        //Killed by the sandbox's timeout (or the host's) rather than failing on its own
+        compile.timeLimitExceeded |= compile.exitCode != 0 && compile.runtime * 1000 >= compileLimitMs;
+        if (cacheKey != null && compile.exitCode == 0) {
+            compileCache.store(cacheKey, new File(dirFile, submission.getArtifactName(submission.language)));
+        }
+        return healthy;
+    }
+
+    /** compileInSandbox for runs without a warm container: compiles in a short-lived container of its own and caches
+     * the build as soon as it succeeds, before the program's container starts
+     * @param engine Engine API to use, or null for the docker CLI
+     * @param dirFile run directory to mount, or null (Engine API only) to upload the code and copy the build back out
+     * @return directory holding the build (dirFile, or a temporary one the caller deletes), or null if nothing was built
+     */
+    private Path compileInOwnContainer(CodeSubmission submission, DockerEngine engine, File dirFile, File codeFile, CodeExecution compile, String cacheKey) {
+        String language = submission.language;
+        String image = RunnerImages.imageFor(language);
+        String artifactName = submission.getArtifactName(language);
+        long compileLimitMs = compile.timeLimits.compileWallMs();
+        String shell = TimedShell.withTimeout(submission.getCompileShell(language, "sandbox", codeFile), compileLimitMs);
+        //Named like run directories so the reaper recognises leftovers
+        String name = (dirFile != null ? dirFile.getName() : "run" + ThreadLocalRandom.current().nextLong(Long.MAX_VALUE)) + "-build";
+        //Killed or never started keeps exitCode at -1
+        compile.exitCode = -1;
+        Path built = null;
+        long start = System.nanoTime();
+
+        if (engine == null) {
+            List<String> command = new ArrayList<>(List.of("docker", "run", "--rm", "--name", name));
+            command.addAll(limits.dockerArgs(language));
+            command.addAll(List.of("-v", dirFile.getAbsolutePath() + ":/sandbox", image, "sh", "-c", shell));
+            if (!runStep(command, () -> DockerCli.run(30, "kill", name), compile, compileLimitMs + compile.timeLimits.graceMs())) {
+                reaper.removeContainer(name);
+            }
+            built = dirFile.toPath();
+        } else {
+            String id;
+            DockerEngine.Attachment attachment;
+            try {
+                id = engine.create(name, image, List.of("sh", "-c", shell),
+                        dirFile != null ? List.of(dirFile.getAbsolutePath() + ":/sandbox") : List.of(), false, limits.forLanguage(language));
+            } catch (IOException e) {
+                compile.exitStatus += "could not start program.";
+                return null;
+            }
+            try {
+                if (dirFile == null) engine.putArchive(id, "/", codeArchive(submission, codeFile, null));
+                attachment = engine.attach(id);
+                engine.start(id);
+            } catch (IOException e) {
+                engine.removeQuietly(id);
+                compile.exitStatus += "could not start program.";
+                return null;
+            }
+            boolean exited = awaitEngineRun(engine, compile, id, attachment);
+            if (dirFile != null) {
+                built = dirFile.toPath();
+            } else if (exited && compile.exitCode == 0) {
+                //No run directory: copy the build out of the stopped container
+                try {
+                    byte[] archive = engine.getArchive(id, "/sandbox/" + artifactName);
+                    if (archive != null) {
+                        built = Files.createTempDirectory("build");
+                        TarArchive.extract(archive, built);
+                    }
+                } catch (IOException e) {
+                    IDEController.logText("Could not copy the build out of " + name);
+                    if (built != null) reaper.deleteDir(built.toFile());
+                    built = null;
+                }
+            }
+            reaper.removeContainer(id);
+            attachment.close();
+        }
+
+        compile.runtime = (System.nanoTime() - start) / 1e9;
+        //Killed by the sandbox's timeout (or the host's) rather than failing on its own
+        compile.timeLimitExceeded |= compile.exitCode != 0 && compile.runtime * 1000 >= compileLimitMs;
+        if (compile.exitCode != 0) {
+            if (built != null && dirFile == null) reaper.deleteDir(built.toFile());
+            return null;
+        }
+        if (built != null) compileCache.store(cacheKey, built.resolve(artifactName).toFile());
+        return built;
+    }
+
+    /** Runs one shell line inside an already running container, capturing its output into exec.
+     * @param waitMs how long to wait before killing it from the host (the sandbox should have killed it already)
+     * @return false if the container may be left in a bad state (e.g. the command timed out)
+     */
+    private boolean execInSandbox(String container, String shell, CodeExecution exec, long waitMs) {
+        //Scrub the shared container on a limit hit (or wrong answer) so later cases still have it
+        return runStep(List.of("docker", "exec", container, "sh", "-c", shell), () -> ContainerPool.killRuns(container), exec, waitMs);
+    }
+
+    /** Runs a docker command for one step (an exec, or a short-lived container), capturing its output into exec.
+     * @param kill stops the step's processes when it hits an output limit
+     * @return false if it timed out or hit a limit
+     */
+    private boolean runStep(List<String> command, Runnable kill, CodeExecution exec, long waitMs) {
+        ProcessBuilder builder = new ProcessBuilder(command);
+        Process process;
+        long start = System.nanoTime();
+        try {
+            process = builder.start();
+        } catch (IOException e) {
+            exec.exitStatus += "could not start program.";
+            return true;
+        }
+
+        OutputCapture[] captures = OutputCapture.forProcess(process, exec.outputLimitBytes, null, kill, exec.comparator);
+
+        boolean finished;
+        try {
+            finished = process.waitFor(waitMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            finished = false;
+            exec.exitStatus += "Failed to poll program\n";
+        }
+        exec.runtime = (System.nanoTime() - start) / 1e9;
+
+        if (!finished) {
+            exec.exitStatus += "Time Limit Exceeded.\n";
+            exec.timeLimitExceeded = true;
+            process.destroyForcibly();
+        } else {
+            exec.exitCode = process.exitValue();
+        }
+
+        exec.finishOutput(captures);
+        return finished && !exec.outputLimitExceeded && !exec.errorLimitExceeded;
+    }
+
+    /** Runs protected process with Time and Output Limits. Returns status depending on if those limits are hit
+     * @param process Process to be run
+     * @param exec Stores process outputs and status info
+     */
+    public void runProcess(Process process, CodeExecution exec, File dirFile, ContainerPool.Lease lease) {
+        exec.exitStatus = "";
+
+        //Capture stdout/stderr as bytes; whichever hits its cap first kills the program right away
+        OutputCapture[] captures = OutputCapture.forProcess(process, exec.outputLimitBytes, exec.feed, lease != null
+                ? () -> ContainerPool.killRuns(lease.containerName)
+                : () -> DockerCli.run(30, "kill", dirFile.getName()));
+
+        //wait for the process to finish; the sandbox kills it at its limits, this is only the backstop
+        try {
+            process.waitFor(exec.timeLimits.hostWaitMs(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            exec.exitStatus += "Failed to poll program\n";
+        }
+
+        //Time limit exceeded
+        boolean timedOut = process.isAlive();
+        if (timedOut) {
+            exec.exitStatus += "Time Limit Exceeded.\n";
+            exec.timeLimitExceeded = true;
+        }
+
+        if (lease != null) {
+            //Killing the exec client does not stop the program inside, so replace the container on timeout
+            if (timedOut) {
+                try {
+                    process.destroyForcibly().waitFor(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    exec.exitStatus += "Code failed to exit.\n";
+                }
+            }
+            boolean limitHit = captures[0].isLimitExceeded() || captures[1].isLimitExceeded();
+            containerPool.release(lease, !timedOut && !limitHit);
+        } else {
+            //The result doesn't depend on teardown: drop the client now and let the reaper remove the container,
+            //but stop a runaway program right away rather than whenever the reaper gets to it
+            if (timedOut) {
+                DockerCli.run(30, "kill", dirFile.getName());
+                process.destroyForcibly();
+            }
+            reaper.removeContainer(dirFile.getName());
+        }
+
+        IDEController.logText("Processes killed.");
+
+        //If the process exited improperly and an error wasn't caught, note it
+        if (process.isAlive()) {
+            exec.exitStatus += "Process has not exited properly.\n";
+        } else {
+            //Killed processes (timeouts) keep exitCode at -1
+            if (!timedOut) exec.exitCode = process.exitValue();
+            if (process.exitValue() != 0 && exec.exitStatus.equals("success")) {
+                exec.exitStatus += "Program exited with incorrect return value: " + process.exitValue() + "\n";
+            }
+        }
+
+        exec.finishOutput(captures);
+    }
+
+    /** Same run as runProcess for a one-off container, but over the Docker Engine API:
+     * create, attach, start, wait and remove on pooled socket connections instead of forking the CLI.
+     */
+    private void runWithEngine(CodeSubmission submission, DockerEngine engine, CodeExecution exec, File dirFile, String shell) {
+        exec.exitStatus = "";
+        String id;
+        DockerEngine.Attachment attachment;
+        try {
+            id = engine.create(dirFile.getName(), RunnerImages.imageFor(submission.language), List.of("sh", "-c", shell),
+                    List.of(dirFile.getAbsolutePath() + ":/sandbox"), false, limits.forLanguage(submission.language));
+        } catch (IOException e) {
+            exec.exitStatus += "could not start program.";
+            return;
+        }
+        try {
+            //Attach before starting so no output is missed
+            attachment = engine.attach(id);
+            engine.start(id);
+        } catch (IOException e) {
+            engine.removeQuietly(id);
+            exec.exitStatus += "could not start program.";
+            return;
+        }
+
+        awaitEngineRun(engine, exec, id, attachment);
+        reaper.removeContainer(id);
+        attachment.close();
+    }
+
+    /** Runs in a one-off container without creating any host files: the code (plus a cached build, if any)
+     * is uploaded through the archive API and the input is streamed to the program's stdin.
+     */
+    private void runStreamed(CodeSubmission submission, DockerEngine engine, CodeExecution exec) {
+        String language = submission.language;
+        String extension = submission.getExtensionByLang(language);
+        String image = RunnerImages.imageFor(language);
+        if (extension == null || image == null) {
+            exec.exitStatus += language + " is not a supported language in CodeRunner. SUPPORTED: python, java, c\n";
+            exec.failed = true;
+            return;
+        }
+
+        //Java files must be named after their class; the name is all the shell lines need
+        String mainClass = language.equals("java") ? submission.getMainClassName() : null;
+        File codeFile = new File((mainClass != null ? mainClass : "code") + extension);
+        String cacheKey = submission.getCompileCacheKey(compileCache, toolchain(language));
+        Path cached = cacheKey == null ? null : compileCache.lookup(cacheKey);
+        //A build that will be cached is compiled in a container of its own and copied out, so it's stored before the program can touch it
+        Path built = null;
+        if (cached == null && cacheKey != null && submission.getCompileShell(language, "sandbox", codeFile) != null) {
+            CodeExecution compile = new CodeExecution(submission);
+            compile.exitStatus = "";
+            compile.timeLimits = exec.timeLimits;
+            compile.outputLimitBytes = exec.outputLimitBytes;
+            built = compileInOwnContainer(submission, engine, null, codeFile, compile, cacheKey);
+            exec.compileMs = compile.runtime * 1000;
+            if (compile.exitCode != 0) {
+                exec.compileFailed(compile);
+                return;
+            }
+        }
+        Path artifact = cached != null ? cached : built;
+        boolean compileRan = artifact == null && submission.getArtifactName(language) != null;
+        String shell = submission.getTimedShellByFiles(language, "sandbox", codeFile, null, artifact != null, exec.timeLimits);
+        //Same naming as run directories so the reaper recognises leftovers
+        String name = "run" + ThreadLocalRandom.current().nextLong(Long.MAX_VALUE);
+
+        String id;
+        DockerEngine.Attachment attachment;
+        long runStart = System.nanoTime();
+        try {
+            id = engine.create(name, image, List.of("sh", "-c", shell), List.of(), true, limits.forLanguage(language));
+        } catch (IOException e) {
+            if (built != null) reaper.deleteDir(built.toFile());
+            exec.exitStatus += "could not start program.";
+            return;
+        }
+        try {
+            engine.putArchive(id, "/", codeArchive(submission, codeFile, artifact));
+
+            attachment = engine.attach(id, true);
+            engine.start(id);
+        } catch (IOException e) {
+            engine.removeQuietly(id);
+            exec.exitStatus += "could not start program.";
+            return;
+        } finally {
+            if (built != null) reaper.deleteDir(built.toFile());
+        }
+
+        //Written alongside output capture so a program that prints before reading can't deadlock
+        Thread.ofVirtual().name("stdin-" + name).start(() -> {
+            try {
+                attachment.writeStdin(submission.input);
+            } catch (IOException e) {
+                //Program exited (or was killed) before reading all of its input
+            }
+        });
+
+        boolean exited = awaitEngineRun(engine, exec, id, attachment);
+        long ran = System.nanoTime();
+        //The timing file never touches the host either: copy it out like a build
+        if (exited) {
+            try {
+                byte[] timing = engine.getArchive(id, "/sandbox/" + TimedShell.TIMING_FILE);
+                //The timing marks have no compile step when it ran ahead; keep its time
+                double compiledAhead = exec.compileMs;
+                double inContainer = timing == null ? -1 : TimedShell.readTimings(TarArchive.readFirstFile(timing), exec, compileRan);
+                if (built != null) exec.compileMs = compiledAhead;
+                //Everything but the shell's own span: create, upload, attach, start, wait and copy-out round trips
+                if (inContainer >= 0) {
+                    exec.containerStartMs = Math.max(0, (ran - runStart) / 1e9 - inContainer) * 1000;
+                    exec.runtime = exec.programWallMs / 1000;
+                }
+            } catch (IOException e) {
+                IDEController.logText("Could not copy timings out of " + name);
+            }
+        }
+        if (exec.runtime < 0) exec.runtime = (ran - runStart) / 1e9;
+        reaper.removeContainer(id);
+        attachment.close();
+    }
+
+    //The sandbox directory for an uploaded run: the code file, plus a build (cached or just compiled) if there is one
+    private static byte[] codeArchive(CodeSubmission submission, File codeFile, Path build) throws IOException {
+        ByteArrayOutputStream tar = new ByteArrayOutputStream();
+        TarArchive.writeDirectory(tar, "sandbox/");
+        TarArchive.writeFile(tar, "sandbox/" + codeFile.getName(), submission.code.getBytes(StandardCharsets.UTF_8), 0644);
+        if (build != null) {
+            TarArchive.writeTree(tar, build, "sandbox/");
+        }
+        TarArchive.finish(tar);
+        return tar.toByteArray();
+    }
+
+    /** Captures an attached container's output, waits for it to exit within the time limit and drains the output.
+     * @return false if it timed out (the container is then already removed)
+     */
+    private boolean awaitEngineRun(DockerEngine engine, CodeExecution exec, String id, DockerEngine.Attachment attachment) {
+        Runnable onLimit = () -> engine.removeQuietly(id);
+        OutputCapture[] captures = {
+                OutputCapture.start(attachment.stdout, exec.outputLimitBytes, onLimit, exec.feed, "stdout"),
+                OutputCapture.start(attachment.stderr, exec.outputLimitBytes, onLimit, exec.feed, "stderr")
+        };
+
+        CompletableFuture<Integer> exit = new CompletableFuture<>();
+        Thread.ofVirtual().start(() -> {
+            try {
+                exit.complete(engine.waitFor(id));
+            } catch (IOException e) {
+                exit.completeExceptionally(e);
+            }
+        });
+
+        boolean timedOut = false;
+        try {
+            exec.exitCode = exit.get(exec.timeLimits.hostWaitMs(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            timedOut = true;
+            exec.exitStatus += "Time Limit Exceeded.\n";
+            exec.timeLimitExceeded = true;
+        } catch (ExecutionException e) {
+            exec.exitStatus += "Failed to poll program\n";
+        } catch (InterruptedException e) {
+            exec.exitStatus += "Failed to poll program\n";
+            Thread.currentThread().interrupt();
+        }
+
+        //A running container keeps the attach stream open, so remove it before draining
+        if (timedOut) {
+            engine.removeQuietly(id);
+        }
+        exec.finishOutput(captures);
+        return !timedOut;
+    }
+}
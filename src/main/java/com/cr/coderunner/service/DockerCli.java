@@ -0,0 +1,62 @@
+package com.cr.coderunner.service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+//Small helper for one-shot docker CLI housekeeping commands (not used for running submissions)
+public class DockerCli {
+    private DockerCli() {}
+
+    /** Runs a docker CLI command to completion, discarding its output.
+     * @return true if the command exited with status 0 within the timeout
+     */
+    public static boolean run(long timeoutSecs, String... args) {
+        ProcessBuilder builder = new ProcessBuilder();
+        List<String> cmds = new ArrayList<>(List.of("docker"));
+        cmds.addAll(List.of(args));
+        builder.command(cmds);
+        builder.redirectErrorStream(true);
+        builder.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+        try {
+            Process process = builder.start();
+            if (!process.waitFor(timeoutSecs, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+                return false;
+            }
+            return process.exitValue() == 0;
+        } catch (IOException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /** Runs a docker CLI command to completion and returns its trimmed stdout.
+     * @return the output, or null if the command failed or timed out
+     */
+    public static String output(long timeoutSecs, String... args) {
+        List<String> cmds = new ArrayList<>(List.of("docker"));
+        cmds.addAll(List.of(args));
+        ProcessBuilder builder = new ProcessBuilder(cmds);
+        builder.redirectError(ProcessBuilder.Redirect.DISCARD);
+        try {
+            Process process = builder.start();
+            //Housekeeping output is tiny, so reading before waiting can't deadlock on a full pipe
+            String out = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+            if (!process.waitFor(timeoutSecs, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+                return null;
+            }
+            return process.exitValue() == 0 ? out.trim() : null;
+        } catch (IOException e) {
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+}
@@ -0,0 +1,451 @@
+package com.cr.coderunner.service;
+
+import com.cr.coderunner.controller.IDEController;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import tools.jackson.core.JacksonException;
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.ObjectMapper;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.Writer;
+import java.net.StandardProtocolFamily;
+import java.net.URLEncoder;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/** Minimal Docker Engine API client speaking HTTP/1.1 over the daemon's unix socket.
+ * Replaces forking the docker CLI per call: connections are kept alive and reused,
+ * so a run costs a handful of small HTTP requests.
+ */
+@Service
+public class DockerEngine {
+    private static final String API_VERSION = "/v1.41";
+    private static final ObjectMapper JSON = new ObjectMapper();
+    //Safe to send twice: a request the daemon may already have acted on is only repeated for these
+    private static final Set<String> IDEMPOTENT = Set.of("GET", "HEAD", "PUT", "DELETE");
+
+    public record Response(int status, byte[] content) {
+        public String body() {
+            return new String(content, StandardCharsets.UTF_8);
+        }
+    }
+
+    private final Path socketPath;
+    private final boolean enabled;
+    //Idle keep-alive connections ready for the next request
+    private final ArrayBlockingQueue<Connection> idle;
+
+    public DockerEngine(@Value("${coderunner.docker.socket:/var/run/docker.sock}") String socketPath,
+                        @Value("${coderunner.docker.api.enabled:true}") boolean enabled,
+                        @Value("${coderunner.docker.api.max-idle-connections:16}") int maxIdle) {
+        this.socketPath = Path.of(socketPath);
+        this.enabled = enabled;
+        this.idle = new ArrayBlockingQueue<>(Math.max(1, maxIdle));
+    }
+
+    //True if runs should go through the API rather than the CLI
+    public boolean isAvailable() {
+        return enabled && Files.exists(socketPath);
+    }
+
+    /** Creates (but doesn't start) a container with stdout/stderr attachable and no TTY
+     * @return the container id
+     */
+    public String create(String name, String image, List<String> cmd, List<String> binds) throws IOException {
+        return create(name, image, cmd, binds, false);
+    }
+
+    /** Like create(name, image, cmd, binds)
+     * @param openStdin keep stdin open for one attach (see Attachment.writeStdin), closing it when that client is done
+     */
+    public String create(String name, String image, List<String> cmd, List<String> binds, boolean openStdin) throws IOException {
+        return create(name, image, cmd, binds, openStdin, null);
+    }
+
+    /** Like create(name, image, cmd, binds, openStdin)
+     * @param limits memory/CPU/pids caps for the container; null for none
+     */
+    public String create(String name, String image, List<String> cmd, List<String> binds, boolean openStdin, SandboxLimits.Limits limits) throws IOException {
+        Map<String, Object> config = new LinkedHashMap<>();
+        config.put("Image", image);
+        config.put("Cmd", cmd);
+        config.put("AttachStdout", true);
+        config.put("AttachStderr", true);
+        config.put("Tty", false);
+        if (openStdin) {
+            config.put("AttachStdin", true);
+            config.put("OpenStdin", true);
+            config.put("StdinOnce", true);
+        }
+        config.put("HostConfig", hostConfig(binds, limits));
+        Response response = request("POST", "/containers/create?name=" + URLEncoder.encode(name, StandardCharsets.UTF_8),
+                JSON.writeValueAsString(config));
+        expect(response, 201);
+        JsonNode id = json(response).path("Id");
+        if (!id.isString()) throw new IOException("Docker create returned no id: " + response.body());
+        return id.stringValue();
+    }
+
+    //Binds plus the fields matching the CLI's --memory, --memory-swap, --cpus and --pids-limit
+    private static Map<String, Object> hostConfig(List<String> binds, SandboxLimits.Limits limits) {
+        Map<String, Object> host = new LinkedHashMap<>();
+        host.put("Binds", binds);
+        if (limits == null) return host;
+        if (limits.memoryBytes() > 0) {
+            host.put("Memory", limits.memoryBytes());
+            host.put("MemorySwap", limits.memoryBytes());
+        }
+        if (limits.cpus() > 0) host.put("NanoCpus", (long) (limits.cpus() * 1e9));
+        if (limits.pids() > 0) host.put("PidsLimit", limits.pids());
+        return host;
+    }
+
+    //Extracts a tar archive into the container's filesystem at path (works before the container starts)
+    public void putArchive(String id, String path, byte[] tar) throws IOException {
+        Response response = request("PUT", "/containers/" + id + "/archive?path=" + URLEncoder.encode(path, StandardCharsets.UTF_8),
+                tar, "application/x-tar");
+        expect(response, 200);
+    }
+
+    //A tar of the file or directory at path, or null if it doesn't exist
+    public byte[] getArchive(String id, String path) throws IOException {
+        Response response = request("GET", "/containers/" + id + "/archive?path=" + URLEncoder.encode(path, StandardCharsets.UTF_8), null);
+        if (response.status == 404) return null;
+        expect(response, 200);
+        return response.content;
+    }
+
+    public void start(String id) throws IOException {
+        //304: already started
+        Response response = request("POST", "/containers/" + id + "/start", null);
+        if (response.status != 304) expect(response, 204);
+    }
+
+    //Blocks until the container exits and returns its exit code
+    public int waitFor(String id) throws IOException {
+        Response response = request("POST", "/containers/" + id + "/wait", null);
+        expect(response, 200);
+        JsonNode code = json(response).path("StatusCode");
+        if (!code.isIntegralNumber()) throw new IOException("Docker wait returned no status: " + response.body());
+        return code.intValue();
+    }
+
+    //Force-removes a container (killing it if needed); a missing container counts as removed
+    public void remove(String id) throws IOException {
+        Response response = request("DELETE", "/containers/" + URLEncoder.encode(id, StandardCharsets.UTF_8) + "?force=true", null);
+        if (response.status != 404) expect(response, 204);
+    }
+
+    //remove() for cleanup paths, where a failure is only logged
+    public boolean removeQuietly(String id) {
+        try {
+            remove(id);
+            return true;
+        } catch (IOException e) {
+            IDEController.logText("Failed to remove container " + id + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    /** Attaches to a container's stdout and stderr. Attach before start() so no output is missed.
+     * The connection is dedicated to the stream and closed with the attachment.
+     */
+    public Attachment attach(String id) throws IOException {
+        return attach(id, false);
+    }
+
+    //Like attach(id), also taking stdin (the container must be created with openStdin)
+    public Attachment attach(String id, boolean stdin) throws IOException {
+        Connection connection = connect();
+        try {
+            connection.writeRequest("POST", "/containers/" + id + "/attach?stream=1&stdout=1&stderr=1" + (stdin ? "&stdin=1" : ""),
+                    null, null, "Connection: Upgrade\r\nUpgrade: tcp\r\n");
+            int status = connection.readStatus();
+            connection.readHeaders();
+            if (status != 101 && status != 200) {
+                throw new IOException("Docker attach failed with HTTP " + status);
+            }
+            return new Attachment(connection);
+        } catch (IOException e) {
+            connection.close();
+            throw e;
+        }
+    }
+
+    /** stdout/stderr of an attached container, split out of Docker's multiplexed stream
+     * (frames of an 8-byte header, [stream, 0, 0, 0, size as 4 big-endian bytes], then the payload).
+     */
+    public static class Attachment implements Closeable {
+        public final InputStream stdout;
+        public final InputStream stderr;
+        private final Connection connection;
+
+        private Attachment(Connection connection) throws IOException {
+            this.connection = connection;
+            PipedOutputStream outSink = new PipedOutputStream();
+            PipedOutputStream errSink = new PipedOutputStream();
+            this.stdout = new PipedInputStream(outSink, 65536);
+            this.stderr = new PipedInputStream(errSink, 65536);
+            Thread.ofVirtual().name("docker-attach").start(() -> demux(connection.in, outSink, errSink));
+        }
+
+        private static void demux(InputStream in, PipedOutputStream outSink, PipedOutputStream errSink) {
+            OutputStream out = outSink, err = errSink;
+            try (outSink; errSink) {
+                byte[] header = new byte[8];
+                byte[] payload = new byte[8192];
+                while (in.readNBytes(header, 0, 8) == 8) {
+                    int remaining = ((header[4] & 0xFF) << 24) | ((header[5] & 0xFF) << 16) | ((header[6] & 0xFF) << 8) | (header[7] & 0xFF);
+                    boolean toErr = header[0] == 2;
+                    while (remaining > 0) {
+                        int read = in.read(payload, 0, Math.min(payload.length, remaining));
+                        if (read == -1) return;
+                        remaining -= read;
+                        //A reader that stopped (e.g. hit its output limit) just stops receiving
+                        if (toErr && err != null) err = write(err, payload, read);
+                        if (!toErr && out != null) out = write(out, payload, read);
+                    }
+                }
+            } catch (IOException e) {
+                //Stream ended underneath us (container removed)
+            }
+        }
+
+        private static OutputStream write(OutputStream sink, byte[] data, int length) {
+            try {
+                sink.write(data, 0, length);
+                return sink;
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        /** Streams input to the program's stdin in chunks, then closes stdin so the program sees EOF.
+         * Run this alongside reading stdout/stderr, or a program that prints before reading could block forever.
+         */
+        public void writeStdin(String input) throws IOException {
+            Writer writer = new OutputStreamWriter(connection.out, StandardCharsets.UTF_8);
+            for (int start = 0; start < input.length(); start += 8192) {
+                writer.write(input, start, Math.min(8192, input.length() - start));
+            }
+            writer.flush();
+            connection.channel.shutdownOutput();
+        }
+
+        @Override
+        public void close() {
+            connection.close();
+        }
+    }
+
+    /** Sends one request, reusing an idle connection when possible */
+    public Response request(String method, String path, String json) throws IOException {
+        return request(method, path, json == null ? null : json.getBytes(StandardCharsets.UTF_8), "application/json");
+    }
+
+    public Response request(String method, String path, byte[] body, String contentType) throws IOException {
+        Connection pooled = idle.poll();
+        if (pooled != null) {
+            try {
+                return exchange(pooled, method, path, body, contentType);
+            } catch (NotSentException e) {
+                //The daemon had closed the idle connection; send it once more on a fresh one
+            }
+        }
+        return exchange(connect(), method, path, body, contentType);
+    }
+
+    //The request can't have been acted on (or is safe to repeat), so it may be sent again
+    private static final class NotSentException extends IOException {
+        NotSentException(IOException cause) {
+            super(cause.getMessage(), cause);
+        }
+    }
+
+    private Response exchange(Connection connection, String method, String path, byte[] body, String contentType) throws IOException {
+        boolean reusable = false;
+        try {
+            try {
+                connection.writeRequest(method, path, body, contentType, "");
+            } catch (IOException e) {
+                throw new NotSentException(e);
+            }
+            Response response;
+            try {
+                response = connection.readResponse();
+            } catch (IOException e) {
+                //The daemon may have run a POST (e.g. create or start) before the connection broke; never send that twice
+                if (IDEMPOTENT.contains(method)) throw new NotSentException(e);
+                throw e;
+            }
+            reusable = connection.keepAlive;
+            return response;
+        } finally {
+            if (!reusable || !idle.offer(connection)) {
+                connection.close();
+            }
+        }
+    }
+
+    private Connection connect() throws IOException {
+        SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            channel.connect(UnixDomainSocketAddress.of(socketPath));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return new Connection(channel);
+    }
+
+    private static final class Connection implements Closeable {
+        private final SocketChannel channel;
+        private final InputStream in;
+        private final OutputStream out;
+        private boolean keepAlive;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+            this.in = new BufferedInputStream(Channels.newInputStream(channel));
+            this.out = Channels.newOutputStream(channel);
+        }
+
+        void writeRequest(String method, String path, byte[] body, String contentType, String extraHeaders) throws IOException {
+            byte[] content = body == null ? new byte[0] : body;
+            StringBuilder head = new StringBuilder()
+                    .append(method).append(' ').append(API_VERSION).append(path).append(" HTTP/1.1\r\n")
+                    .append("Host: docker\r\n")
+                    .append(extraHeaders);
+            if (body != null) {
+                head.append("Content-Type: ").append(contentType).append("\r\n");
+            }
+            head.append("Content-Length: ").append(content.length).append("\r\n\r\n");
+            ByteArrayOutputStream request = new ByteArrayOutputStream(head.length() + content.length);
+            request.write(head.toString().getBytes(StandardCharsets.US_ASCII));
+            request.write(content);
+            out.write(request.toByteArray());
+            out.flush();
+        }
+
+        Response readResponse() throws IOException {
+            int status = readStatus();
+            String[] headers = readHeaders();
+            String transferEncoding = headers[0], contentLength = headers[1], connection = headers[2];
+            keepAlive = !"close".equalsIgnoreCase(connection);
+
+            byte[] body;
+            if ("chunked".equalsIgnoreCase(transferEncoding)) {
+                body = readChunked();
+            } else if (contentLength != null) {
+                body = in.readNBytes(Integer.parseInt(contentLength));
+            } else if (status == 204 || status == 304 || status < 200) {
+                body = new byte[0];
+            } else {
+                //No framing: the body runs to the end of the connection
+                body = in.readAllBytes();
+                keepAlive = false;
+            }
+            return new Response(status, body);
+        }
+
+        int readStatus() throws IOException {
+            String statusLine = readLine();
+            if (statusLine == null) throw new IOException("Docker closed the connection");
+            String[] parts = statusLine.split(" ", 3);
+            if (parts.length < 2) throw new IOException("Malformed status line: " + statusLine);
+            return Integer.parseInt(parts[1]);
+        }
+
+        //Returns the headers this client cares about: transfer-encoding, content-length, connection
+        String[] readHeaders() throws IOException {
+            String[] wanted = new String[3];
+            String line;
+            while ((line = readLine()) != null && !line.isEmpty()) {
+                int colon = line.indexOf(':');
+                if (colon < 0) continue;
+                String name = line.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+                String value = line.substring(colon + 1).trim();
+                switch (name) {
+                    case "transfer-encoding" -> wanted[0] = value;
+                    case "content-length" -> wanted[1] = value;
+                    case "connection" -> wanted[2] = value;
+                    default -> { }
+                }
+            }
+            return wanted;
+        }
+
+        private byte[] readChunked() throws IOException {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            while (true) {
+                String sizeLine = readLine();
+                if (sizeLine == null) throw new IOException("Truncated chunked response");
+                int size = Integer.parseInt(sizeLine.split(";", 2)[0].trim(), 16);
+                if (size == 0) {
+                    //Skip trailers up to the blank line
+                    String trailer;
+                    while ((trailer = readLine()) != null && !trailer.isEmpty()) { }
+                    return body.toByteArray();
+                }
+                body.write(in.readNBytes(size));
+                readLine();
+            }
+        }
+
+        //Reads one CRLF-terminated ASCII line, or null at end of stream
+        private String readLine() throws IOException {
+            StringBuilder line = new StringBuilder();
+            int c;
+            while ((c = in.read()) != -1) {
+                if (c == '\n') {
+                    int length = line.length();
+                    if (length > 0 && line.charAt(length - 1) == '\r') line.setLength(length - 1);
+                    return line.toString();
+                }
+                line.append((char) c);
+            }
+            return line.isEmpty() ? null : line.toString();
+        }
+
+        @Override
+        public void close() {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static void expect(Response response, int status) throws IOException {
+        if (response.status != status) {
+            throw new IOException("Docker API returned HTTP " + response.status + ": " + response.body().trim());
+        }
+    }
+
+    private static JsonNode json(Response response) throws IOException {
+        try {
+            return JSON.readTree(response.content());
+        } catch (JacksonException e) {
+            throw new IOException("Docker API returned malformed JSON: " + response.body().trim(), e);
+        }
+    }
+}
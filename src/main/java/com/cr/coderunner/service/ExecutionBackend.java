@@ -0,0 +1,62 @@
+package com.cr.coderunner.service;
+
+import com.cr.coderunner.model.CodeExecution;
+import com.cr.coderunner.model.CodeSubmission;
+import com.cr.coderunner.model.OutputComparator;
+
+/** Something that can compile and run submissions: containers (DockerBackend), host processes (LocalProcessBackend)
+ * or warm workers (WorkerPool). ExecutionBackends picks one per language from coderunner.backend.{language}.
+ *
+ * Each run goes through the same phases: prepare the sandbox and workspace, compile, run, collect output, verdicts
+ * and timings into the execution, clean up. A backend may fuse phases (Docker compiles and runs in one container
+ * start), so they are steps of run/runAll rather than separate calls.
+ */
+public interface ExecutionBackend {
+    /** What a backend can enforce and measure, so routing and clients know what a result means
+     * @param memoryLimit programs are stopped at a memory cap
+     * @param cpuTimeLimit programs are stopped at a CPU-time cap (wall time is always enforced)
+     * @param memoryAccounting results carry peak memory and OOM verdicts
+     * @param liveOutput output reaches streaming clients while the program runs, not only at the end
+     * @param isolated runs can't see the host or each other (filesystem, processes, network)
+     */
+    record Capabilities(boolean memoryLimit, boolean cpuTimeLimit, boolean memoryAccounting, boolean liveOutput, boolean isolated) {}
+
+    //Told about each case of runAll as soon as it has run (output and verdicts set, not yet closed)
+    interface CaseListener {
+        /**
+         * @return false to stop: the remaining cases are skipped without running (see CodeExecution.skip)
+         */
+        boolean caseFinished(int index, CodeExecution execution);
+
+        /** Checks case index's stdout while it runs; backends that stream output through it stop the case at the
+         * first mismatch. Null (the default) lets every case run to the end.
+         */
+        default OutputComparator comparator(int index) {
+            return null;
+        }
+    }
+
+    //Name used in coderunner.backend.{language} and reported in results, e.g. "docker"
+    String name();
+
+    Capabilities capabilities();
+
+    //True if this backend can run the language here (toolchain present, backend enabled)
+    boolean handles(String language);
+
+    /** Runs one execution to completion: fills its output, error, exit code, verdicts and timings.
+     * Its timeLimits and outputLimitBytes are already set.
+     */
+    void run(CodeExecution exec);
+
+    /** Compiles once and runs the code against every input (judging)
+     * @param caseLimits time budgets per input (null entries use the language's); the compile budget is the first case's
+     * @return one execution per input with its own output, error, exit code and runtime
+     */
+    default CodeExecution[] runAll(CodeSubmission submission, String[] inputs, SandboxLimits.TimeLimits[] caseLimits) {
+        return runAll(submission, inputs, caseLimits, (index, execution) -> true);
+    }
+
+    //runAll that can stop early, e.g. judging that fails fast on the first wrong answer
+    CodeExecution[] runAll(CodeSubmission submission, String[] inputs, SandboxLimits.TimeLimits[] caseLimits, CaseListener listener);
+}
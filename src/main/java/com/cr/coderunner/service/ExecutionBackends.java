@@ -0,0 +1,55 @@
+package com.cr.coderunner.service;
+
+import com.cr.coderunner.controller.IDEController;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Routes each language to a backend: coderunner.backend.{language}, else coderunner.backend.default.
+ * A backend that can't take the language (unknown name, toolchain missing, not enabled) falls back to Docker.
+ */
+@Service
+public class ExecutionBackends {
+    private final List<ExecutionBackend> backends;
+    private final DockerBackend docker;
+    private final Environment environment;
+    private final String defaultBackend;
+    private final Map<String, ExecutionBackend> byLanguage;
+
+    public ExecutionBackends(List<ExecutionBackend> backends, DockerBackend docker, Environment environment,
+                             @Value("${coderunner.backend.default:docker}") String defaultBackend) {
+        this.backends = backends;
+        this.docker = docker;
+        this.environment = environment;
+        this.defaultBackend = defaultBackend;
+        this.byLanguage = new ConcurrentHashMap<>();
+    }
+
+    @PostConstruct
+    public void logRoutes() {
+        for (String language : List.of("c", "java", "python")) {
+            ExecutionBackend backend = forLanguage(language);
+            IDEController.logText(language + " runs on " + backend.name() + " " + backend.capabilities());
+        }
+    }
+
+    //Backend for a language's runs
+    public ExecutionBackend forLanguage(String language) {
+        if (language == null) return docker;
+        return byLanguage.computeIfAbsent(language, lang -> {
+            String name = environment.getProperty("coderunner.backend." + lang, defaultBackend);
+            for (ExecutionBackend backend : backends) {
+                if (backend.name().equalsIgnoreCase(name) && backend.handles(lang)) return backend;
+            }
+            if (!name.equalsIgnoreCase(docker.name())) {
+                IDEController.logText("Backend " + name + " can't run " + lang + "; using " + docker.name());
+            }
+            return docker;
+        });
+    }
+}
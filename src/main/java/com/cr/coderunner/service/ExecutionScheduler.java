@@ -0,0 +1,240 @@
+package com.cr.coderunner.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/** Bounded, fair job queue in front of the sandboxes.
+ * Jobs are grouped by priority class, and within a class served round-robin per tenant (user + source),
+ * so one client flooding the queue can't starve the others. Each job runs on its own virtual thread
+ * once a sandbox permit is free.
+ */
+@Service
+public class ExecutionScheduler {
+    public enum Priority { HIGH, NORMAL, LOW }
+
+    public enum Source {
+        IDE(Priority.HIGH),
+        LLM(Priority.NORMAL),
+        PROBLEM(Priority.LOW);
+
+        public final Priority priority;
+
+        Source(Priority priority) {
+            this.priority = priority;
+        }
+    }
+
+    //Order classes are visited in; lower classes still get turns so they can't starve
+    private static final Priority[] rotation = {
+            Priority.HIGH, Priority.HIGH, Priority.HIGH, Priority.NORMAL, Priority.NORMAL, Priority.LOW
+    };
+
+    private static class Job {
+        final String tenant;
+        final Source source;
+        final long enqueuedAt;
+        //System.nanoTime() after which the job is dropped instead of run; 0 for none
+        final long deadlineAt;
+        final Runnable task;
+        final CompletableFuture<?> future;
+
+        Job(String tenant, Source source, long deadlineAt, Runnable task, CompletableFuture<?> future) {
+            this.tenant = tenant;
+            this.source = source;
+            this.enqueuedAt = System.nanoTime();
+            this.deadlineAt = deadlineAt;
+            this.task = task;
+            this.future = future;
+        }
+    }
+
+    private final int capacity;
+    private final int maxPerTenant;
+    private final SandboxCapacity sandboxes;
+
+    private final ReentrantLock lock;
+    private final Condition notEmpty;
+    //Per class: tenant -> that tenant's FIFO; insertion order doubles as the round-robin order
+    private final Map<Priority, LinkedHashMap<String, ArrayDeque<Job>>> queues;
+    private final Map<String, Integer> queuedPerTenant;
+    private int depth;
+    private int cursor;
+    //Moving average of job run time, used to estimate Retry-After
+    private volatile double avgRunSeconds;
+
+    private final MeterRegistry registry;
+    private final Timer waitTimer;
+    private final Thread dispatcher;
+
+    public ExecutionScheduler(MeterRegistry registry, SandboxCapacity sandboxes,
+                              @Value("${coderunner.scheduler.queue-capacity:100}") int capacity,
+                              @Value("${coderunner.scheduler.max-per-tenant:10}") int maxPerTenant) {
+        this.registry = registry;
+        this.sandboxes = sandboxes;
+        this.capacity = capacity;
+        this.maxPerTenant = maxPerTenant;
+        this.lock = new ReentrantLock();
+        this.notEmpty = lock.newCondition();
+        this.queues = new EnumMap<>(Priority.class);
+        for (Priority priority : Priority.values()) {
+            queues.put(priority, new LinkedHashMap<>());
+        }
+        this.queuedPerTenant = new java.util.HashMap<>();
+        this.depth = 0;
+        this.cursor = 0;
+        this.avgRunSeconds = 1.0;
+
+        this.waitTimer = Timer.builder("coderunner.scheduler.wait")
+                .description("Time jobs spend queued before a worker picks them up")
+                .register(registry);
+        Gauge.builder("coderunner.scheduler.queue.depth", this, ExecutionScheduler::getDepth)
+                .register(registry);
+
+        this.dispatcher = Thread.ofVirtual().name("execution-dispatcher").start(this::dispatch);
+    }
+
+    /** Queues a job.
+     * @param tenant who the job is for (user id or client address); fairness is per tenant and source
+     * @param deadlineMillis drop the job if it hasn't started within this many ms; 0 waits indefinitely
+     * @return completes with the task's result, or exceptionally with TimeoutException if the deadline passed first
+     * @throws QueueFullException if the queue or the tenant's share of it is full
+     */
+    public <T> CompletableFuture<T> submit(String tenant, Source source, long deadlineMillis, Supplier<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        String key = source.name() + ":" + (tenant == null ? "anonymous" : tenant);
+        long deadlineAt = deadlineMillis > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMillis) : 0;
+        Job job = new Job(key, source, deadlineAt, () -> {
+            try {
+                future.complete(task.get());
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            }
+        }, future);
+
+        lock.lock();
+        try {
+            int tenantDepth = queuedPerTenant.getOrDefault(key, 0);
+            if (depth >= capacity || tenantDepth >= maxPerTenant) {
+                registry.counter("coderunner.scheduler.rejected", "source", source.name()).increment();
+                throw new QueueFullException(depth >= capacity
+                        ? "Execution queue is full."
+                        : "Too many queued executions for this client.", retryAfterSeconds());
+            }
+            queues.get(source.priority).computeIfAbsent(key, k -> new ArrayDeque<>()).addLast(job);
+            queuedPerTenant.put(key, tenantDepth + 1);
+            depth++;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+        return future;
+    }
+
+    public int getDepth() {
+        lock.lock();
+        try {
+            return depth;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //Rough time until a new job would start: queue ahead of it spread over the sandboxes
+    public long retryAfterSeconds() {
+        return Math.max(1, (long) Math.ceil((depth + 1) * avgRunSeconds / sandboxes.total()));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        dispatcher.interrupt();
+    }
+
+    //Waits for a free sandbox, then starts the next job on its own virtual thread
+    private void dispatch() {
+        while (!Thread.currentThread().isInterrupted()) {
+            Job job;
+            try {
+                sandboxes.acquire();
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                job = take();
+            } catch (InterruptedException e) {
+                sandboxes.release();
+                return;
+            }
+
+            long start = System.nanoTime();
+            waitTimer.record(start - job.enqueuedAt, TimeUnit.NANOSECONDS);
+            if (job.deadlineAt != 0 && start > job.deadlineAt) {
+                sandboxes.release();
+                registry.counter("coderunner.scheduler.expired", "source", job.source.name()).increment();
+                job.future.completeExceptionally(new TimeoutException("Deadline passed before execution started."));
+                continue;
+            }
+
+            Thread.ofVirtual().name("execution-" + job.tenant).start(() -> {
+                try {
+                    job.task.run();
+                } finally {
+                    sandboxes.release();
+                    double seconds = (System.nanoTime() - start) / 1e9;
+                    avgRunSeconds = avgRunSeconds * 0.9 + seconds * 0.1;
+                }
+            });
+        }
+    }
+
+    private Job take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (depth == 0) {
+                notEmpty.await();
+            }
+            //Start at the cursor's class, falling through to any class that has work
+            for (int i = 0; i < rotation.length; i++) {
+                Priority priority = rotation[(cursor + i) % rotation.length];
+                Job job = pollRoundRobin(queues.get(priority));
+                if (job != null) {
+                    cursor = (cursor + i + 1) % rotation.length;
+                    depth--;
+                    queuedPerTenant.merge(job.tenant, -1, (a, b) -> a + b == 0 ? null : a + b);
+                    return job;
+                }
+            }
+            throw new IllegalStateException("Queue depth out of sync with queues");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //Takes the next job from the first tenant in line, then sends that tenant to the back
+    private static Job pollRoundRobin(LinkedHashMap<String, ArrayDeque<Job>> tenants) {
+        Iterator<Map.Entry<String, ArrayDeque<Job>>> it = tenants.entrySet().iterator();
+        if (!it.hasNext()) return null;
+        Map.Entry<String, ArrayDeque<Job>> first = it.next();
+        it.remove();
+        Job job = first.getValue().pollFirst();
+        if (!first.getValue().isEmpty()) {
+            tenants.put(first.getKey(), first.getValue());
+        }
+        return job;
+    }
+}
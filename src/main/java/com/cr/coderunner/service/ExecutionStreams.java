@@ -0,0 +1,82 @@
+package com.cr.coderunner.service;
+
+import com.cr.coderunner.model.CodeExecution;
+import com.cr.coderunner.model.OutputFeed;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+
+/** Streams a running execution to a client as server-sent events:
+ * "stdout"/"stderr" chunks while it runs, "dropped" (characters skipped because the client fell behind),
+ * then one "result" event with the final RunResult.
+ */
+@Service
+public class ExecutionStreams {
+    private final CodeExecutionService executionService;
+    private final int bufferChunks;
+    private final long timeoutMillis;
+
+    public ExecutionStreams(CodeExecutionService executionService,
+                            @Value("${coderunner.stream.buffer-chunks:256}") int bufferChunks,
+                            @Value("${coderunner.stream.timeout-ms:180000}") long timeoutMillis) {
+        this.executionService = executionService;
+        this.bufferChunks = bufferChunks;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public SseEmitter open(String executionId) {
+        SseEmitter emitter = new SseEmitter(timeoutMillis);
+        CodeExecution execution = executionService.peekExecution(executionId);
+        Thread.ofVirtual().name("stream-" + executionId).start(() -> pump(emitter, executionId, execution));
+        return emitter;
+    }
+
+    //Forwards chunks until the execution finishes; a slow client only blocks this thread, never the capture
+    private void pump(SseEmitter emitter, String executionId, CodeExecution execution) {
+        try {
+            if (execution == null) {
+                //Already finished, unknown, or running on a worker node (coderunner.role=api): only the final result is available
+                emitter.send(SseEmitter.event().name("result").data(executionService.resultOf(executionId).get()));
+                emitter.complete();
+                return;
+            }
+
+            OutputFeed.Subscription subscription = execution.feed.subscribe(bufferChunks);
+            emitter.onCompletion(subscription::cancel);
+            emitter.onTimeout(subscription::cancel);
+            try {
+                while (!subscription.isDrained()) {
+                    OutputFeed.Chunk chunk = subscription.poll(250);
+                    sendDropped(emitter, subscription);
+                    if (chunk != null) {
+                        emitter.send(SseEmitter.event().name(chunk.stream()).data(chunk.text()));
+                    }
+                }
+                sendDropped(emitter, subscription);
+            } finally {
+                subscription.cancel();
+            }
+
+            //From the result store when there is one (e.g. a batch item, whose runs happen elsewhere)
+            emitter.send(SseEmitter.event().name("result").data(executionService.checkExecution(executionId)));
+            emitter.complete();
+        } catch (IOException e) {
+            //Client disconnected; nothing left to send to
+            emitter.completeWithError(e);
+        } catch (InterruptedException e) {
+            emitter.complete();
+        } catch (ExecutionException e) {
+            emitter.completeWithError(e.getCause());
+        }
+    }
+
+    private static void sendDropped(SseEmitter emitter, OutputFeed.Subscription subscription) throws IOException {
+        long dropped = subscription.takeDropped();
+        if (dropped > 0) {
+            emitter.send(SseEmitter.event().name("dropped").data(dropped));
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package com.cr.coderunner.service;
+
+import com.cr.coderunner.controller.IDEController;
+import com.cr.coderunner.model.CodeSubmission;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/** JobQueue on a directory every node can reach (a local disk for one box, a shared volume for several).
+ * A job is one file in jobs/, named so that sorting by name is FIFO; a worker claims it by renaming it into
+ * claimed/{worker}/, which only one worker can win. Workers report to workers/{worker}; when one stops
+ * reporting, the next heartbeat from any other worker moves its claimed jobs back into jobs/.
+ */
+@Service
+public class FileJobQueue implements JobQueue {
+    //How often poll() looks for new files while waiting
+    private static final long POLL_INTERVAL_MS = 50;
+
+    private final Path jobs;
+    private final Path claimed;
+    private final Path workers;
+    private final Path incoming;
+    private final int capacity;
+    private final long workerTimeoutMillis;
+    private final AtomicLong sequence;
+    //Files this node has claimed, by job id, until acked
+    private final Map<String, Path> claims;
+
+    public FileJobQueue(MeterRegistry registry,
+                        @Value("${coderunner.queue.dir:.queue}") String dir,
+                        @Value("${coderunner.queue.capacity:1000}") int capacity,
+                        @Value("${coderunner.queue.worker-timeout-ms:15000}") long workerTimeoutMillis) {
+        Path root = Path.of(dir).toAbsolutePath();
+        this.jobs = root.resolve("jobs");
+        this.claimed = root.resolve("claimed");
+        this.workers = root.resolve("workers");
+        this.incoming = root.resolve("incoming");
+        this.capacity = capacity;
+        this.workerTimeoutMillis = workerTimeoutMillis;
+        this.sequence = new AtomicLong();
+        this.claims = new ConcurrentHashMap<>();
+
+        Gauge.builder("coderunner.queue.depth", this, FileJobQueue::depth)
+                .description("Jobs waiting in the shared queue")
+                .register(registry);
+    }
+
+    @Override
+    public void offer(Job job) {
+        if (depth() >= capacity) {
+            throw new QueueFullException("Execution queue is full.", retryAfterSeconds());
+        }
+        //Millis first so names sort in arrival order across nodes; the sequence breaks ties within one
+        String name = String.format("%013d-%06d-%s", job.enqueuedAtMillis(), sequence.getAndIncrement() % 1_000_000, job.id());
+        try {
+            Files.createDirectories(incoming);
+            Files.createDirectories(jobs);
+            //Written aside, then renamed in, so a worker never sees half a job
+            Path file = incoming.resolve(name);
+            Files.write(file, encode(job));
+            Files.move(file, jobs.resolve(name), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not queue job " + job.id(), e);
+        }
+    }
+
+    @Override
+    public Job poll(String workerId, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        Path mine = claimed.resolve(workerId);
+        do {
+            for (Path file : pending()) {
+                Path target = mine.resolve(file.getFileName());
+                try {
+                    Files.createDirectories(mine);
+                    Files.move(file, target, StandardCopyOption.ATOMIC_MOVE);
+                } catch (NoSuchFileException | FileAlreadyExistsException e) {
+                    //Another worker claimed it first
+                    continue;
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Could not claim " + file, e);
+                }
+                try {
+                    Job job = decode(Files.readAllBytes(target));
+                    claims.put(job.id(), target);
+                    return job;
+                } catch (IOException e) {
+                    IDEController.logText("Dropping unreadable job " + file.getFileName());
+                    deleteQuietly(target);
+                }
+            }
+            Thread.sleep(POLL_INTERVAL_MS);
+        } while (System.currentTimeMillis() < deadline);
+        return null;
+    }
+
+    @Override
+    public void ack(String workerId, Job job) {
+        Path file = claims.remove(job.id());
+        if (file != null) deleteQuietly(file);
+    }
+
+    @Override
+    public void release(String workerId, Job job) {
+        Path file = claims.remove(job.id());
+        if (file == null) return;
+        try {
+            //Same name, so it sorts back in ahead of anything newer
+            Files.move(file, jobs.resolve(file.getFileName()), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not requeue " + file, e);
+        }
+    }
+
+    @Override
+    public int depth() {
+        if (!Files.isDirectory(jobs)) return 0;
+        try (Stream<Path> files = Files.list(jobs)) {
+            return (int) files.count();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    @Override
+    public void heartbeat(WorkerStatus status) {
+        try {
+            Files.createDirectories(workers);
+            Files.createDirectories(incoming);
+            Path file = incoming.resolve("worker-" + status.workerId());
+            Files.writeString(file, status.capacity() + " " + status.busy());
+            Files.move(file, workers.resolve(status.workerId()), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            IDEController.logText("Could not report worker " + status.workerId() + ": " + e.getMessage());
+        }
+        requeueAbandoned(status.workerId());
+    }
+
+    @Override
+    public List<WorkerStatus> workers() {
+        List<WorkerStatus> live = new ArrayList<>();
+        if (!Files.isDirectory(workers)) return live;
+        long now = System.currentTimeMillis();
+        try (Stream<Path> files = Files.list(workers)) {
+            for (Path file : files.toList()) {
+                try {
+                    long seen = Files.getLastModifiedTime(file).toMillis();
+                    String[] parts = Files.readString(file).trim().split(" ");
+                    if (now - seen <= workerTimeoutMillis && parts.length == 2) {
+                        live.add(new WorkerStatus(file.getFileName().toString(), Integer.parseInt(parts[0]), Integer.parseInt(parts[1]), seen));
+                    }
+                } catch (IOException | NumberFormatException e) {
+                    //Being replaced or removed right now
+                }
+            }
+        } catch (IOException e) {
+            return live;
+        }
+        return live;
+    }
+
+    //Rough time until a new job would start: the queue spread over the live workers' sandboxes
+    private long retryAfterSeconds() {
+        int sandboxes = workers().stream().mapToInt(WorkerStatus::capacity).sum();
+        return Math.max(1, depth() / Math.max(1, sandboxes));
+    }
+
+    //Queued job files, oldest first
+    private List<Path> pending() {
+        if (!Files.isDirectory(jobs)) return List.of();
+        try (Stream<Path> files = Files.list(jobs)) {
+            return files.sorted().toList();
+        } catch (IOException e) {
+            return List.of();
+        }
+    }
+
+    //Puts jobs claimed by workers that stopped reporting back at the front of the queue
+    private void requeueAbandoned(String self) {
+        if (!Files.isDirectory(claimed)) return;
+        long now = System.currentTimeMillis();
+        try (Stream<Path> dirs = Files.list(claimed)) {
+            for (Path dir : dirs.toList()) {
+                String workerId = dir.getFileName().toString();
+                Path report = workers.resolve(workerId);
+                if (workerId.equals(self) || (Files.exists(report) && now - Files.getLastModifiedTime(report).toMillis() <= workerTimeoutMillis)) {
+                    continue;
+                }
+                try (Stream<Path> files = Files.list(dir)) {
+                    for (Path file : files.toList()) {
+                        //Same name, so it sorts back in ahead of anything newer
+                        Files.move(file, jobs.resolve(file.getFileName()), StandardCopyOption.ATOMIC_MOVE);
+                    }
+                }
+                IDEController.logText("Requeued jobs of unresponsive worker " + workerId);
+                deleteQuietly(dir);
+                deleteQuietly(report);
+            }
+        } catch (IOException e) {
+            //Another worker is requeueing the same jobs; whoever loses the rename moves on
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            //Not empty yet or already gone; the next heartbeat tries again
+        }
+    }
+
+    private static byte[] encode(Job job) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        CodeSubmission submission = job.submission();
+        writeString(out, job.id());
+        writeString(out, job.tenant());
+        out.writeUTF(job.source().name());
+        out.writeLong(job.enqueuedAtMillis());
+        writeString(out, submission.code);
+        writeString(out, submission.language);
+        writeString(out, submission.problemName);
+        writeString(out, submission.input);
+        out.writeBoolean(submission.nondeterministic);
+        out.writeLong(submission.deadlineMillis);
+        out.writeInt(job.group().size());
+        for (GroupItem item : job.group()) {
+            writeString(out, item.id());
+            writeString(out, item.input());
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static Job decode(byte[] bytes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        String id = readString(in);
+        String tenant = readString(in);
+        ExecutionScheduler.Source source;
+        try {
+            source = ExecutionScheduler.Source.valueOf(in.readUTF());
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Unknown job source", e);
+        }
+        long enqueuedAtMillis = in.readLong();
+        CodeSubmission submission;
+        try {
+            submission = new CodeSubmission(readString(in), readString(in), readString(in), readString(in));
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Incomplete submission", e);
+        }
+        submission.nondeterministic = in.readBoolean();
+        submission.deadlineMillis = in.readLong();
+        //Jobs queued before groups existed end here
+        int count = in.available() > 0 ? in.readInt() : 0;
+        List<GroupItem> group = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            group.add(new GroupItem(readString(in), readString(in)));
+        }
+        return new Job(id, submission, tenant, source, enqueuedAtMillis, group);
+    }
+
+    //Strings as int length + UTF-8 bytes, -1 for null (like the worker protocol)
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        return length < 0 ? null : new String(in.readNBytes(length), StandardCharsets.UTF_8);
+    }
+}
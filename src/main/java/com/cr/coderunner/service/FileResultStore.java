@@ -0,0 +1,144 @@
+package com.cr.coderunner.service;
+
+import com.cr.coderunner.dto.RunResult;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/** ResultStore next to the FileJobQueue: one file per execution in results/, replaced atomically,
+ * so readers on any node see either the RUNNING marker or the whole FINISHED result.
+ */
+@Service
+public class FileResultStore implements ResultStore {
+    //Execution ids are UUIDs; anything else (e.g. a path) is never looked up on disk
+    private static final Pattern executionId = Pattern.compile("[0-9a-fA-F-]{36}");
+
+    private final Path results;
+    private final Path incoming;
+    private final long ttlMillis;
+
+    public FileResultStore(@Value("${coderunner.queue.dir:.queue}") String dir,
+                           @Value("${coderunner.results.ttl-seconds:300}") long ttlSeconds) {
+        Path root = Path.of(dir).toAbsolutePath();
+        this.results = root.resolve("results");
+        this.incoming = root.resolve("incoming");
+        this.ttlMillis = ttlSeconds * 1000;
+    }
+
+    @Override
+    public void put(String id, RunResult result) {
+        if (!executionId.matcher(id).matches()) {
+            throw new IllegalArgumentException("Not an execution id: " + id);
+        }
+        try {
+            Files.createDirectories(results);
+            Files.createDirectories(incoming);
+            Path file = incoming.resolve("result-" + id);
+            Files.write(file, encode(result));
+            Files.move(file, results.resolve(id), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not store result " + id, e);
+        }
+    }
+
+    @Override
+    public RunResult get(String id) {
+        if (!executionId.matcher(id).matches()) return null;
+        try {
+            return decode(Files.readAllBytes(results.resolve(id)));
+        } catch (IOException e) {
+            //Never stored, or removed by another reader
+            return null;
+        }
+    }
+
+    @Override
+    public void remove(String id) {
+        if (!executionId.matcher(id).matches()) return;
+        try {
+            Files.deleteIfExists(results.resolve(id));
+        } catch (IOException e) {
+            //Left for evictExpired
+        }
+    }
+
+    @Override
+    public void evictExpired() {
+        if (!Files.isDirectory(results)) return;
+        long cutoff = System.currentTimeMillis() - ttlMillis;
+        try (Stream<Path> files = Files.list(results)) {
+            for (Path file : files.toList()) {
+                try {
+                    if (Files.getLastModifiedTime(file).toMillis() < cutoff) Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    //Removed by another node meanwhile
+                }
+            }
+        } catch (IOException e) {
+            //Try again next round
+        }
+    }
+
+    private static byte[] encode(RunResult result) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        FileJobQueue.writeString(out, result.status);
+        out.writeBoolean(result.success);
+        out.writeDouble(result.runtime);
+        FileJobQueue.writeString(out, result.output);
+        FileJobQueue.writeString(out, result.error);
+        FileJobQueue.writeString(out, result.exitStatus);
+        out.writeInt(result.exitCode);
+        out.writeBoolean(result.outputLimitExceeded);
+        out.writeBoolean(result.errorLimitExceeded);
+        out.writeBoolean(result.memoryLimitExceeded);
+        out.writeBoolean(result.timeLimitExceeded);
+        out.writeLong(result.memoryPeakBytes);
+        out.writeLong(result.pidsPeak);
+        for (double ms : new double[] {result.queueWaitMs, result.setupMs, result.containerStartMs, result.compileMs,
+                result.programWallMs, result.programCpuMs, result.teardownMs}) {
+            out.writeDouble(ms);
+        }
+        FileJobQueue.writeString(out, result.backend);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static RunResult decode(byte[] bytes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        String status = FileJobQueue.readString(in);
+        boolean success = in.readBoolean();
+        double runtime = in.readDouble();
+        String output = FileJobQueue.readString(in);
+        String error = FileJobQueue.readString(in);
+        String exitStatus = FileJobQueue.readString(in);
+        RunResult result = new RunResult(success, runtime, output, error, exitStatus, status);
+        result.exitCode = in.readInt();
+        result.outputLimitExceeded = in.readBoolean();
+        result.errorLimitExceeded = in.readBoolean();
+        result.memoryLimitExceeded = in.readBoolean();
+        result.timeLimitExceeded = in.readBoolean();
+        result.memoryPeakBytes = in.readLong();
+        result.pidsPeak = in.readLong();
+        result.queueWaitMs = in.readDouble();
+        result.setupMs = in.readDouble();
+        result.containerStartMs = in.readDouble();
+        result.compileMs = in.readDouble();
+        result.programWallMs = in.readDouble();
+        result.programCpuMs = in.readDouble();
+        result.teardownMs = in.readDouble();
+        result.backend = FileJobQueue.readString(in);
+        return result;
+    }
+}
@@ -0,0 +1,56 @@
+package com.cr.coderunner.service;
+
+import com.cr.coderunner.model.CodeSubmission;
+
+import java.util.List;
+
+/** Queue between API nodes (coderunner.role=api), which accept submissions, and worker nodes (coderunner.role=worker),
+ * which pull jobs when they have a free sandbox. Workers also advertise their capacity here.
+ */
+public interface JobQueue {
+    /**
+     * @param id execution id the client polls with; the result is published under it (see ResultStore)
+     * @param enqueuedAtMillis wall clock at submission, so a worker can tell how much of the deadline is left
+     * @param group for a batch chunk, the runs that share the submission's code, each published under its own id;
+     *              empty for a single run. The worker compiles once and runs every input in one sandbox.
+     */
+    record Job(String id, CodeSubmission submission, String tenant, ExecutionScheduler.Source source, long enqueuedAtMillis,
+               List<GroupItem> group) {
+        public Job(String id, CodeSubmission submission, String tenant, ExecutionScheduler.Source source, long enqueuedAtMillis) {
+            this(id, submission, tenant, source, enqueuedAtMillis, List.of());
+        }
+    }
+
+    record GroupItem(String id, String input) {}
+
+    /**
+     * @param capacity sandboxes the worker runs at once
+     * @param busy sandboxes in use plus jobs waiting in its local scheduler
+     * @param seenAtMillis when it last reported
+     */
+    record WorkerStatus(String workerId, int capacity, int busy, long seenAtMillis) {}
+
+    /** Adds a job at the back of the queue
+     * @throws QueueFullException if the queue is at capacity
+     */
+    void offer(Job job);
+
+    /** Claims the oldest job for a worker, waiting up to timeoutMillis for one to arrive
+     * @return the job, or null if none arrived; it stays claimed by the worker until acked
+     */
+    Job poll(String workerId, long timeoutMillis) throws InterruptedException;
+
+    //Forgets a claimed job once its result is stored
+    void ack(String workerId, Job job);
+
+    //Puts a claimed job the worker can't run after all back at the front of the queue
+    void release(String workerId, Job job);
+
+    int depth();
+
+    //Records a worker's capacity; workers that stop reporting have their claimed jobs put back in the queue
+    void heartbeat(WorkerStatus status);
+
+    //Workers that reported recently
+    List<WorkerStatus> workers();
+}
@@ -0,0 +1,32 @@
+package com.cr.coderunner.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+
+/** In-JVM backend for Java: long-lived worker JVMs (runners/java/JavaWorker.java) compile submissions in memory
+ * and run them in throwaway classloaders, so a run skips JVM startup and cold JIT.
+ * Selected with coderunner.backend.java=jvm. A worker is replaced after a limit kill, System.exit, leftover threads or processes.
+ * Submissions share the worker JVM and its protocol stream, so a program can forge its own result or read cached builds:
+ * like the local backend, use it for trusted code only. By default every worker serves one run and is replaced in the
+ * background, so the next run still finds a started, idle JVM.
+ */
+@Service
+public class JvmWorkerPool extends WorkerPool {
+    public JvmWorkerPool(MeterRegistry registry, RunnerImages runnerImages, SandboxLimits limits,
+                         @Value("${coderunner.backend.java:docker}") String javaBackend,
+                         @Value("${coderunner.jvm-workers.size:2}") int size,
+                         @Value("${coderunner.jvm-workers.recycle-after:1}") int recycleAfter,
+                         @Value("${coderunner.jvm-workers.command:}") String command) {
+        //Submissions share the worker JVM (and its container) with each other, one at a time
+        super(registry, runnerImages, limits, "java", "jvm", new Capabilities(true, true, false, false, false), javaBackend.equalsIgnoreCase("jvm"), size, recycleAfter, command);
+    }
+
+    @Override
+    protected List<String> workerCommand() {
+        //Size the heap from the container's memory limit; SerialGC keeps an idle worker small
+        return List.of("java", "-XX:MaxRAMPercentage=75", "-XX:+UseSerialGC", "-cp", "/opt/coderunner", "JavaWorker");
+    }
+}
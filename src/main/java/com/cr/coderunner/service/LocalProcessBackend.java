@@ -0,0 +1,349 @@
+package com.cr.coderunner.service;
+
+import com.cr.coderunner.controller.IDEController;
+import com.cr.coderunner.model.CodeExecution;
+import com.cr.coderunner.model.CodeSubmission;
+import com.cr.coderunner.model.OutputCapture;
+import com.cr.coderunner.model.OutputFeed;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/** Runs the compiler and program as plain host processes, under the same timed shell line as a container,
+ * so a run costs a fork instead of a container start. Linux only; the host needs gcc, javac and python3.
+ * There is no container around the code: use it for trusted code (development, benchmarks, self-hosted judges),
+ * or set coderunner.local.wrapper to a namespace sandbox such as bwrap or unshare.
+ */
+@Service
+public class LocalProcessBackend implements ExecutionBackend {
+    private final CompileCache compileCache;
+    private final ContainerReaper reaper;
+    private final SandboxLimits limits;
+    private final Set<String> languages;
+    //Prefix for every command, e.g. "unshare --user --map-root-user --net --pid --fork"; empty runs sh directly
+    private final List<String> wrapper;
+    private final Capabilities capabilities;
+    //Host compiler identity per language, asked once; "" if it couldn't be found out
+    private final Map<String, String> toolchains;
+
+    public LocalProcessBackend(CompileCache compileCache, ContainerReaper reaper, SandboxLimits limits,
+                               @Value("${coderunner.local.languages:c,java,python}") String languages,
+                               @Value("${coderunner.local.wrapper:}") String wrapper) {
+        this.compileCache = compileCache;
+        this.reaper = reaper;
+        this.limits = limits;
+        this.languages = Arrays.stream(languages.split(",")).map(String::trim).filter(s -> !s.isEmpty()).collect(Collectors.toSet());
+        this.wrapper = wrapper.isBlank() ? List.of() : Arrays.asList(wrapper.trim().split("\\s+"));
+        //ulimit -v only guards against runaway allocation; there's no cgroup to cap or measure resident memory
+        this.capabilities = new Capabilities(false, true, false, true, !this.wrapper.isEmpty());
+        this.toolchains = new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public String name() {
+        return "local";
+    }
+
+    @Override
+    public Capabilities capabilities() {
+        return capabilities;
+    }
+
+    @Override
+    public boolean handles(String language) {
+        if (!languages.contains(language)) return false;
+        return switch (language) {
+            case "c" -> onPath("gcc");
+            case "java" -> onPath("javac") && onPath("java");
+            case "python" -> onPath("python3");
+            default -> false;
+        };
+    }
+
+    @Override
+    public void run(CodeExecution exec) {
+        CodeSubmission submission = exec.codeSubmission;
+        String language = submission.language;
+        String extension = submission.getExtensionByLang(language);
+        if (extension == null) {
+            exec.exitStatus += language + " is not a supported language in CodeRunner. SUPPORTED: python, java, c\n";
+            exec.failed = true;
+            exec.close("");
+            return;
+        }
+
+        long setupStart = System.nanoTime();
+        File execDir = runRoot();
+        File dirFile, codeFile, inputFile;
+        try {
+            dirFile = Files.createTempDirectory(execDir.toPath(), "run").toFile();
+            codeFile = submission.createCodeFile(dirFile.toPath(), extension);
+            inputFile = Files.createTempFile(dirFile.toPath(), "input-", ".txt").toFile();
+            Files.writeString(codeFile.toPath(), submission.code, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            Files.writeString(inputFile.toPath(), submission.input, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        } catch (IOException e) {
+            exec.close("could not write to code file.");
+            return;
+        }
+
+        //Paths are relative to .test, just as a container's are to /
+        String sandbox = dirFile.getName();
+        String cacheKey = submission.getCompileCacheKey(compileCache, toolchain(language));
+        boolean compiled = cacheKey != null && compileCache.restore(cacheKey, dirFile);
+        String compileShell = compiled ? null : submission.getCompileShell(language, sandbox, codeFile);
+        long built = System.nanoTime();
+        exec.setupMs = (built - setupStart) / 1e6;
+        exec.containerStartMs = 0;
+
+        //A build that will be cached is compiled first, so it's stored before the program can touch it
+        if (compileShell != null && cacheKey != null) {
+            CodeExecution compile = new CodeExecution(submission);
+            compile.exitStatus = "";
+            compile.timeLimits = exec.timeLimits;
+            compile.outputLimitBytes = exec.outputLimitBytes;
+            compile(execDir, dirFile, submission, compileShell, compile, cacheKey);
+            exec.compileMs = compile.runtime * 1000;
+            if (compile.exitCode != 0) {
+                exec.compileFailed(compile);
+                reaper.deleteDir(dirFile);
+                exec.close("");
+                return;
+            }
+            compileShell = null;
+            built = System.nanoTime();
+        }
+        String shell = TimedShell.wrap(sandbox + "/" + TimedShell.TIMING_FILE, compileShell,
+                submission.getRunShell(language, sandbox, codeFile, inputFile), exec.timeLimits, false, ulimits(language));
+
+        runShell(execDir, shell, exec, exec.timeLimits.hostWaitMs(), exec.feed);
+
+        //Fork and shell overhead beyond the marks is too small to report separately; the program's own span is the runtime
+        long ran = System.nanoTime();
+        double compiledAhead = exec.compileMs;
+        TimedShell.readTimings(TimedShell.readTimingFile(dirFile, TimedShell.TIMING_FILE), exec, compileShell != null);
+        if (compileShell == null && compiledAhead >= 0) exec.compileMs = compiledAhead;
+        exec.runtime = exec.programWallMs >= 0 ? exec.programWallMs / 1000 : (ran - built) / 1e9;
+
+        reaper.deleteDir(dirFile);
+        exec.close("");
+        exec.teardownMs = (System.nanoTime() - ran) / 1e6;
+    }
+
+    //Compiles once, then runs each input as its own process
+    @Override
+    public CodeExecution[] runAll(CodeSubmission submission, String[] inputs, SandboxLimits.TimeLimits[] caseLimits, CaseListener listener) {
+        String language = submission.language;
+        SandboxLimits.TimeLimits defaults = limits.timeLimits(language);
+        CodeExecution[] executions = CodeExecution.forCases(submission, inputs.length, caseLimits, defaults, limits.outputLimitBytes(), name());
+        String extension = submission.getExtensionByLang(language);
+        if (extension == null) {
+            return closeAll(executions, null, language + " is not a supported language in CodeRunner. SUPPORTED: python, java, c\n");
+        }
+
+        long setupStart = System.nanoTime();
+        File execDir = runRoot();
+        File dirFile, codeFile;
+        File[] inputFiles = new File[inputs.length];
+        try {
+            dirFile = Files.createTempDirectory(execDir.toPath(), "run").toFile();
+            codeFile = submission.createCodeFile(dirFile.toPath(), extension);
+            Files.writeString(codeFile.toPath(), submission.code, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            for (int i = 0; i < inputs.length; i++) {
+                inputFiles[i] = Files.createTempFile(dirFile.toPath(), "input-" + i + "-", ".txt").toFile();
+                Files.writeString(inputFiles[i].toPath(), inputs[i], StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            }
+        } catch (IOException e) {
+            return closeAll(executions, null, "could not write to code file.");
+        }
+        String sandbox = dirFile.getName();
+        double setupMs = (System.nanoTime() - setupStart) / 1e6;
+        for (CodeExecution exec : executions) {
+            exec.setupMs = setupMs;
+            exec.containerStartMs = 0;
+            exec.compileMs = 0;
+        }
+
+        String cacheKey = submission.getCompileCacheKey(compileCache, toolchain(language));
+        boolean compiled = cacheKey != null && compileCache.restore(cacheKey, dirFile);
+        String compileShell = compiled ? null : submission.getCompileShell(language, sandbox, codeFile);
+        CodeExecution compile = null;
+        if (compileShell != null) {
+            compile = new CodeExecution(submission);
+            compile.exitStatus = "";
+            compile.timeLimits = executions.length > 0 ? executions[0].timeLimits : defaults;
+            compile.outputLimitBytes = limits.outputLimitBytes();
+            compile(execDir, dirFile, submission, compileShell, compile, cacheKey);
+            for (CodeExecution exec : executions) {
+                exec.compileMs = compile.runtime * 1000;
+            }
+        }
+
+        if (compile != null && compile.exitCode != 0) {
+            //Every case shares the compiler's diagnostics
+            for (CodeExecution exec : executions) {
+                exec.compileFailed(compile);
+            }
+        } else {
+            for (int i = 0; i < inputs.length; i++) {
+                String timingFile = TimedShell.TIMING_FILE + "-" + i;
+                SandboxLimits.TimeLimits timeLimits = executions[i].timeLimits;
+                String shell = TimedShell.wrap(sandbox + "/" + timingFile, null, submission.getRunShell(language, sandbox, codeFile, inputFiles[i]),
+                        timeLimits, false, ulimits(language));
+                executions[i].comparator = listener.comparator(i);
+                runShell(execDir, shell, executions[i], timeLimits.wallMs() + timeLimits.graceMs(), null);
+                //The case's marks have no compile step; keep the shared compile time
+                double compileMs = executions[i].compileMs;
+                if (TimedShell.readTimings(TimedShell.readTimingFile(dirFile, timingFile), executions[i], false) >= 0) {
+                    executions[i].runtime = executions[i].programWallMs / 1000;
+                }
+                executions[i].compileMs = compileMs;
+                if (!listener.caseFinished(i, executions[i])) {
+                    CodeExecution.skip(executions, i + 1);
+                    break;
+                }
+            }
+        }
+
+        long ran = System.nanoTime();
+        closeAll(executions, dirFile, "");
+        for (CodeExecution exec : executions) {
+            exec.teardownMs = (System.nanoTime() - ran) / 1e6;
+        }
+        return executions;
+    }
+
+    private CodeExecution[] closeAll(CodeExecution[] executions, File dirFile, String status) {
+        if (dirFile != null) {
+            reaper.deleteDir(dirFile);
+        }
+        for (CodeExecution exec : executions) {
+            exec.close(status);
+        }
+        return executions;
+    }
+
+    /** Runs one shell line from execDir, capturing its output into exec; the whole process tree is killed
+     * at an output cap or after waitMs (the shell's own timeouts should have stopped it already).
+     */
+    private void runShell(File execDir, String shell, CodeExecution exec, long waitMs, OutputFeed feed) {
+        List<String> command = new ArrayList<>(wrapper);
+        command.addAll(List.of("sh", "-c", shell));
+        ProcessBuilder builder = new ProcessBuilder(command).directory(execDir);
+        Process process;
+        long start = System.nanoTime();
+        try {
+            process = builder.start();
+        } catch (IOException e) {
+            exec.exitStatus += "could not start program.";
+            exec.setOutput("", "", false, false);
+            return;
+        }
+        //Drop stdin right away so a program reading it sees EOF rather than blocking (input comes from a file)
+        try {
+            process.getOutputStream().close();
+        } catch (IOException e) {
+            //Already exited
+        }
+
+        OutputCapture[] captures = OutputCapture.forProcess(process, exec.outputLimitBytes, feed, () -> killTree(process), exec.comparator);
+
+        boolean finished;
+        try {
+            finished = process.waitFor(waitMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            finished = false;
+            exec.exitStatus += "Failed to poll program\n";
+        }
+        exec.runtime = (System.nanoTime() - start) / 1e9;
+
+        if (!finished) {
+            exec.exitStatus += "Time Limit Exceeded.\n";
+            exec.timeLimitExceeded = true;
+            killTree(process);
+        } else {
+            exec.exitCode = process.exitValue();
+            //Anything the program left running in the background would otherwise hold its output open
+            process.descendants().forEach(ProcessHandle::destroyForcibly);
+        }
+        exec.finishOutput(captures);
+    }
+
+    //Compiles as a step of its own and caches the build as soon as it succeeds, before any program runs in its directory
+    private void compile(File execDir, File dirFile, CodeSubmission submission, String compileShell, CodeExecution compile, String cacheKey) {
+        long compileLimitMs = compile.timeLimits.compileWallMs();
+        runShell(execDir, TimedShell.withTimeout(compileShell, compileLimitMs), compile, compileLimitMs + compile.timeLimits.graceMs(), null);
+        compile.timeLimitExceeded |= compile.exitCode != 0 && compile.runtime * 1000 >= compileLimitMs;
+        if (cacheKey != null && compile.exitCode == 0) {
+            compileCache.store(cacheKey, new File(dirFile, submission.getArtifactName(submission.language)));
+        }
+    }
+
+    //Host builds are only reused with the compiler (version and target, e.g. x86_64-linux-gnu) they were made with,
+    //never mixed with builds from the runner images
+    private String toolchain(String language) {
+        String version = toolchains.computeIfAbsent(language, LocalProcessBackend::compilerVersion);
+        return version.isEmpty() ? null : name() + " " + version;
+    }
+
+    private static String compilerVersion(String language) {
+        String shell = switch (language) {
+            case "c" -> "gcc -dumpmachine && gcc -dumpfullversion -dumpversion";
+            case "java" -> "javac -version";
+            default -> null;
+        };
+        if (shell == null) return "";
+        try {
+            Process process = new ProcessBuilder("sh", "-c", shell).redirectErrorStream(true).start();
+            process.getOutputStream().close();
+            String version = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8).trim();
+            return process.waitFor(30, TimeUnit.SECONDS) && process.exitValue() == 0 ? version : "";
+        } catch (IOException e) {
+            return "";
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return "";
+        }
+    }
+
+    private static void killTree(Process process) {
+        process.descendants().forEach(ProcessHandle::destroyForcibly);
+        process.destroyForcibly();
+    }
+
+    //Address-space cap for the program; skipped for Java, whose JVM reserves far more than it uses
+    private String ulimits(String language) {
+        SandboxLimits.Limits caps = limits.forLanguage(language);
+        if (caps == null || caps.memoryBytes() <= 0 || language.equals("java")) return "";
+        return "ulimit -v " + caps.memoryBytes() / 1024;
+    }
+
+    //Run directories share .test with container runs, so the reaper cleans up after both
+    private static File runRoot() {
+        File execDir = new File(new File(System.getProperty("user.dir")), ".test");
+        if (execDir.mkdir())
+            IDEController.logText("testing directory not detected; new directory created.");
+        return execDir;
+    }
+
+    private static boolean onPath(String tool) {
+        String path = System.getenv("PATH");
+        if (path == null) return false;
+        for (String dir : path.split(File.pathSeparator)) {
+            if (new File(dir, tool).canExecute()) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,33 @@
+package com.cr.coderunner.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+
+/** Zygote backend for Python: long-lived interpreters (runners/python/zygote.py) that have already imported the
+ * standard library and fork a fresh child per run, so a run skips container start, interpreter startup and imports.
+ * Children never share state: each forks from a zygote that has never run a submission. The zygote is a subreaper,
+ * so after a run it finds and kills every process the run left behind (setsid and double forks included) and asks
+ * to be replaced if there were any. Children run as an unprivileged uid in a read-only container; what they write to
+ * the temp directories is deleted after each run. A zygote that isn't root can't drop privileges, so it is replaced
+ * after every run instead.
+ * Selected with coderunner.backend.python=zygote.
+ */
+@Service
+public class PythonZygotePool extends WorkerPool {
+    public PythonZygotePool(MeterRegistry registry, RunnerImages runnerImages, SandboxLimits limits,
+                            @Value("${coderunner.backend.python:docker}") String pythonBackend,
+                            @Value("${coderunner.python-zygotes.size:2}") int size,
+                            @Value("${coderunner.python-zygotes.recycle-after:1000}") int recycleAfter,
+                            @Value("${coderunner.python-zygotes.command:}") String command) {
+        //Every run is a forked child with its own rlimits, process group and working directory, and nothing outlives it
+        super(registry, runnerImages, limits, "python", "zygote", new Capabilities(true, true, false, false, true), pythonBackend.equalsIgnoreCase("zygote"), size, recycleAfter, command);
+    }
+
+    @Override
+    protected List<String> workerCommand() {
+        return List.of("python3", "-u", "/opt/coderunner/zygote.py");
+    }
+}
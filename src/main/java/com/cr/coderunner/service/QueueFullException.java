@@ -0,0 +1,11 @@
+package com.cr.coderunner.service;
+
+//Thrown when the execution queue (or a tenant's share of it) is full; maps to HTTP 429
+public class QueueFullException extends RuntimeException {
+    public final long retryAfterSeconds;
+
+    public QueueFullException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+}
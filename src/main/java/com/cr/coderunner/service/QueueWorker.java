@@ -0,0 +1,91 @@
+package com.cr.coderunner.service;
+
+import com.cr.coderunner.controller.IDEController;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.UUID;
+
+/** On worker nodes (coderunner.role=worker), pulls jobs from the shared JobQueue and runs them here.
+ * It only takes a job when a sandbox is free, so the backlog stays in the shared queue where any worker can pick it up,
+ * and it reports this node's capacity so API nodes can tell clients how long to back off.
+ */
+@Service
+public class QueueWorker {
+    //How long to wait before looking again when every sandbox is busy
+    private static final long BUSY_WAIT_MS = 50;
+
+    private final JobQueue queue;
+    private final CodeExecutionService executionService;
+    private final SandboxCapacity sandboxes;
+    private final ExecutionScheduler scheduler;
+    private final boolean enabled;
+    private final long heartbeatMillis;
+    private final String workerId;
+    private Thread worker;
+
+    public QueueWorker(JobQueue queue, CodeExecutionService executionService, SandboxCapacity sandboxes, ExecutionScheduler scheduler,
+                       @Value("${coderunner.role:all}") String role,
+                       @Value("${coderunner.queue.heartbeat-ms:5000}") long heartbeatMillis) {
+        this.queue = queue;
+        this.executionService = executionService;
+        this.sandboxes = sandboxes;
+        this.scheduler = scheduler;
+        this.enabled = role.equalsIgnoreCase("worker");
+        this.heartbeatMillis = heartbeatMillis;
+        this.workerId = UUID.randomUUID().toString();
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) return;
+        IDEController.logText("Queue worker " + workerId + " started");
+        worker = Thread.ofVirtual().name("queue-worker").start(this::work);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (worker != null) worker.interrupt();
+    }
+
+    private void work() {
+        long lastHeartbeat = 0;
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                int busy = sandboxes.inUse() + scheduler.getDepth();
+                long now = System.currentTimeMillis();
+                if (now - lastHeartbeat >= heartbeatMillis) {
+                    queue.heartbeat(new JobQueue.WorkerStatus(workerId, sandboxes.total(), busy, now));
+                    lastHeartbeat = now;
+                }
+                if (busy >= sandboxes.total()) {
+                    Thread.sleep(BUSY_WAIT_MS);
+                    continue;
+                }
+                //Bounded by the heartbeat so an idle worker keeps reporting
+                JobQueue.Job job = queue.poll(workerId, heartbeatMillis);
+                if (job != null) {
+                    try {
+                        executionService.runJob(job, () -> queue.ack(workerId, job));
+                    } catch (QueueFullException e) {
+                        //Filled up since the check above; let this or another worker take it when there's room
+                        queue.release(workerId, job);
+                        Thread.sleep(BUSY_WAIT_MS);
+                    }
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                //Shared volume hiccup or a bad job; keep serving
+                IDEController.logText("Queue worker error: " + e.getMessage());
+                try {
+                    Thread.sleep(heartbeatMillis);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.cr.coderunner.service;
+
+import com.cr.coderunner.model.CodeExecution;
+import com.cr.coderunner.model.CodeSubmission;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Memoizes finished executions by (language, code, input) and coalesces identical in-flight runs,
+ * so repeated submissions of deterministic code only start one container.
+ */
+@Service
+public class ResultCache {
+    private static class Entry {
+        final CodeExecution execution;
+        final long expiresAt;
+
+        Entry(CodeExecution execution, long expiresAt) {
+            this.execution = execution;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final boolean enabled;
+    private final long ttlMillis;
+    private final int maxOutputChars;
+    private final MeterRegistry registry;
+
+    //Access-ordered LRU of finished results; guarded by itself
+    private final LinkedHashMap<String, Entry> finished;
+    //Executions currently queued or running, by key
+    private final ConcurrentHashMap<String, CodeExecution> inFlight;
+
+    public ResultCache(MeterRegistry registry,
+                       @Value("${coderunner.result-cache.enabled:true}") boolean enabled,
+                       @Value("${coderunner.result-cache.max-entries:200}") int maxEntries,
+                       @Value("${coderunner.result-cache.ttl-seconds:300}") long ttlSeconds,
+                       @Value("${coderunner.result-cache.max-output-chars:65536}") int maxOutputChars) {
+        this.registry = registry;
+        this.enabled = enabled;
+        this.ttlMillis = ttlSeconds * 1000;
+        this.maxOutputChars = maxOutputChars;
+        this.inFlight = new ConcurrentHashMap<>();
+        this.finished = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+
+        Gauge.builder("coderunner.result.cache.entries", finished, Map::size).register(registry);
+        registry.gaugeMapSize("coderunner.result.cache.inflight", Tags.empty(), inFlight);
+    }
+
+    /** Content hash of a submission, or null if it must not be memoized (disabled or nondeterministic) */
+    public String keyFor(CodeSubmission submission) {
+        if (!enabled || submission == null || !submission.isDeterministic()) return null;
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String part : new String[] {submission.language, submission.code, submission.input}) {
+                digest.update(part.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+
+    /** Returns a finished copy of a memoized result, or null on a miss */
+    public CodeExecution lookup(String key, CodeSubmission submission) {
+        Entry entry;
+        synchronized (finished) {
+            entry = finished.get(key);
+            if (entry != null && entry.expiresAt < System.currentTimeMillis()) {
+                finished.remove(key);
+                entry = null;
+            }
+        }
+        registry.counter("coderunner.result.cache.requests", "result", entry == null ? "miss" : "hit").increment();
+        return entry == null ? null : copyOf(entry.execution, submission);
+    }
+
+    /** Registers an execution as the one running for this key.
+     * @return the execution already running for the key (caller should share it), or null if this one now owns it
+     */
+    public CodeExecution joinInFlight(String key, CodeExecution execution) {
+        CodeExecution running = inFlight.putIfAbsent(key, execution);
+        if (running != null) {
+            registry.counter("coderunner.result.cache.coalesced").increment();
+        }
+        return running;
+    }
+
+    //Called by the owner once it finishes; memoizes the result if it reflects the program rather than the host
+    public void complete(String key, CodeExecution execution) {
+        if (isCacheable(execution)) {
+            synchronized (finished) {
+                finished.put(key, new Entry(execution, System.currentTimeMillis() + ttlMillis));
+            }
+        }
+        inFlight.remove(key, execution);
+    }
+
+    private boolean isCacheable(CodeExecution execution) {
+        //Timeouts, start failures and docker errors (125) depend on load, not on the code
+        return !execution.failed && !execution.timeLimitExceeded
+                && execution.exitCode >= 0 && execution.exitCode != 125
+                && execution.output != null && execution.output.length() <= maxOutputChars
+                && execution.error != null && execution.error.length() <= maxOutputChars;
+    }
+
+    private static CodeExecution copyOf(CodeExecution source, CodeSubmission submission) {
+        CodeExecution copy = new CodeExecution(submission);
+        copy.success = source.success;
+        copy.runtime = source.runtime;
+        copy.output = source.output;
+        copy.error = source.error;
+        copy.exitStatus = source.exitStatus;
+        copy.exitCode = source.exitCode;
+        copy.outputLimitExceeded = source.outputLimitExceeded;
+        copy.errorLimitExceeded = source.errorLimitExceeded;
+        copy.memoryLimitExceeded = source.memoryLimitExceeded;
+        copy.memoryPeakBytes = source.memoryPeakBytes;
+        copy.pidsPeak = source.pidsPeak;
+        //Program times describe the code, so they carry over; nothing was queued or set up for the copy
+        copy.compileMs = source.compileMs;
+        copy.programWallMs = source.programWallMs;
+        copy.programCpuMs = source.programCpuMs;
+        copy.backend = source.backend;
+        copy.queueWaitMs = copy.setupMs = copy.containerStartMs = copy.teardownMs = 0;
+        copy.finish();
+        return copy;
+    }
+}
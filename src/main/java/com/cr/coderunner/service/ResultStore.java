@@ -0,0 +1,49 @@
+package com.cr.coderunner.service;
+
+import com.cr.coderunner.dto.RunResult;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/** Results shared between nodes: the API node records a run as RUNNING when it queues it,
+ * the worker that ran it replaces that with the FINISHED result, and any API node can answer /check.
+ */
+public interface ResultStore {
+    /** Bytes read from a stored stream
+     * @param totalBytes size of the whole stream
+     */
+    record OutputRange(byte[] bytes, long totalBytes) {
+        //The part of a stream's bytes from offset, at most length long
+        public static OutputRange of(byte[] stream, long offset, int length) {
+            int from = (int) Math.min(Math.max(0, offset), stream.length);
+            return new OutputRange(Arrays.copyOfRange(stream, from, (int) Math.min(stream.length, (long) from + Math.max(0, length))), stream.length);
+        }
+    }
+
+    //Creates or replaces the result for an execution id
+    void put(String executionId, RunResult result);
+
+    //Result for an execution id, or null if unknown (never stored, removed or expired)
+    RunResult get(String executionId);
+
+    void remove(String executionId);
+
+    //Result without its output and error but with their sizes (see RunResult.statusOnly), or null if unknown
+    default RunResult getStatus(String executionId) {
+        RunResult result = get(executionId);
+        return result == null ? null : result.statusOnly();
+    }
+
+    /** Up to length bytes of a result's output (or error) starting at offset, as UTF-8
+     * @return null if the result is unknown
+     */
+    default OutputRange readOutput(String executionId, boolean error, long offset, int length) {
+        RunResult result = get(executionId);
+        if (result == null) return null;
+        String text = error ? result.error : result.output;
+        return OutputRange.of(text == null ? new byte[0] : text.getBytes(StandardCharsets.UTF_8), offset, length);
+    }
+
+    //Drops results that were last written before the TTL
+    void evictExpired();
+}
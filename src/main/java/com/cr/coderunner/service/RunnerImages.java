@@ -0,0 +1,102 @@
+package com.cr.coderunner.service;
+
+import com.cr.coderunner.controller.IDEController;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Builds and verifies the runner images (Dockerfiles under runners/) that have each toolchain baked in. */
+@Service
+public class RunnerImages {
+    //Bump the tag whenever a runner Dockerfile changes so stale local images get rebuilt (and RUNNER_TAG in docker-entrypoint.sh with it)
+    private static final String TAG = "7";
+    private static final Map<String, String> images = Map.of(
+            "c", "coderunner-c:" + TAG,
+            "python", "coderunner-python:" + TAG,
+            "java", "coderunner-java:" + TAG
+    );
+    //Cheap command that proves the toolchain inside an image works
+    private static final Map<String, String> verifyCommands = Map.of(
+            "c", "gcc --version",
+            "python", "python3 --version",
+            "java", "java -version"
+    );
+
+    //Image builds can take minutes on a cold machine
+    private static final long BUILD_TIMEOUT_SECS = 900;
+
+    private final File runnersDir;
+    private final Map<String, Boolean> verified;
+    //Content digest of each verified image, so caches can tell toolchain versions apart
+    private final Map<String, String> imageIds;
+    private final CompletableFuture<Boolean> startupCheck;
+
+    public RunnerImages(@Value("${coderunner.images.dir:runners}") String runnersDir) {
+        File dir = new File(runnersDir);
+        this.runnersDir = dir.isAbsolute() ? dir : new File(System.getProperty("user.dir"), runnersDir);
+        this.verified = new ConcurrentHashMap<>();
+        this.imageIds = new ConcurrentHashMap<>();
+        this.startupCheck = new CompletableFuture<>();
+    }
+
+    @PostConstruct
+    public void verifyAtStartup() {
+        //Building can be slow, so don't hold up the rest of the application
+        Thread check = new Thread(() -> startupCheck.complete(ensureImages(false)), "runner-image-check");
+        check.setDaemon(true);
+        check.start();
+    }
+
+    //Completes once the startup build/verify pass has finished (true if every image is usable)
+    public CompletableFuture<Boolean> startupCheck() {
+        return startupCheck;
+    }
+
+    public static String imageFor(String language) {
+        return images.get(language);
+    }
+
+    public static Map<String, String> getImages() {
+        return images;
+    }
+
+    //Image ID (sha256 digest) of the language's runner image, or null if it hasn't been verified
+    public String imageId(String language) {
+        return imageIds.get(language);
+    }
+
+    public boolean isVerified(String language) {
+        return verified.getOrDefault(language, false);
+    }
+
+    /** Builds any missing runner image and checks every toolchain runs.
+     * @param rebuild build even when an image with the current tag already exists
+     * @return true if every language's image is usable
+     */
+    public synchronized boolean ensureImages(boolean rebuild) {
+        boolean allReady = true;
+        for (String language : images.keySet()) {
+            String image = images.get(language);
+            boolean ready = !rebuild && DockerCli.run(60, "image", "inspect", image);
+            if (!ready) {
+                IDEController.logText("Building runner image " + image);
+                ready = DockerCli.run(BUILD_TIMEOUT_SECS, "build", "-t", image, new File(runnersDir, language).getAbsolutePath());
+            }
+            ready = ready && DockerCli.run(60, "run", "--rm", image, "sh", "-c", verifyCommands.get(language));
+
+            verified.put(language, ready);
+            String id = ready ? DockerCli.output(60, "image", "inspect", "--format", "{{.Id}}", image) : null;
+            if (id != null) imageIds.put(language, id);
+            if (!ready) {
+                IDEController.logText("Runner image " + image + " is unavailable; " + language + " runs will fail.");
+                allReady = false;
+            }
+        }
+        return allReady;
+    }
+}
@@ -0,0 +1,46 @@
+package com.cr.coderunner.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.Semaphore;
+
+/** Global limit on sandboxes running at once. Execution runs on cheap virtual threads,
+ * so this semaphore (not a thread count) is what bounds the load on Docker.
+ */
+@Service
+public class SandboxCapacity {
+    private final int total;
+    private final Semaphore permits;
+
+    public SandboxCapacity(MeterRegistry registry, @Value("${coderunner.sandbox.capacity:10}") int total) {
+        this.total = total;
+        this.permits = new Semaphore(total, true);
+
+        Gauge.builder("coderunner.sandbox.in.use", this, SandboxCapacity::inUse)
+                .description("Sandboxes currently running")
+                .register(registry);
+    }
+
+    public void acquire() throws InterruptedException {
+        permits.acquire();
+    }
+
+    public boolean tryAcquire() {
+        return permits.tryAcquire();
+    }
+
+    public void release() {
+        permits.release();
+    }
+
+    public int total() {
+        return total;
+    }
+
+    public int inUse() {
+        return total - permits.availablePermits();
+    }
+}
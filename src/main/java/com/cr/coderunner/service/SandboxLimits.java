@@ -0,0 +1,142 @@
+package com.cr.coderunner.service;
+
+import com.cr.coderunner.model.CodeExecution;
+import com.cr.coderunner.model.CodeSubmission;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Memory, CPU and process limits applied to every sandbox container, plus each language's default time limits.
+ * Each language can override the defaults with coderunner.limits.{language}.memory/cpus/pids/time-ms/cpu-time-ms/compile-time-ms.
+ */
+@Service
+public class SandboxLimits {
+    /**
+     * @param memoryBytes hard memory cap; swap is capped to the same value so going over means an OOM kill
+     * @param cpus fraction of CPUs the container may use
+     * @param pids maximum number of processes/threads
+     */
+    public record Limits(long memoryBytes, double cpus, long pids) {
+        //docker run / docker create flags
+        public List<String> dockerArgs() {
+            List<String> args = new ArrayList<>();
+            if (memoryBytes > 0) {
+                args.add("--memory=" + memoryBytes);
+                args.add("--memory-swap=" + memoryBytes);
+            }
+            if (cpus > 0) args.add("--cpus=" + cpus);
+            if (pids > 0) args.add("--pids-limit=" + pids);
+            return args;
+        }
+    }
+
+    /** Time budgets for one run, in ms. The sandbox kills the compiler or program at its limit.
+     * @param compileWallMs compiler wall clock
+     * @param wallMs program wall clock
+     * @param cpuMs program CPU time (killed by a whole-second ulimit, judged exactly from the measured time)
+     * @param graceMs extra time the host allows for container start and exec round trips before killing the sandbox itself
+     */
+    public record TimeLimits(long compileWallMs, long wallMs, long cpuMs, long graceMs) {
+        public static final TimeLimits DEFAULT = new TimeLimits(30_000, CodeSubmission.TIME_LIMIT_SECS * 1000L, CodeSubmission.TIME_LIMIT_SECS * 1000L, 5_000);
+
+        //Replaces the limits that are set (null or non-positive keeps the current one)
+        public TimeLimits withOverrides(Long compileWallMs, Long wallMs, Long cpuMs) {
+            return new TimeLimits(pick(compileWallMs, this.compileWallMs), pick(wallMs, this.wallMs), pick(cpuMs, this.cpuMs), graceMs);
+        }
+
+        //How long the host waits on a whole run (compile + program) before killing the sandbox itself
+        public long hostWaitMs() {
+            return compileWallMs + wallMs + graceMs;
+        }
+
+        private static long pick(Long override, long current) {
+            return override != null && override > 0 ? override : current;
+        }
+    }
+
+    private final Environment environment;
+    private final boolean enabled;
+    private final String memory;
+    private final double cpus;
+    private final long pids;
+    private final TimeLimits timeLimits;
+    private final int outputLimitBytes;
+    private final Map<String, Limits> byLanguage;
+    private final Map<String, TimeLimits> timesByLanguage;
+
+    public SandboxLimits(Environment environment,
+                         @Value("${coderunner.limits.enabled:true}") boolean enabled,
+                         @Value("${coderunner.limits.memory:256m}") String memory,
+                         @Value("${coderunner.limits.cpus:1.0}") double cpus,
+                         @Value("${coderunner.limits.pids:64}") long pids,
+                         @Value("${coderunner.limits.time-ms:10000}") long timeMs,
+                         @Value("${coderunner.limits.cpu-time-ms:10000}") long cpuTimeMs,
+                         @Value("${coderunner.limits.compile-time-ms:30000}") long compileTimeMs,
+                         @Value("${coderunner.limits.grace-ms:5000}") long graceMs) {
+        this.environment = environment;
+        this.enabled = enabled;
+        this.memory = memory;
+        this.cpus = cpus;
+        this.pids = pids;
+        this.timeLimits = new TimeLimits(compileTimeMs, timeMs, cpuTimeMs, graceMs);
+        this.outputLimitBytes = environment.getProperty("coderunner.output.limit-bytes", Integer.class, CodeExecution.DEFAULT_OUTPUT_LIMIT_BYTES);
+        this.byLanguage = new ConcurrentHashMap<>();
+        this.timesByLanguage = new ConcurrentHashMap<>();
+    }
+
+    //Limits for a language's containers, or null if limits are turned off
+    public Limits forLanguage(String language) {
+        if (!enabled || language == null) return null;
+        return byLanguage.computeIfAbsent(language, lang -> {
+            String prefix = "coderunner.limits." + lang + ".";
+            return new Limits(
+                    parseBytes(environment.getProperty(prefix + "memory", memory)),
+                    environment.getProperty(prefix + "cpus", Double.class, cpus),
+                    environment.getProperty(prefix + "pids", Long.class, pids));
+        });
+    }
+
+    //Most bytes of stdout (and of stderr) kept per run (coderunner.output.limit-bytes), judged cases included
+    public int outputLimitBytes() {
+        return outputLimitBytes;
+    }
+
+    //A language's default time limits; problems and test cases can override them. Always enforced, even with limits off
+    public TimeLimits timeLimits(String language) {
+        if (language == null) return timeLimits;
+        return timesByLanguage.computeIfAbsent(language, lang -> {
+            String prefix = "coderunner.limits." + lang + ".";
+            return timeLimits.withOverrides(
+                    environment.getProperty(prefix + "compile-time-ms", Long.class, null),
+                    environment.getProperty(prefix + "time-ms", Long.class, null),
+                    environment.getProperty(prefix + "cpu-time-ms", Long.class, null));
+        });
+    }
+
+    //Flags for docker run; empty if limits are turned off
+    public List<String> dockerArgs(String language) {
+        Limits limits = forLanguage(language);
+        return limits == null ? List.of() : limits.dockerArgs();
+    }
+
+    //Parses docker-style sizes: 512, 64k, 256m, 1g (0 or blank means unlimited)
+    public static long parseBytes(String size) {
+        if (size == null || size.isBlank()) return 0;
+        String value = size.trim().toLowerCase(Locale.ROOT);
+        if (value.endsWith("b")) value = value.substring(0, value.length() - 1);
+        long unit = switch (value.charAt(value.length() - 1)) {
+            case 'k' -> 1L << 10;
+            case 'm' -> 1L << 20;
+            case 'g' -> 1L << 30;
+            default -> 1;
+        };
+        if (unit > 1) value = value.substring(0, value.length() - 1);
+        return (long) (Double.parseDouble(value) * unit);
+    }
+}
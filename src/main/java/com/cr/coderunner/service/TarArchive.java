@@ -0,0 +1,149 @@
+package com.cr.coderunner.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+//Just enough ustar to move files in and out of containers through the Docker archive API
+public final class TarArchive {
+    private static final int BLOCK = 512;
+
+    private TarArchive() {
+    }
+
+    public static void writeDirectory(OutputStream out, String name) throws IOException {
+        writeHeader(out, name.endsWith("/") ? name : name + "/", 0, 0755, '5');
+    }
+
+    public static void writeFile(OutputStream out, String name, byte[] data, int mode) throws IOException {
+        writeHeader(out, name, data.length, mode, '0');
+        out.write(data);
+        pad(out, data.length);
+    }
+
+    //Adds every file and directory under root, named prefix + its path relative to root
+    public static void writeTree(OutputStream out, Path root, String prefix) throws IOException {
+        List<Path> paths;
+        try (Stream<Path> walk = Files.walk(root)) {
+            paths = walk.filter(path -> !path.equals(root)).sorted().toList();
+        }
+        for (Path path : paths) {
+            String name = prefix + root.relativize(path).toString().replace('\\', '/');
+            if (Files.isDirectory(path)) {
+                writeDirectory(out, name);
+            } else {
+                writeFile(out, name, Files.readAllBytes(path), Files.isExecutable(path) ? 0755 : 0644);
+            }
+        }
+    }
+
+    //End-of-archive marker: two empty blocks
+    public static void finish(OutputStream out) throws IOException {
+        out.write(new byte[BLOCK * 2]);
+        out.flush();
+    }
+
+    //Contents of the first regular file in an archive (e.g. a single file copied out of a container), or null
+    public static String readFirstFile(byte[] archive) throws IOException {
+        InputStream in = new ByteArrayInputStream(archive);
+        byte[] header = new byte[BLOCK];
+        while (in.readNBytes(header, 0, BLOCK) == BLOCK && !isZero(header)) {
+            long size = octalValue(header, 124, 12);
+            char type = (char) header[156];
+            if (type == '0' || type == 0) {
+                return new String(in.readNBytes((int) size), StandardCharsets.UTF_8);
+            }
+            in.skipNBytes(size + padding(size));
+        }
+        return null;
+    }
+
+    /** Unpacks the regular files and directories of an archive (e.g. a build copied out of a container) under dir.
+     * Other entry types are skipped; names that would land outside dir are refused.
+     */
+    public static void extract(byte[] archive, Path dir) throws IOException {
+        InputStream in = new ByteArrayInputStream(archive);
+        byte[] header = new byte[BLOCK];
+        Path root = dir.toAbsolutePath().normalize();
+        while (in.readNBytes(header, 0, BLOCK) == BLOCK && !isZero(header)) {
+            long size = octalValue(header, 124, 12);
+            char type = (char) header[156];
+            String prefix = text(header, 345, 155);
+            String name = prefix.isEmpty() ? text(header, 0, 100) : prefix + "/" + text(header, 0, 100);
+            Path target = root.resolve(name).normalize();
+            if (!target.startsWith(root)) throw new IOException("Archive entry outside the target directory: " + name);
+            if (type == '5') {
+                Files.createDirectories(target);
+            } else if (type == '0' || type == 0) {
+                Files.createDirectories(target.getParent());
+                Files.write(target, in.readNBytes((int) size));
+                in.skipNBytes(padding(size));
+                if ((octalValue(header, 100, 8) & 0111) != 0) target.toFile().setExecutable(true);
+                continue;
+            }
+            in.skipNBytes(size + padding(size));
+        }
+    }
+
+    private static void writeHeader(OutputStream out, String name, long size, int mode, char type) throws IOException {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        if (nameBytes.length > 100) throw new IOException("Archive entry name too long: " + name);
+        byte[] header = new byte[BLOCK];
+        System.arraycopy(nameBytes, 0, header, 0, nameBytes.length);
+        octal(header, 100, 8, mode);
+        octal(header, 108, 8, 0);
+        octal(header, 116, 8, 0);
+        octal(header, 124, 12, size);
+        octal(header, 136, 12, System.currentTimeMillis() / 1000);
+        header[156] = (byte) type;
+        System.arraycopy("ustar\0".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 6);
+        header[263] = '0';
+        header[264] = '0';
+
+        //Checksum is computed with its own field as spaces
+        for (int i = 148; i < 156; i++) header[i] = ' ';
+        long sum = 0;
+        for (byte b : header) sum += b & 0xFF;
+        octal(header, 148, 7, sum);
+        out.write(header);
+    }
+
+    //Zero-padded octal with a trailing NUL, filling the field
+    private static void octal(byte[] header, int offset, int length, long value) {
+        String digits = String.format("%0" + (length - 1) + "o", value);
+        System.arraycopy(digits.getBytes(StandardCharsets.US_ASCII), 0, header, offset, length - 1);
+        header[offset + length - 1] = 0;
+    }
+
+    private static long octalValue(byte[] header, int offset, int length) {
+        String digits = text(header, offset, length).trim();
+        return digits.isEmpty() ? 0 : Long.parseLong(digits, 8);
+    }
+
+    private static void pad(OutputStream out, long size) throws IOException {
+        out.write(new byte[(int) padding(size)]);
+    }
+
+    private static long padding(long size) {
+        return (BLOCK - size % BLOCK) % BLOCK;
+    }
+
+    private static String text(byte[] header, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && header[end] != 0) end++;
+        return new String(header, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    private static boolean isZero(byte[] block) {
+        for (byte b : block) {
+            if (b != 0) return false;
+        }
+        return true;
+    }
+}
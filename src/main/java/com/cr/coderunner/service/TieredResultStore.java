@@ -0,0 +1,264 @@
+package com.cr.coderunner.service;
+
+import com.cr.coderunner.controller.IDEController;
+import com.cr.coderunner.dto.RunResult;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/** Finished results on this node, readable any number of times until the TTL.
+ * Small results stay on the heap; the output and error of large ones are appended to memory-mapped segment files,
+ * so only their metadata is kept in memory. Oldest results are evicted first, by age and by the memory and disk budgets.
+ */
+@Service
+public class TieredResultStore implements ResultStore {
+    //Rough heap cost of an entry besides its output, so many tiny results still count against the budget
+    private static final int ENTRY_OVERHEAD_BYTES = 256;
+
+    //An append-only file mapped once; deleted when its last result is evicted
+    private static final class Segment {
+        final Path file;
+        final MappedByteBuffer buffer;
+        int used;
+        int live;
+
+        Segment(Path file, MappedByteBuffer buffer) {
+            this.file = file;
+            this.buffer = buffer;
+        }
+    }
+
+    private static final class Entry {
+        //Output and error are null here when spilled
+        final RunResult result;
+        final long storedAt;
+        final Segment segment;
+        final int offset;
+        //UTF-8 lengths in the segment, -1 for null
+        final int outputLength;
+        final int errorLength;
+        final long memoryBytes;
+
+        Entry(RunResult result, long storedAt, Segment segment, int offset, int outputLength, int errorLength, long memoryBytes) {
+            this.result = result;
+            this.storedAt = storedAt;
+            this.segment = segment;
+            this.offset = offset;
+            this.outputLength = outputLength;
+            this.errorLength = errorLength;
+            this.memoryBytes = memoryBytes;
+        }
+    }
+
+    private final Path dir;
+    private final long ttlMillis;
+    private final int inlineBytes;
+    private final long memoryBudget;
+    private final long diskBudget;
+    private final int segmentBytes;
+
+    //Insertion-ordered, so the first entry is always the oldest; guarded by this
+    private final LinkedHashMap<String, Entry> entries;
+    private Segment current;
+    private long memoryBytes;
+    private long diskBytes;
+    private long segmentCount;
+
+    public TieredResultStore(MeterRegistry registry,
+                             @Value("${coderunner.results.spill-dir:.results}") String dir,
+                             @Value("${coderunner.results.ttl-seconds:300}") long ttlSeconds,
+                             @Value("${coderunner.results.inline-bytes:16384}") int inlineBytes,
+                             @Value("${coderunner.results.memory-bytes:67108864}") long memoryBudget,
+                             @Value("${coderunner.results.disk-bytes:1073741824}") long diskBudget,
+                             @Value("${coderunner.results.segment-bytes:16777216}") int segmentBytes) {
+        this.dir = Path.of(dir).toAbsolutePath();
+        this.ttlMillis = ttlSeconds * 1000;
+        this.inlineBytes = inlineBytes;
+        this.memoryBudget = memoryBudget;
+        this.diskBudget = diskBudget;
+        this.segmentBytes = segmentBytes;
+        this.entries = new LinkedHashMap<>();
+        deleteSegments();
+
+        Gauge.builder("coderunner.results.memory.bytes", this, TieredResultStore::getMemoryBytes)
+                .description("Heap held by stored results")
+                .register(registry);
+        Gauge.builder("coderunner.results.disk.bytes", this, TieredResultStore::getDiskBytes)
+                .description("Segment files holding spilled result output")
+                .register(registry);
+    }
+
+    @Override
+    public synchronized void put(String executionId, RunResult result) {
+        remove(executionId);
+        byte[] output = result.output == null ? null : result.output.getBytes(StandardCharsets.UTF_8);
+        byte[] error = result.error == null ? null : result.error.getBytes(StandardCharsets.UTF_8);
+        int length = (output == null ? 0 : output.length) + (error == null ? 0 : error.length);
+        long now = System.currentTimeMillis();
+
+        Entry entry;
+        if (length <= inlineBytes) {
+            entry = new Entry(result, now, null, 0, 0, 0, ENTRY_OVERHEAD_BYTES + length);
+        } else {
+            Segment segment = segmentFor(length);
+            int offset = segment.used;
+            if (output != null) segment.buffer.put(offset, output);
+            if (error != null) segment.buffer.put(offset + (output == null ? 0 : output.length), error);
+            segment.used += length;
+            segment.live++;
+            entry = new Entry(result.withOutput(null, null), now, segment, offset,
+                    output == null ? -1 : output.length, error == null ? -1 : error.length, ENTRY_OVERHEAD_BYTES);
+        }
+        entries.put(executionId, entry);
+        memoryBytes += entry.memoryBytes;
+
+        //Oldest first, until both tiers fit again; over the disk budget only spilled results help
+        Iterator<Map.Entry<String, Entry>> oldest = entries.entrySet().iterator();
+        while ((memoryBytes > memoryBudget || diskBytes > diskBudget) && oldest.hasNext()) {
+            Entry evicted = oldest.next().getValue();
+            if (memoryBytes <= memoryBudget && evicted.segment == null) continue;
+            oldest.remove();
+            release(evicted);
+        }
+    }
+
+    @Override
+    public synchronized RunResult get(String executionId) {
+        Entry entry = live(executionId);
+        if (entry == null) return null;
+        if (entry.segment == null) return entry.result;
+        int errorOffset = entry.offset + Math.max(0, entry.outputLength);
+        return entry.result.withOutput(read(entry.segment, entry.offset, entry.outputLength), read(entry.segment, errorOffset, entry.errorLength));
+    }
+
+    //Sizes come from the entry, so a spilled result's segment isn't touched
+    @Override
+    public synchronized RunResult getStatus(String executionId) {
+        Entry entry = live(executionId);
+        if (entry == null) return null;
+        if (entry.segment == null) return entry.result.statusOnly();
+        RunResult status = entry.result.withOutput(null, null);
+        status.outputBytes = Math.max(0, entry.outputLength);
+        status.errorBytes = Math.max(0, entry.errorLength);
+        return status;
+    }
+
+    //Spilled output is copied straight from the mapped segment, without decoding the rest of it
+    @Override
+    public synchronized OutputRange readOutput(String executionId, boolean error, long offset, int length) {
+        Entry entry = live(executionId);
+        if (entry == null) return null;
+        if (entry.segment == null) return ResultStore.super.readOutput(executionId, error, offset, length);
+        int streamOffset = error ? entry.offset + Math.max(0, entry.outputLength) : entry.offset;
+        int total = Math.max(0, error ? entry.errorLength : entry.outputLength);
+        int from = (int) Math.min(Math.max(0, offset), total);
+        byte[] bytes = new byte[(int) Math.min(total - from, Math.max(0, length))];
+        entry.segment.buffer.get(streamOffset + from, bytes);
+        return new OutputRange(bytes, total);
+    }
+
+    @Override
+    public synchronized void remove(String executionId) {
+        Entry entry = entries.remove(executionId);
+        if (entry != null) release(entry);
+    }
+
+    @Override
+    public synchronized void evictExpired() {
+        long cutoff = System.currentTimeMillis() - ttlMillis;
+        Iterator<Map.Entry<String, Entry>> oldest = entries.entrySet().iterator();
+        while (oldest.hasNext()) {
+            Entry entry = oldest.next().getValue();
+            if (entry.storedAt >= cutoff) break;
+            oldest.remove();
+            release(entry);
+        }
+    }
+
+    public synchronized long getMemoryBytes() {
+        return memoryBytes;
+    }
+
+    public synchronized long getDiskBytes() {
+        return diskBytes;
+    }
+
+    //Entry for an id unless it's unknown or past the TTL (but not evicted yet)
+    private Entry live(String executionId) {
+        Entry entry = entries.get(executionId);
+        return entry == null || entry.storedAt < System.currentTimeMillis() - ttlMillis ? null : entry;
+    }
+
+    //The current segment if the output fits, otherwise a new one (larger than usual for an oversized output)
+    private Segment segmentFor(int length) {
+        if (current != null && current.buffer.capacity() - current.used >= length) return current;
+        Segment previous = current;
+        current = null;
+        if (previous != null && previous.live == 0) deleteSegment(previous);
+
+        int size = Math.max(segmentBytes, length);
+        Path file = dir.resolve("segment-" + segmentCount++);
+        try {
+            Files.createDirectories(dir);
+            //The mapping stays valid after the channel is closed
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                current = new Segment(file, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not create result segment " + file, e);
+        }
+        diskBytes += size;
+        return current;
+    }
+
+    private void release(Entry entry) {
+        memoryBytes -= entry.memoryBytes;
+        if (entry.segment != null && --entry.segment.live == 0) {
+            if (entry.segment == current) current = null;
+            deleteSegment(entry.segment);
+        }
+    }
+
+    private void deleteSegment(Segment segment) {
+        diskBytes -= segment.buffer.capacity();
+        try {
+            //The pages are unmapped once the buffer is collected
+            Files.deleteIfExists(segment.file);
+        } catch (IOException e) {
+            IDEController.logText("Could not delete result segment " + segment.file + ": " + e.getMessage());
+        }
+    }
+
+    //Segments left by a previous run belong to results that are gone with it
+    private void deleteSegments() {
+        if (!Files.isDirectory(dir)) return;
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : files.toList()) {
+                if (file.getFileName().toString().startsWith("segment-")) Files.deleteIfExists(file);
+            }
+        } catch (IOException e) {
+            IDEController.logText("Could not clear " + dir + ": " + e.getMessage());
+        }
+    }
+
+    private static String read(Segment segment, int offset, int length) {
+        if (length < 0) return null;
+        byte[] bytes = new byte[length];
+        segment.buffer.get(offset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
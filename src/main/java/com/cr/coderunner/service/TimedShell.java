@@ -0,0 +1,178 @@
+package com.cr.coderunner.service;
+
+import com.cr.coderunner.model.CodeExecution;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/** Shell lines that enforce a run's time limits and time themselves, and the reader for the marks they leave.
+ * Used by every backend that runs the compiler and program through sh (Docker and local processes).
+ */
+public final class TimedShell {
+    //Written by wrap inside the sandbox, read back by readTimings
+    public static final String TIMING_FILE = ".timing";
+    //One line of the times builtin: user and sys time
+    private static final Pattern TIMES = Pattern.compile("(\\d+)m\\s*([\\d.]+)s\\s+(\\d+)m\\s*([\\d.]+)s");
+
+    private TimedShell() {
+    }
+
+    //wrap with the sandbox's cgroup counters recorded around the program
+    public static String wrap(String timingFile, String compileShell, String runShell, SandboxLimits.TimeLimits timeLimits) {
+        return wrap(timingFile, compileShell, runShell, timeLimits, true, "");
+    }
+
+    /** Shell line that compiles (if compileShell isn't null), then runs, appending monotonic uptime marks around each step
+     * and the program's CPU time (the times builtin, in the program's own subshell so compiler CPU isn't counted)
+     * to timingFile. Only shell builtins are used, so the marks cost no extra processes. The run line gets a nested
+     * subshell of its own so an exit inside it can't skip the end mark.
+     * With timeLimits, compiler and program are killed at their wall limits and the program gets a CPU ulimit;
+     * the compiled mark is written even if compiling fails so a compile timeout can be told apart.
+     * @param cgroupStats record cgroup counters; only meaningful when the shell has a cgroup of its own (a container)
+     * @param ulimits extra ulimit builtins for the program only, e.g. "ulimit -v 262144"; may be empty
+     */
+    public static String wrap(String timingFile, String compileShell, String runShell, SandboxLimits.TimeLimits timeLimits,
+                              boolean cgroupStats, String ulimits) {
+        String mark = "read u _ < /proc/uptime && echo %s $u >> " + timingFile;
+        String compile = "";
+        if (compileShell != null && timeLimits != null) {
+            compile = "{ " + withTimeout(compileShell, timeLimits.compileWallMs()) + "; c=$?; " + String.format(mark, "compiled") + "; "
+                    + "[ $c -eq 0 ] || exit $c; } && ";
+        } else if (compileShell != null) {
+            compile = compileShell + " && " + String.format(mark, "compiled") + " && ";
+        } else {
+            compile = String.format(mark, "compiled") + " && ";
+        }
+        String run = timeLimits == null ? runShell
+                //ulimit -t takes whole seconds, so round up; the exact CPU limit is judged from the measured time
+                : "ulimit -t " + (timeLimits.cpuMs() + 999) / 1000 + " 2>/dev/null; " + withTimeout(runShell, timeLimits.wallMs());
+        if (!ulimits.isEmpty()) run = ulimits + " 2>/dev/null; " + run;
+        return String.format(mark, "start") + " && " + compile
+                + (cgroupStats ? cgroupSnapshot("cg0", timingFile) : "true")
+                + " && ( ( " + run + " ); s=$?; " + String.format(mark, "end") + "; "
+                + (cgroupStats ? cgroupSnapshot("cg1", timingFile) + "; " : "") + "times >> " + timingFile + "; exit $s )";
+    }
+
+    /** Prefixes a single command (with an optional redirect) so the sandbox SIGKILLs it after ms milliseconds.
+     * timeout execs the command itself, so it keeps its pid, stdin and exit status (137 when killed).
+     */
+    public static String withTimeout(String command, long ms) {
+        return String.format(Locale.ROOT, "timeout -s KILL %.3f %s", ms / 1000.0, command);
+    }
+
+    /** Appends the sandbox's cgroup v2 counters (cpu.stat, memory.events, memory.peak, pids.peak) to timingFile
+     * as "tag key value" lines, using builtins only. Succeeds (and writes nothing) where they aren't readable.
+     */
+    private static String cgroupSnapshot(String tag, String timingFile) {
+        String cgroup = "/sys/fs/cgroup/";
+        String copy = "[ -r " + cgroup + "%1$s ] && while read k v; do echo " + tag + " $k $v; done < " + cgroup + "%1$s; ";
+        return "{ if [ -d " + cgroup + " ]; then "
+                + String.format(copy, "cpu.stat") + String.format(copy, "memory.events")
+                + "for f in memory.peak pids.peak; do [ -r " + cgroup + "$f ] && read v < " + cgroup + "$f && echo " + tag + " $f $v; done; "
+                + "fi >> " + timingFile + "; true; }";
+    }
+
+    /** Fills compile, program wall and program CPU times from a timing file left by wrap (10ms resolution).
+     * The program can append to the file too, so marks written before it ran count from their first occurrence and
+     * those written after it (end, cg1, times) only from the last end mark on.
+     * @return seconds the shell spent inside the sandbox (start to end mark), or -1 if the marks are incomplete
+     */
+    public static double readTimings(String timing, CodeExecution exec, boolean compileRan) {
+        if (timing == null) return -1;
+        double start = -1, compiled = -1, end = -1;
+        //cgroup counters before (cg0) and after (cg1) the program
+        Map<String, Long> before = new HashMap<>(), after = new HashMap<>();
+        //times prints the shell's user/sys, then its children's user/sys: the second line is the program's
+        int timesLines = 0;
+        double childSeconds = -1;
+        for (String line : timing.split("\n")) {
+            String[] parts = line.trim().split("\\s+");
+            if (parts.length == 3 && parts[2].matches("\\d+")) {
+                if (parts[0].equals("cg0")) before.putIfAbsent(parts[1], Long.parseLong(parts[2]));
+                if (parts[0].equals("cg1") && end >= 0) after.put(parts[1], Long.parseLong(parts[2]));
+            }
+            Matcher times = TIMES.matcher(line.trim());
+            if (end >= 0 && times.matches()) {
+                timesLines++;
+                childSeconds = seconds(times, 1) + seconds(times, 3);
+            }
+            if (parts.length != 2) continue;
+            switch (parts[0]) {
+                case "start" -> start = start < 0 ? Double.parseDouble(parts[1]) : start;
+                case "compiled" -> compiled = compiled < 0 ? Double.parseDouble(parts[1]) : compiled;
+                case "end" -> {
+                    //Anything before the real end mark may be the program's
+                    end = Double.parseDouble(parts[1]);
+                    after.clear();
+                    timesLines = 0;
+                }
+                default -> { }
+            }
+        }
+        if (start >= 0 && compiled >= 0) {
+            exec.compileMs = compileRan ? (compiled - start) * 1000 : 0;
+        }
+        if (compiled >= 0 && end >= 0) {
+            exec.programWallMs = (end - compiled) * 1000;
+        }
+        if (timesLines == 2) {
+            exec.programCpuMs = childSeconds * 1000;
+        }
+        readCgroupStats(before, after, exec);
+        checkTimeLimits(exec, compileRan);
+        return start >= 0 && end >= 0 ? end - start : -1;
+    }
+
+    //Minutes and seconds at the given group of a times line, in seconds
+    private static double seconds(Matcher times, int group) {
+        return Long.parseLong(times.group(group)) * 60 + Double.parseDouble(times.group(group + 1));
+    }
+
+    //Contents of a run directory's timing file, or null if the shell never wrote one
+    public static String readTimingFile(File dirFile, String name) {
+        try {
+            return Files.readString(new File(dirFile, name).toPath());
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    //Time Limit Exceeded verdicts, with the measured time, from what readTimings measured
+    private static void checkTimeLimits(CodeExecution exec, boolean compileRan) {
+        SandboxLimits.TimeLimits limits = exec.timeLimits;
+        if (limits == null || exec.timeLimitExceeded) return;
+        String verdict = null;
+        if (compileRan && exec.compileMs >= limits.compileWallMs()) {
+            verdict = String.format(Locale.ROOT, "Compile Time Limit Exceeded (%.0f ms, limit %d ms).\n", exec.compileMs, limits.compileWallMs());
+        } else if (exec.programWallMs >= limits.wallMs() && exec.exitCode != 0) {
+            //A program that exited cleanly was not killed, whatever 10ms rounding says
+            verdict = String.format(Locale.ROOT, "Time Limit Exceeded (%.0f ms wall, limit %d ms).\n", exec.programWallMs, limits.wallMs());
+        } else if (exec.programCpuMs > limits.cpuMs()) {
+            verdict = String.format(Locale.ROOT, "Time Limit Exceeded (%.0f ms CPU, limit %d ms).\n", exec.programCpuMs, limits.cpuMs());
+        }
+        if (verdict != null) {
+            exec.timeLimitExceeded = true;
+            exec.addVerdict(verdict);
+        }
+    }
+
+    //Fills CPU, peak memory/pids and the OOM verdict from the cgroup counters around the program
+    private static void readCgroupStats(Map<String, Long> before, Map<String, Long> after, CodeExecution exec) {
+        //cgroup CPU also counts processes the program left behind, which times can't see
+        if (before.containsKey("usage_usec") && after.containsKey("usage_usec")) {
+            exec.programCpuMs = (after.get("usage_usec") - before.get("usage_usec")) / 1000.0;
+        }
+        exec.memoryPeakBytes = after.getOrDefault("memory.peak", -1L);
+        exec.pidsPeak = after.getOrDefault("pids.peak", -1L);
+        if (after.getOrDefault("oom_kill", 0L) > before.getOrDefault("oom_kill", 0L) && !exec.memoryLimitExceeded) {
+            exec.memoryLimitExceeded = true;
+            exec.addVerdict("Memory Limit Exceeded.\n");
+        }
+    }
+}
@@ -0,0 +1,360 @@
+package com.cr.coderunner.service;
+
+import com.cr.coderunner.controller.IDEController;
+import com.cr.coderunner.model.CodeExecution;
+import com.cr.coderunner.model.CodeSubmission;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/** Long-lived worker processes for one language, each in its own limited container, that take runs over stdin/stdout
+ * so a run skips container start and interpreter/JVM startup. A worker serves one run at a time and is replaced
+ * when it asks to be (or dies), or after recycle-after runs.
+ *
+ * Workers speak one protocol, big-endian, strings as int length + UTF-8 bytes:
+ * request:  mainClass, source, input, long wallMs, long cpuMs, int outputLimitBytes
+ * response: int kind, int exitCode, long compileNanos, long runNanos, long cpuNanos, boolean recycle, stdout, stderr
+ */
+public abstract class WorkerPool implements ExecutionBackend {
+    //Order matches the response kinds the workers send
+    public enum Kind { EXITED, COMPILE_ERROR, TIME_LIMIT, CPU_LIMIT, OUTPUT_LIMIT, SYSTEM_EXIT, WORKER_FAILED }
+
+    /** One run's outcome as reported by a worker
+     * @param checkoutNanos time spent waiting for (or starting) a worker
+     * @param recycle the worker can't be trusted with another run
+     */
+    public record Result(Kind kind, int exitCode, long compileNanos, long runNanos, long cpuNanos,
+                         byte[] stdout, byte[] stderr, long checkoutNanos, boolean recycle) {}
+
+    private static final class Worker {
+        final String name;
+        final Process process;
+        final DataOutputStream requests;
+        final DataInputStream responses;
+        int uses;
+
+        Worker(String name, Process process) {
+            this.name = name;
+            this.process = process;
+            this.requests = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+            this.responses = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+        }
+    }
+
+    private final String language;
+    private final String backend;
+    private final Capabilities capabilities;
+    private final boolean enabled;
+    private final int size;
+    private final int recycleAfter;
+    //Runs the worker outside Docker when set (development and tests only: no sandbox)
+    private final List<String> command;
+
+    private final MeterRegistry registry;
+    private final RunnerImages runnerImages;
+    private final SandboxLimits limits;
+    private final LinkedBlockingDeque<Worker> idle;
+    //One permit per worker that may exist, so runs queue here rather than starting more workers
+    private final Semaphore capacity;
+    private final Timer checkoutWait;
+    private final ExecutorService maintainer;
+
+    /**
+     * @param backend name reported in results and metric tags, e.g. "jvm"
+     * @param capabilities what the worker itself enforces; output is never live since a run reports all at once
+     * @param command local command that replaces the containerized worker; blank for the container
+     */
+    protected WorkerPool(MeterRegistry registry, RunnerImages runnerImages, SandboxLimits limits, String language, String backend,
+                         Capabilities capabilities, boolean enabled, int size, int recycleAfter, String command) {
+        this.registry = registry;
+        this.runnerImages = runnerImages;
+        this.limits = limits;
+        this.language = language;
+        this.backend = backend;
+        this.capabilities = capabilities;
+        this.enabled = enabled;
+        this.size = Math.max(1, size);
+        this.recycleAfter = recycleAfter;
+        this.command = command.isBlank() ? null : Arrays.asList(command.trim().split("\\s+"));
+        this.idle = new LinkedBlockingDeque<>();
+        this.capacity = new Semaphore(this.size, true);
+        this.maintainer = Executors.newSingleThreadExecutor();
+        this.checkoutWait = Timer.builder("coderunner.workers.checkout.wait")
+                .description("Time spent waiting for an idle worker")
+                .tag("backend", backend)
+                .register(registry);
+        Gauge.builder("coderunner.workers.idle", idle, LinkedBlockingDeque::size)
+                .description("Idle workers")
+                .tag("backend", backend)
+                .register(registry);
+    }
+
+    //Command that starts a worker inside the language's runner image
+    protected abstract List<String> workerCommand();
+
+    //True if this language's runs should go to the workers
+    @Override
+    public boolean handles(String language) {
+        return enabled && this.language.equals(language);
+    }
+
+    @Override
+    public String name() {
+        return backend;
+    }
+
+    @Override
+    public Capabilities capabilities() {
+        return capabilities;
+    }
+
+    @PostConstruct
+    public void warmUp() {
+        if (!enabled) return;
+        if (command != null) {
+            replenish(size);
+            return;
+        }
+        //Workers run in the runner image, so wait until it exists
+        runnerImages.startupCheck().thenRun(() -> replenish(size));
+    }
+
+    /** Runs a submission on an idle worker, starting one if none is idle.
+     * @param mainClass class to run for languages that need one; ignored otherwise
+     * @param timeLimits wall and CPU limits are enforced by the worker; compile + run + grace is the host's backstop
+     */
+    public Result execute(String mainClass, String source, String input, SandboxLimits.TimeLimits timeLimits, int outputLimitBytes) throws InterruptedException {
+        long start = System.nanoTime();
+        capacity.acquire();
+        try {
+            Worker worker = idle.pollFirst();
+            if (worker == null) worker = start();
+            long checkout = System.nanoTime() - start;
+            checkoutWait.record(checkout, TimeUnit.NANOSECONDS);
+            if (worker == null) {
+                return new Result(Kind.WORKER_FAILED, -1, 0, 0, 0, new byte[0], "Could not start a worker.\n".getBytes(StandardCharsets.UTF_8), checkout, true);
+            }
+
+            worker.uses++;
+            Result result = exchange(worker, mainClass == null ? "" : mainClass, source, input, timeLimits, outputLimitBytes, checkout);
+            if (result.recycle() || worker.uses >= recycleAfter || !worker.process.isAlive()) {
+                registry.counter("coderunner.workers.recycled", "backend", backend, "kind", result.kind().name()).increment();
+                //Stop it now, clean up its container in the background
+                worker.process.destroyForcibly();
+                Worker retired = worker;
+                maintainer.submit(() -> destroy(retired));
+                replenish(1);
+            } else {
+                idle.offerFirst(worker);
+            }
+            return result;
+        } finally {
+            capacity.release();
+        }
+    }
+
+    /** Runs on a warm worker: no container start and no interpreter or JVM startup.
+     * Maps the worker's report onto the same verdicts, timings and output as a container run.
+     */
+    @Override
+    public void run(CodeExecution exec) {
+        runCase(exec, exec.codeSubmission.input);
+        exec.close("");
+    }
+
+    //Java workers keep the compiled classes, so only the first case pays for javac
+    @Override
+    public CodeExecution[] runAll(CodeSubmission submission, String[] inputs, SandboxLimits.TimeLimits[] caseLimits, CaseListener listener) {
+        CodeExecution[] executions = CodeExecution.forCases(submission, inputs.length, caseLimits, limits.timeLimits(language), limits.outputLimitBytes(), backend);
+        for (int i = 0; i < inputs.length; i++) {
+            runCase(executions[i], inputs[i]);
+            boolean more = listener.caseFinished(i, executions[i]);
+            executions[i].close("");
+            if (!more) {
+                CodeExecution.skip(executions, i + 1);
+                for (int j = i + 1; j < inputs.length; j++) {
+                    executions[j].close("");
+                }
+                break;
+            }
+        }
+        return executions;
+    }
+
+    private void runCase(CodeExecution exec, String input) {
+        CodeSubmission submission = exec.codeSubmission;
+        String mainClass = language.equals("java") ? submission.getQualifiedMainClassName() : null;
+        if (language.equals("java") && mainClass == null) {
+            exec.exitCode = 1;
+            exec.setOutput("", "error: no class declared in source file\n", false, false);
+            return;
+        }
+
+        Result result;
+        try {
+            result = execute(mainClass, submission.code, input, exec.timeLimits, exec.outputLimitBytes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            exec.failed = true;
+            exec.exitStatus += "Failed to poll program\n";
+            exec.setOutput("", "", false, false);
+            return;
+        }
+
+        exec.exitCode = result.exitCode();
+        exec.containerStartMs = result.checkoutNanos() / 1e6;
+        exec.setupMs = 0;
+        exec.compileMs = result.compileNanos() / 1e6;
+        exec.programWallMs = result.runNanos() / 1e6;
+        exec.programCpuMs = result.cpuNanos() / 1e6;
+        exec.runtime = exec.programWallMs / 1000;
+        switch (result.kind()) {
+            case TIME_LIMIT -> {
+                exec.timeLimitExceeded = true;
+                exec.exitStatus += result.runNanos() > 0
+                        ? String.format(Locale.ROOT, "Time Limit Exceeded (%.0f ms wall, limit %d ms).\n", exec.programWallMs, exec.timeLimits.wallMs())
+                        : "Time Limit Exceeded.\n";
+            }
+            case CPU_LIMIT -> {
+                exec.timeLimitExceeded = true;
+                exec.exitStatus += String.format(Locale.ROOT, "Time Limit Exceeded (%.0f ms CPU, limit %d ms).\n", exec.programCpuMs, exec.timeLimits.cpuMs());
+            }
+            case WORKER_FAILED -> {
+                //-1: the worker never started or hung up while alive, which is on the host, not the code
+                exec.failed = result.exitCode() == -1;
+                exec.exitStatus += "Worker exited unexpectedly.\n";
+            }
+            default -> { }
+        }
+
+        String stdout = new String(result.stdout(), StandardCharsets.UTF_8);
+        String stderr = new String(result.stderr(), StandardCharsets.UTF_8);
+        //Nothing streams while a worker runs, so subscribers get everything at once
+        if (exec.feed.hasSubscribers()) {
+            if (!stdout.isEmpty()) exec.feed.publish("stdout", stdout);
+            if (!stderr.isEmpty()) exec.feed.publish("stderr", stderr);
+        }
+        boolean limitHit = result.kind() == Kind.OUTPUT_LIMIT;
+        exec.setOutput(stdout, stderr, limitHit && result.stdout().length >= exec.outputLimitBytes,
+                limitHit && result.stderr().length >= exec.outputLimitBytes);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        maintainer.shutdownNow();
+        Worker worker;
+        while ((worker = idle.pollFirst()) != null) {
+            destroy(worker);
+        }
+    }
+
+    private Result exchange(Worker worker, String mainClass, String source, String input, SandboxLimits.TimeLimits timeLimits,
+                            int outputLimitBytes, long checkout) {
+        //Backstop for anything the worker can't stop itself (e.g. a compile that never ends)
+        Thread watchdog = Thread.ofVirtual().name("watchdog-" + worker.name).start(() -> {
+            try {
+                Thread.sleep(timeLimits.hostWaitMs());
+                destroy(worker);
+            } catch (InterruptedException e) {
+                //Answered in time
+            }
+        });
+        try {
+            writeBytes(worker.requests, mainClass.getBytes(StandardCharsets.UTF_8));
+            writeBytes(worker.requests, source.getBytes(StandardCharsets.UTF_8));
+            writeBytes(worker.requests, input.getBytes(StandardCharsets.UTF_8));
+            worker.requests.writeLong(timeLimits.wallMs());
+            worker.requests.writeLong(timeLimits.cpuMs());
+            worker.requests.writeInt(outputLimitBytes);
+            worker.requests.flush();
+
+            Kind kind = Kind.values()[worker.responses.readInt()];
+            int exitCode = worker.responses.readInt();
+            long compileNanos = worker.responses.readLong();
+            long runNanos = worker.responses.readLong();
+            long cpuNanos = worker.responses.readLong();
+            boolean recycle = worker.responses.readBoolean();
+            byte[] stdout = readBytes(worker.responses);
+            byte[] stderr = readBytes(worker.responses);
+            //A program that ends the worker itself (System.exit) leaves its status as the worker's exit code
+            if (kind == Kind.SYSTEM_EXIT && worker.process.waitFor(5, TimeUnit.SECONDS)) {
+                exitCode = worker.process.exitValue();
+            }
+            return new Result(kind, exitCode, compileNanos, runNanos, cpuNanos, stdout, stderr, checkout, recycle || kind == Kind.SYSTEM_EXIT);
+        } catch (IOException | InterruptedException | ArrayIndexOutOfBoundsException e) {
+            //Worker died mid-run (self-halt, container OOM kill, watchdog)
+            int exitCode = worker.process.isAlive() ? -1 : worker.process.exitValue();
+            //The watchdog only finishes by firing
+            boolean killed = !watchdog.isAlive();
+            return new Result(killed ? Kind.TIME_LIMIT : Kind.WORKER_FAILED, exitCode, 0, 0, 0, new byte[0], new byte[0], checkout, true);
+        } finally {
+            watchdog.interrupt();
+        }
+    }
+
+    private void replenish(int count) {
+        for (int i = 0; i < count; i++) {
+            maintainer.submit(() -> {
+                if (idle.size() >= size) return;
+                Worker worker = start();
+                if (worker != null) idle.offerLast(worker);
+            });
+        }
+    }
+
+    private Worker start() {
+        String name = "cr-" + backend + "-" + UUID.randomUUID().toString().substring(0, 8);
+        List<String> args = new ArrayList<>();
+        if (command != null) {
+            args.addAll(command);
+        } else {
+            //Like the pool's containers, only the tmpfs is writable, so no run can change the image's files for later ones
+            args.addAll(List.of("docker", "run", "-i", "--rm", "--name", name, "--read-only", "--tmpfs", "/tmp:rw,nosuid,size=64m"));
+            args.addAll(limits.dockerArgs(language));
+            args.add(RunnerImages.imageFor(language));
+            args.addAll(workerCommand());
+        }
+        try {
+            Process process = new ProcessBuilder(args).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+            return new Worker(name, process);
+        } catch (IOException e) {
+            registry.counter("coderunner.workers.start.failures", "backend", backend).increment();
+            IDEController.logText("Could not start " + backend + " worker: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void destroy(Worker worker) {
+        worker.process.destroyForcibly();
+        //Killing the docker client leaves the container running
+        if (command == null) DockerCli.run(30, "rm", "-f", worker.name);
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        return in.readNBytes(in.readInt());
+    }
+}
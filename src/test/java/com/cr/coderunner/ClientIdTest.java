@@ -0,0 +1,32 @@
+package com.cr.coderunner;
+
+import com.cr.coderunner.controller.ClientId;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ClientIdTest {
+    private final ClientId clientId = new ClientId("10.0.0.1, 10.0.0.2");
+
+    private static MockHttpServletRequest request(String remote, String userId, String forwarded) {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setRemoteAddr(remote);
+        if (userId != null) request.addHeader("X-User-Id", userId);
+        if (forwarded != null) request.addHeader("X-Forwarded-For", forwarded);
+        return request;
+    }
+
+    @Test
+    void headersFromUntrustedCallersAreIgnored() {
+        assertThat(clientId.of(request("203.0.113.9", "someone-else", "198.51.100.1"))).isEqualTo("203.0.113.9");
+    }
+
+    @Test
+    void trustedProxyNamesTheClient() {
+        assertThat(clientId.of(request("10.0.0.1", "alice", "198.51.100.1"))).isEqualTo("alice");
+        //Without a user id, the address the proxies forwarded; a spoofed first entry is skipped
+        assertThat(clientId.of(request("10.0.0.1", null, "192.0.2.7, 198.51.100.1, 10.0.0.2"))).isEqualTo("198.51.100.1");
+        assertThat(clientId.of(request("10.0.0.1", null, null))).isEqualTo("10.0.0.1");
+    }
+}
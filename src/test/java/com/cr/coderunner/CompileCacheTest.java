@@ -0,0 +1,83 @@
+package com.cr.coderunner;
+
+import com.cr.coderunner.service.CompileCache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CompileCacheTest {
+    @TempDir
+    Path dir;
+
+    //Entries share the working directory's cache, so each test uses fresh code and removes what it stored
+    private final List<String> keys = new ArrayList<>();
+
+    @AfterEach
+    void removeEntries() throws IOException {
+        for (String key : keys) {
+            Path entry = Path.of(System.getProperty("user.dir"), ".test", "cache", key);
+            if (!Files.exists(entry)) continue;
+            try (Stream<Path> paths = Files.walk(entry)) {
+                paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+    }
+
+    private String key(CompileCache cache, String toolchain) {
+        String key = cache.keyFor(toolchain, "c", "gcc -O2 main.c", "int main(){} //" + UUID.randomUUID());
+        keys.add(key);
+        return key;
+    }
+
+    @Test
+    void keysSeparateToolchains() {
+        CompileCache cache = new CompileCache(new SimpleMeterRegistry(), true, 1 << 20);
+        String code = "int main(){}";
+
+        assertThat(cache.keyFor("docker sha256:a", "c", "gcc", code)).isEqualTo(cache.keyFor("docker sha256:a", "c", "gcc", code));
+        assertThat(cache.keyFor("docker sha256:a", "c", "gcc", code).equals(cache.keyFor("local x86_64-linux-gnu 13", "c", "gcc", code))).isFalse();
+        assertThat(cache.keyFor(null, "c", "gcc", code)).isNull();
+        assertThat(new CompileCache(new SimpleMeterRegistry(), false, 1 << 20).keyFor("docker sha256:a", "c", "gcc", code)).isNull();
+    }
+
+    @Test
+    void storedArtifactIsRestoredIntoARunDirectory() throws IOException {
+        CompileCache cache = new CompileCache(new SimpleMeterRegistry(), true, 1 << 20);
+        String key = key(cache, "docker sha256:a");
+        Path build = Files.createDirectories(dir.resolve("build"));
+        File binary = Files.writeString(build.resolve("main"), "binary").toFile();
+        File runDir = Files.createDirectories(dir.resolve("run")).toFile();
+
+        assertThat(cache.restore(key, runDir)).isFalse();
+        cache.store(key, binary);
+
+        assertThat(cache.restore(key, runDir)).isTrue();
+        assertThat(Files.readString(runDir.toPath().resolve("main"))).isEqualTo("binary");
+        assertThat(cache.lookup(key)).isNotNull();
+        assertThat(cache.getHitRatio()).isGreaterThan(0.5);
+    }
+
+    @Test
+    void failedCompilesAreNotStored() throws IOException {
+        CompileCache cache = new CompileCache(new SimpleMeterRegistry(), true, 1 << 20);
+        String key = key(cache, "docker sha256:a");
+
+        cache.store(key, Files.createDirectories(dir.resolve("classes")).toFile());
+        cache.store(key, dir.resolve("missing").toFile());
+
+        assertThat(cache.lookup(key)).isNull();
+    }
+}
@@ -0,0 +1,109 @@
+package com.cr.coderunner;
+
+import com.cr.coderunner.service.ContainerPool;
+import com.cr.coderunner.service.DockerCli;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+//A warm container must survive the kills between runs; the scripts are checked in a PID namespace, then in Docker if present
+public class ContainerPoolTest {
+    @TempDir
+    Path dir;
+
+    private final List<Process> namespaces = new ArrayList<>();
+    private final List<String> containers = new ArrayList<>();
+
+    @AfterEach
+    void cleanUp() {
+        namespaces.forEach(process -> {
+            process.descendants().forEach(ProcessHandle::destroyForcibly);
+            process.destroyForcibly();
+        });
+        containers.forEach(name -> DockerCli.run(60, "rm", "-f", name));
+    }
+
+    private static String run(String... command) throws IOException, InterruptedException {
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        return process.waitFor(30, TimeUnit.SECONDS) && process.exitValue() == 0 ? output : null;
+    }
+
+    //Host pid of PID 1 in a fresh PID namespace whose init has a keepalive child, like a container's; null if unsupported
+    private Long namespace() throws IOException, InterruptedException {
+        if (run("unshare", "-fp", "--mount-proc", "true") == null) return null;
+        Process unshare = new ProcessBuilder("unshare", "-fp", "--mount-proc", "sh", "-c", "sleep infinity & exec sleep infinity").start();
+        namespaces.add(unshare);
+        for (int i = 0; i < 50; i++) {
+            List<ProcessHandle> init = unshare.children().toList();
+            if (!init.isEmpty() && init.get(0).children().findAny().isPresent()) return init.get(0).pid();
+            Thread.sleep(20);
+        }
+        return null;
+    }
+
+    //Runs a shell line inside the namespace, as docker exec would
+    private static String exec(long init, String shell) throws IOException, InterruptedException {
+        return run("nsenter", "-t", String.valueOf(init), "-p", "-m", "sh", "-c", shell);
+    }
+
+    //Processes alive in the namespace, not counting zombies or the listing itself
+    private static List<String> live(long init) throws IOException, InterruptedException {
+        String listing = exec(init, "for f in /proc/[0-9]*/stat; do p=${f#/proc/}; p=${p%/stat}; [ \"$p\" = $$ ] && continue; "
+                + "{ read -r s < \"$f\"; } 2>/dev/null || continue; set -- ${s##*\") \"}; [ \"$1\" = Z ] || echo $p; done; true");
+        assertThat(listing).isNotNull();
+        return Arrays.stream(listing.split("\n")).filter(pid -> !pid.isBlank()).toList();
+    }
+
+    @Test
+    void killRunsSparesInitAndTheKeepalive() throws Exception {
+        Long init = namespace();
+        assumeTrue(init != null, "PID namespaces unavailable");
+        List<String> before = live(init);
+
+        //A program still running, plus strays that left its process group and session
+        new ProcessBuilder("nsenter", "-t", String.valueOf(init), "-p", "-m", "sh", "-c",
+                "(sleep 300 &); setsid sleep 300 & exec sleep 300").start();
+        Thread.sleep(300);
+        assertThat(live(init).size()).isGreaterThan(before.size());
+
+        assertThat(exec(init, ContainerPool.KILL_RUNS)).isNotNull();
+        Thread.sleep(100);
+        assertThat(live(init)).isEqualTo(before);
+
+        //A wrong answer in one case kills its program; the next case still execs into the same sandbox
+        assertThat(exec(init, "echo next")).isEqualTo("next\n");
+    }
+
+    @Test
+    void leaseAcceptsExecAfterAKillAndAScrub() throws Exception {
+        assumeTrue(DockerCli.run(10, "image", "inspect", "alpine:3.20"), "Docker or alpine:3.20 unavailable");
+        String name = "cr-pool-test-" + UUID.randomUUID().toString().substring(0, 8);
+        containers.add(name);
+        //Started like the pool's containers
+        assertThat(DockerCli.run(60, "run", "-d", "--name", name, "--init", "--read-only",
+                "--tmpfs", "/tmp:rw,nosuid,size=64m", "--tmpfs", "/root:rw,nosuid,size=16m",
+                "-v", dir.toAbsolutePath() + ":/sandbox", "alpine:3.20", "sleep", "infinity")).isTrue();
+
+        assertThat(DockerCli.run(30, "exec", "-d", name, "sh", "-c", "setsid sleep 300 & sleep 300")).isTrue();
+        assertThat(ContainerPool.killRuns(name)).isTrue();
+        assertThat(DockerCli.output(30, "exec", name, "echo", "after kill")).contains("after kill");
+
+        assertThat(DockerCli.run(30, "exec", name, "touch", "/tmp/left", "/sandbox/left")).isTrue();
+        assertThat(DockerCli.run(30, "exec", "-d", name, "sleep", "300")).isTrue();
+        assertThat(ContainerPool.scrub(name)).isTrue();
+        assertThat(DockerCli.output(30, "exec", name, "sh", "-c", "ls -A /tmp /sandbox; echo scrubbed")).isEqualTo("/sandbox:\n\n/tmp:\nscrubbed");
+    }
+}
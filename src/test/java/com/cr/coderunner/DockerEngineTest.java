@@ -0,0 +1,212 @@
+package com.cr.coderunner;
+
+import com.cr.coderunner.service.DockerEngine;
+import com.cr.coderunner.service.TarArchive;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class DockerEngineTest {
+    private Path socket;
+    private ServerSocketChannel server;
+    private final AtomicInteger connections = new AtomicInteger();
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+
+    //Stand-in daemon answering the handful of endpoints the client uses
+    @BeforeEach
+    void startServer() throws IOException {
+        socket = Files.createTempDirectory("docker-test").resolve("docker.sock");
+        server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        server.bind(UnixDomainSocketAddress.of(socket));
+        Thread.ofVirtual().start(() -> {
+            while (server.isOpen()) {
+                try {
+                    SocketChannel client = server.accept();
+                    connections.incrementAndGet();
+                    Thread.ofVirtual().start(() -> serve(client));
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        });
+    }
+
+    @AfterEach
+    void stopServer() throws IOException {
+        server.close();
+        Files.deleteIfExists(socket);
+    }
+
+    private void serve(SocketChannel client) {
+        try (client) {
+            InputStream in = new BufferedInputStream(Channels.newInputStream(client));
+            OutputStream out = Channels.newOutputStream(client);
+            String requestLine;
+            while ((requestLine = readLine(in)) != null) {
+                int length = 0;
+                String header;
+                while (!(header = readLine(in)).isEmpty()) {
+                    if (header.toLowerCase().startsWith("content-length:")) {
+                        length = Integer.parseInt(header.substring(15).trim());
+                    }
+                }
+                String body = new String(in.readNBytes(length), StandardCharsets.UTF_8);
+                requests.add(requestLine + " " + body);
+
+                String path = requestLine.split(" ")[1];
+                if (path.contains("/broken/")) {
+                    //Dies after taking the request, like a daemon restart mid-call
+                    return;
+                } else if (path.contains("/attach") && path.contains("stdin=1")) {
+                    //Echo stdin back on stdout once the client closes its side
+                    out.write("HTTP/1.1 101 UPGRADED\r\nConnection: Upgrade\r\nUpgrade: tcp\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+                    out.flush();
+                    out.write(frame(1, new String(in.readAllBytes(), StandardCharsets.UTF_8)));
+                    out.flush();
+                    return;
+                } else if (path.contains("/attach")) {
+                    out.write("HTTP/1.1 101 UPGRADED\r\nConnection: Upgrade\r\nUpgrade: tcp\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+                    out.write(frame(1, "hello\n"));
+                    out.write(frame(2, "oops\n"));
+                    out.write(frame(1, "world\n"));
+                    out.flush();
+                    return;
+                } else if (path.contains("/containers/create")) {
+                    respond(out, 201, "{\"Id\":\"abc123\",\"Warnings\":[]}");
+                } else if (path.endsWith("/start")) {
+                    respond(out, 204, null);
+                } else if (path.endsWith("/wait")) {
+                    //Chunked, like the real daemon's streamed wait response
+                    out.write(("HTTP/1.1 200 OK\r\nContent-Type: application/json\r\nTransfer-Encoding: chunked\r\n\r\n"
+                            + "f\r\n{\"StatusCode\":3\r\n1\r\n}\r\n0\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                } else if (requestLine.startsWith("DELETE")) {
+                    respond(out, 204, null);
+                } else {
+                    respond(out, 404, "{\"message\":\"no such container\"}");
+                }
+                out.flush();
+            }
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static void respond(OutputStream out, int status, String body) throws IOException {
+        byte[] content = body == null ? new byte[0] : body.getBytes(StandardCharsets.UTF_8);
+        out.write(("HTTP/1.1 " + status + " X\r\nContent-Length: " + content.length + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        out.write(content);
+    }
+
+    private static byte[] frame(int stream, String text) {
+        byte[] payload = text.getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        frame.writeBytes(new byte[] {(byte) stream, 0, 0, 0, 0, 0, 0, (byte) payload.length});
+        frame.writeBytes(payload);
+        return frame.toByteArray();
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1 && c != '\n') {
+            if (c != '\r') line.append((char) c);
+        }
+        return c == -1 && line.isEmpty() ? null : line.toString();
+    }
+
+    @Test
+    void runsContainerLifecycleOverOneConnection() throws IOException {
+        DockerEngine engine = new DockerEngine(socket.toString(), true, 4);
+        assertThat(engine.isAvailable()).isTrue();
+
+        String id = engine.create("run123", "coderunner-c:1", List.of("sh", "-c", "echo \"hi\""), List.of("/tmp/run123:/sandbox"));
+        engine.start(id);
+        int exitCode = engine.waitFor(id);
+        engine.remove(id);
+
+        assertThat(id).isEqualTo("abc123");
+        assertThat(exitCode).isEqualTo(3);
+        assertThat(requests.get(0)).contains("/containers/create?name=run123").contains("\"Cmd\":[\"sh\",\"-c\",\"echo \\\"hi\\\"\"]");
+        //Keep-alive: every call reused the first connection
+        assertThat(connections.get()).isEqualTo(1);
+    }
+
+    @Test
+    void retriesOnlyRequestsThatAreSafeToRepeat() throws IOException {
+        DockerEngine engine = new DockerEngine(socket.toString(), true, 4);
+        //Leaves a kept-alive connection in the pool for the next request
+        engine.start("abc123");
+
+        //The daemon may have started it before the connection broke, so a POST is sent once
+        assertThatThrownBy(() -> engine.start("broken")).isInstanceOf(IOException.class);
+        assertThat(requests.stream().filter(request -> request.contains("/broken/start")).count()).isEqualTo(1L);
+
+        engine.start("abc123");
+        assertThatThrownBy(() -> engine.getArchive("broken", "/sandbox")).isInstanceOf(IOException.class);
+        assertThat(requests.stream().filter(request -> request.contains("/broken/archive")).count()).isEqualTo(2L);
+    }
+
+    @Test
+    void splitsAttachedStreams() throws IOException {
+        DockerEngine engine = new DockerEngine(socket.toString(), true, 4);
+
+        try (DockerEngine.Attachment attachment = engine.attach("abc123")) {
+            assertThat(new String(attachment.stdout.readAllBytes(), StandardCharsets.UTF_8)).isEqualTo("hello\nworld\n");
+            assertThat(new String(attachment.stderr.readAllBytes(), StandardCharsets.UTF_8)).isEqualTo("oops\n");
+        }
+    }
+
+    @Test
+    void streamsStdinWhileReadingOutput() throws IOException {
+        DockerEngine engine = new DockerEngine(socket.toString(), true, 4);
+
+        try (DockerEngine.Attachment attachment = engine.attach("abc123", true)) {
+            attachment.writeStdin("1 2 3\n");
+            assertThat(new String(attachment.stdout.readAllBytes(), StandardCharsets.UTF_8)).isEqualTo("1 2 3\n");
+        }
+    }
+
+    @Test
+    void buildsCopiedOutOfAContainerUnpackIntoPlace() throws IOException {
+        Path build = Files.createTempDirectory("build");
+        Files.createDirectories(build.resolve("classes/app"));
+        Files.write(build.resolve("classes/app/Main.class"), new byte[] {(byte) 0xCA, (byte) 0xFE, 0, 1});
+        Files.writeString(build.resolve("main"), "binary");
+        build.resolve("main").toFile().setExecutable(true);
+        ByteArrayOutputStream tar = new ByteArrayOutputStream();
+        TarArchive.writeTree(tar, build, "");
+        TarArchive.finish(tar);
+
+        Path copy = Files.createTempDirectory("copy");
+        TarArchive.extract(tar.toByteArray(), copy);
+        assertThat(Files.readAllBytes(copy.resolve("classes/app/Main.class"))).isEqualTo(new byte[] {(byte) 0xCA, (byte) 0xFE, 0, 1});
+        assertThat(Files.readString(copy.resolve("main"))).isEqualTo("binary");
+        assertThat(Files.isExecutable(copy.resolve("main"))).isTrue();
+
+        //An archive naming files outside the target is refused
+        ByteArrayOutputStream escape = new ByteArrayOutputStream();
+        TarArchive.writeFile(escape, "../escaped", new byte[] {1}, 0644);
+        TarArchive.finish(escape);
+        assertThatThrownBy(() -> TarArchive.extract(escape.toByteArray(), copy)).isInstanceOf(IOException.class);
+        assertThat(Files.exists(copy.resolveSibling("escaped"))).isFalse();
+    }
+}
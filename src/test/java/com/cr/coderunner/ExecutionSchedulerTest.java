@@ -0,0 +1,96 @@
+package com.cr.coderunner;
+
+import com.cr.coderunner.service.ExecutionScheduler;
+import com.cr.coderunner.service.QueueFullException;
+import com.cr.coderunner.service.SandboxCapacity;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ExecutionSchedulerTest {
+
+    //Scheduler with a single sandbox so queued jobs run one at a time
+    private ExecutionScheduler newScheduler(int maxPerTenant) {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        return new ExecutionScheduler(registry, new SandboxCapacity(registry, 1), 100, maxPerTenant);
+    }
+
+    //Occupies the single sandbox until released so jobs pile up in the queue
+    private CountDownLatch blockWorker(ExecutionScheduler scheduler) throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        scheduler.submit("blocker", ExecutionScheduler.Source.IDE, 0, () -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ignored) {
+            }
+            return null;
+        });
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+        return release;
+    }
+
+    @Test
+    void tenantsAreServedRoundRobin() throws Exception {
+        ExecutionScheduler scheduler = newScheduler(10);
+        CountDownLatch release = blockWorker(scheduler);
+
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        List<CompletableFuture<String>> futures = new ArrayList<>();
+        for (String tenant : new String[] {"a", "a", "a", "b"}) {
+            futures.add(scheduler.submit(tenant, ExecutionScheduler.Source.IDE, 0, () -> {
+                order.add(tenant);
+                return tenant;
+            }));
+        }
+        release.countDown();
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+
+        //b shouldn't wait behind all of a's jobs
+        assertThat(order).containsExactly("a", "b", "a", "a");
+        scheduler.shutdown();
+    }
+
+    @Test
+    void rejectsWhenTenantShareIsFull() throws Exception {
+        ExecutionScheduler scheduler = newScheduler(2);
+        CountDownLatch release = blockWorker(scheduler);
+
+        scheduler.submit("a", ExecutionScheduler.Source.IDE, 0, () -> null);
+        scheduler.submit("a", ExecutionScheduler.Source.IDE, 0, () -> null);
+        assertThatThrownBy(() -> scheduler.submit("a", ExecutionScheduler.Source.IDE, 0, () -> null))
+                .isInstanceOf(QueueFullException.class);
+        //Other clients still get in
+        scheduler.submit("b", ExecutionScheduler.Source.IDE, 0, () -> null);
+
+        release.countDown();
+        scheduler.shutdown();
+    }
+
+    @Test
+    void dropsJobsPastTheirDeadline() throws Exception {
+        ExecutionScheduler scheduler = newScheduler(10);
+        CountDownLatch release = blockWorker(scheduler);
+
+        CompletableFuture<String> late = scheduler.submit("a", ExecutionScheduler.Source.IDE, 10, () -> "ran");
+        Thread.sleep(50);
+        release.countDown();
+
+        assertThatThrownBy(() -> late.get(5, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(TimeoutException.class);
+        scheduler.shutdown();
+    }
+}
@@ -0,0 +1,130 @@
+package com.cr.coderunner;
+
+import com.cr.coderunner.dto.RunResult;
+import com.cr.coderunner.model.CodeSubmission;
+import com.cr.coderunner.service.ExecutionScheduler;
+import com.cr.coderunner.service.FileJobQueue;
+import com.cr.coderunner.service.FileResultStore;
+import com.cr.coderunner.service.JobQueue;
+import com.cr.coderunner.service.QueueFullException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class FileJobQueueTest {
+    @TempDir
+    Path dir;
+
+    private FileJobQueue newQueue(int capacity) {
+        return new FileJobQueue(new SimpleMeterRegistry(), dir.toString(), capacity, 15_000);
+    }
+
+    private JobQueue.Job job(String code, long enqueuedAt) {
+        CodeSubmission submission = new CodeSubmission(code, "Python", "", "");
+        submission.deadlineMillis = 5000;
+        return new JobQueue.Job(UUID.randomUUID().toString(), submission, "client", ExecutionScheduler.Source.IDE, enqueuedAt);
+    }
+
+    @Test
+    void jobsAreClaimedOnceInArrivalOrder() throws InterruptedException {
+        FileJobQueue queue = newQueue(10);
+        JobQueue.Job first = job("print(1)", 1000);
+        JobQueue.Job second = job("print(2)", 2000);
+        queue.offer(second);
+        queue.offer(first);
+        assertThat(queue.depth()).isEqualTo(2);
+
+        JobQueue.Job claimed = queue.poll("a", 0);
+        assertThat(claimed.id()).isEqualTo(first.id());
+        assertThat(claimed.submission().code).isEqualTo("print(1)");
+        assertThat(claimed.submission().deadlineMillis).isEqualTo(5000);
+        assertThat(queue.poll("b", 0).id()).isEqualTo(second.id());
+        //Nothing left for a third worker
+        assertThat(queue.poll("c", 0)).isNull();
+        assertThat(queue.depth()).isZero();
+        queue.ack("a", claimed);
+    }
+
+    @Test
+    void fullQueueRejectsJobs() {
+        FileJobQueue queue = newQueue(1);
+        queue.offer(job("print(1)", 1000));
+        assertThatThrownBy(() -> queue.offer(job("print(2)", 2000))).isInstanceOf(QueueFullException.class);
+    }
+
+    @Test
+    void batchChunkIsQueuedAsOneJob() throws InterruptedException {
+        FileJobQueue queue = newQueue(1);
+        JobQueue.Job shared = job("print(input())", 1000);
+        List<JobQueue.GroupItem> items = List.of(new JobQueue.GroupItem("a", "1\n"),
+                new JobQueue.GroupItem("b", "2\n"), new JobQueue.GroupItem("c", "3\n"));
+        queue.offer(new JobQueue.Job("a", shared.submission(), "client", ExecutionScheduler.Source.LLM, 1000, items));
+        assertThat(queue.depth()).isEqualTo(1);
+
+        //A second chunk doesn't fit, and none of it is queued
+        List<JobQueue.GroupItem> more = List.of(new JobQueue.GroupItem("d", "4\n"), new JobQueue.GroupItem("e", "5\n"));
+        assertThatThrownBy(() -> queue.offer(new JobQueue.Job("d", shared.submission(), "client", ExecutionScheduler.Source.LLM, 2000, more)))
+                .isInstanceOf(QueueFullException.class);
+        assertThat(queue.depth()).isEqualTo(1);
+
+        JobQueue.Job claimed = queue.poll("w", 0);
+        assertThat(claimed.group()).isEqualTo(items);
+        assertThat(claimed.submission().code).isEqualTo("print(input())");
+        assertThat(queue.poll("x", 0)).isNull();
+        queue.ack("w", claimed);
+    }
+
+    @Test
+    void releasedJobIsClaimedAgainBeforeNewerOnes() throws InterruptedException {
+        FileJobQueue queue = newQueue(10);
+        JobQueue.Job first = job("print(1)", 1000);
+        queue.offer(first);
+        queue.offer(job("print(2)", 2000));
+
+        //The worker filled up before it could run it; nothing was stored, so it goes back
+        queue.release("a", queue.poll("a", 0));
+        assertThat(queue.depth()).isEqualTo(2);
+        JobQueue.Job again = queue.poll("b", 0);
+        assertThat(again.id()).isEqualTo(first.id());
+        queue.ack("b", again);
+    }
+
+    @Test
+    void workersReportCapacity() {
+        FileJobQueue queue = newQueue(10);
+        queue.heartbeat(new JobQueue.WorkerStatus("w1", 4, 1, System.currentTimeMillis()));
+        assertThat(queue.workers()).singleElement().satisfies(worker -> {
+            assertThat(worker.workerId()).isEqualTo("w1");
+            assertThat(worker.capacity()).isEqualTo(4);
+            assertThat(worker.busy()).isEqualTo(1);
+        });
+    }
+
+    @Test
+    void resultsRoundTripAndRejectForeignIds() {
+        FileResultStore store = new FileResultStore(dir.toString(), 300);
+        String id = UUID.randomUUID().toString();
+        RunResult result = new RunResult(true, 0.5, "out\n", "", "0", "FINISHED");
+        result.compileMs = 12;
+        result.backend = "docker";
+        store.put(id, result);
+
+        RunResult stored = store.get(id);
+        assertThat(stored.status).isEqualTo("FINISHED");
+        assertThat(stored.output).isEqualTo("out\n");
+        assertThat(stored.compileMs).isEqualTo(12);
+        assertThat(stored.backend).isEqualTo("docker");
+
+        store.remove(id);
+        assertThat(store.get(id)).isNull();
+        assertThat(store.get("../jobs")).isNull();
+        assertThatThrownBy(() -> store.put("../jobs", result)).isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -107,4 +107,17 @@ public class IDERequestTest {
         ));
 
     }
+
+    @Test
+    public void outputRejectsEmptyPages() {
+        //Checked before the id is looked up, like an unknown stream
+        restTestClient.get()
+                .uri("http://localhost:%d/output?id=missing&length=0".formatted(port))
+                .exchange()
+                .expectStatus().isBadRequest();
+        restTestClient.get()
+                .uri("http://localhost:%d/output?id=missing&line=0&length=-1".formatted(port))
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
 }
@@ -0,0 +1,125 @@
+package com.cr.coderunner;
+
+import com.cr.coderunner.model.CodeExecution;
+import com.cr.coderunner.model.CodeSubmission;
+import com.cr.coderunner.model.Problem;
+import com.cr.coderunner.service.CompileCache;
+import com.cr.coderunner.service.ContainerReaper;
+import com.cr.coderunner.service.LocalProcessBackend;
+import com.cr.coderunner.service.SandboxLimits;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+//Runs real programs on the host, so each test needs its toolchain installed
+public class LocalProcessBackendTest {
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final CompileCache compileCache = new CompileCache(registry, true, 1 << 24);
+    //No containers are ever queued, so the reaper never needs Docker
+    private final ContainerReaper reaper = new ContainerReaper(registry, null, 20);
+    private final SandboxLimits limits = new SandboxLimits(new MockEnvironment(), true, "256m", 1.0, 64, 10_000, 10_000, 30_000, 5_000);
+    private final LocalProcessBackend backend = new LocalProcessBackend(compileCache, reaper, limits, "c,java,python", "");
+    private final Set<String> cachedBefore = cacheEntries();
+
+    //Compile cache entries live in the working directory's .test; drop the ones these tests added
+    @AfterEach
+    void cleanUp() throws IOException {
+        reaper.shutdown();
+        Set<String> added = cacheEntries();
+        added.removeAll(cachedBefore);
+        for (String key : added) {
+            try (Stream<Path> paths = Files.walk(cacheDir().resolve(key))) {
+                paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+    }
+
+    private static Path cacheDir() {
+        return Path.of(System.getProperty("user.dir"), ".test", "cache");
+    }
+
+    private static Set<String> cacheEntries() {
+        String[] names = cacheDir().toFile().list((dir, name) -> !name.startsWith("staging-"));
+        return names == null ? new HashSet<>() : new HashSet<>(Set.of(names));
+    }
+
+    private CodeExecution run(CodeSubmission submission) {
+        CodeExecution execution = new CodeExecution(submission);
+        execution.runner = backend;
+        execution.run();
+        return execution;
+    }
+
+    @Test
+    void pythonRunReadsInputAndReportsErrors() {
+        assumeTrue(backend.handles("python"), "python3 not installed");
+
+        CodeExecution ok = run(new CodeSubmission("print(int(input()) * 2)", "python", "", "21\n"));
+        assertThat(ok.success).isTrue();
+        assertThat(ok.output).startsWith("42\n");
+        assertThat(ok.backend).isEqualTo("local");
+
+        CodeExecution failed = run(new CodeSubmission("print(1 / 0)", "python", "", ""));
+        assertThat(failed.success).isFalse();
+        assertThat(failed.error).contains("ZeroDivisionError");
+    }
+
+    @Test
+    void cBuildIsCompiledOnceThenRestoredFromTheCache() {
+        assumeTrue(backend.handles("c"), "gcc not installed");
+        //A fresh comment keeps earlier runs' cache entries from turning the first build into a hit
+        String code = "#include <stdio.h>\nint main(void) { puts(\"built\"); return 0; } //" + UUID.randomUUID();
+
+        CodeExecution first = run(new CodeSubmission(code, "c", "", ""));
+        CodeExecution second = run(new CodeSubmission(code, "c", "", ""));
+
+        assertThat(first.success).isTrue();
+        assertThat(second.success).isTrue();
+        assertThat(second.output).startsWith("built\n");
+        assertThat(compileCache.getHitRatio()).isEqualTo(0.5);
+    }
+
+    @Test
+    void javaClassInAPackageIsRunByItsFullName() {
+        assumeTrue(backend.handles("java"), "javac not installed");
+        String code = "package app;\n\npublic class Main {\n    public static void main(String[] args) { System.out.println(\"packaged\"); }\n} //" + UUID.randomUUID();
+
+        CodeExecution execution = run(new CodeSubmission(code, "java", "", ""));
+
+        assertThat(execution.error).isEmpty();
+        assertThat(execution.output).startsWith("packaged\n");
+    }
+
+    @Test
+    void judgedCasesRunAsSeparateProcesses() throws InterruptedException {
+        assumeTrue(backend.handles("python"), "python3 not installed");
+        Problem problem = new Problem(new Problem.TestCase[] {
+                new Problem.TestCase("2\n", "1"),
+                new Problem.TestCase("4\n", "2"),
+                new Problem.TestCase("7\n", "3")
+        }, "desc", "double");
+        CodeSubmission submission = new CodeSubmission("print(int(input()) * 2)", "python", "double", "");
+
+        CodeExecution[] results = problem.runCases(submission, backend, limits, Problem.JudgeMode.FULL, null, 1);
+
+        assertThat(results).hasSize(3);
+        assertThat(results[0].success).isTrue();
+        assertThat(results[1].success).isTrue();
+        assertThat(results[2].success).isFalse();
+        assertThat(results[2].mismatch).isNotNull();
+    }
+}
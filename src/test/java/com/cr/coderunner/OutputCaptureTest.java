@@ -0,0 +1,50 @@
+package com.cr.coderunner;
+
+import com.cr.coderunner.model.OutputCapture;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class OutputCaptureTest {
+
+    @Test
+    void keepsOutputUnderTheLimit() throws Exception {
+        String text = "héllo\nworld\n";
+        OutputCapture capture = OutputCapture.start(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)), 100, null);
+
+        assertThat(capture.await(Duration.ofSeconds(5))).isTrue();
+        assertThat(capture.text()).isEqualTo(text);
+        assertThat(capture.isLimitExceeded()).isFalse();
+    }
+
+    @Test
+    void stopsAndKillsAtTheLimit() throws Exception {
+        //Never ends on its own, like a program printing in a loop
+        InputStream endless = new InputStream() {
+            @Override
+            public int read() {
+                return 'x';
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                Arrays.fill(b, off, off + len, (byte) 'x');
+                return len;
+            }
+        };
+        AtomicInteger kills = new AtomicInteger();
+        OutputCapture capture = OutputCapture.start(endless, 100_000, kills::incrementAndGet);
+
+        assertThat(capture.await(Duration.ofSeconds(5))).isTrue();
+        assertThat(capture.size()).isEqualTo(100_000);
+        assertThat(capture.isLimitExceeded()).isTrue();
+        assertThat(kills.get()).isEqualTo(1);
+    }
+}
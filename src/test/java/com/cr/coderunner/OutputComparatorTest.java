@@ -0,0 +1,69 @@
+package com.cr.coderunner;
+
+import com.cr.coderunner.model.OutputCapture;
+import com.cr.coderunner.model.OutputComparator;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class OutputComparatorTest {
+
+    //Feeds the output a byte at a time, the worst case for state kept across reads
+    private static OutputComparator compare(String expected, OutputComparator.Mode mode, String output) {
+        OutputComparator comparator = new OutputComparator(expected, mode, null);
+        byte[] bytes = output.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < bytes.length; i++) {
+            comparator.accept(bytes, i, 1);
+        }
+        comparator.finish();
+        return comparator;
+    }
+
+    @Test
+    void reportsFirstDifference() {
+        assertThat(compare("1\n2\n", OutputComparator.Mode.EXACT, "1\n2\n").matches()).isTrue();
+        assertThat(compare("1\n2\n", OutputComparator.Mode.EXACT, "1\n3\n").getMismatch())
+                .isEqualTo("line 2, column 1: expected \"2\", got \"3\"");
+        assertThat(compare("1\n2\n", OutputComparator.Mode.EXACT, "1\n2").getMismatch())
+                .isEqualTo("line 2, column 2: expected a line break, got end of output");
+    }
+
+    @Test
+    void tolerantModes() {
+        assertThat(compare("a b\nc\n", OutputComparator.Mode.EXACT, "a b \nc\n\n").matches()).isFalse();
+        assertThat(compare("a b\nc\n", OutputComparator.Mode.WHITESPACE, "a b \r\nc\n\n").matches()).isTrue();
+        assertThat(compare("a b\nc\n", OutputComparator.Mode.WHITESPACE, "a  b\nc\n").matches()).isFalse();
+        assertThat(compare("a b\nc\n", OutputComparator.Mode.TOKENS, "a\nb   c").matches()).isTrue();
+        assertThat(compare("1 2\n", OutputComparator.Mode.TOKENS, "1 22\n").getMismatch())
+                .isEqualTo("line 1, column 3: expected \"2\", got \"22\"");
+        assertThat(compare("0.3 x\n", OutputComparator.Mode.FLOAT, "0.30000000000000004 x").matches()).isTrue();
+        assertThat(compare("0.3 x\n", OutputComparator.Mode.FLOAT, "0.31 x").getMismatch())
+                .isEqualTo("line 1, column 1: expected \"0.3\", got \"0.31\"");
+    }
+
+    @Test
+    void stopsCaptureAtFirstMismatch() throws Exception {
+        //Right at first, then wrong forever
+        InputStream endless = new InputStream() {
+            private int count;
+
+            @Override
+            public int read() {
+                return count++ < 3 ? 'a' : 'b';
+            }
+        };
+        AtomicInteger kills = new AtomicInteger();
+        OutputComparator comparator = new OutputComparator("aaaa", OutputComparator.Mode.EXACT, null);
+        OutputCapture capture = OutputCapture.start(endless, 100_000_000, kills::incrementAndGet, null, "stdout", comparator);
+
+        assertThat(capture.await(Duration.ofSeconds(5))).isTrue();
+        assertThat(capture.isLimitExceeded()).isFalse();
+        assertThat(kills.get()).isEqualTo(1);
+        assertThat(comparator.getMismatch()).startsWith("line 1, column 4: expected \"a\", got \"b");
+    }
+}
@@ -1,7 +1,12 @@
 package com.cr.coderunner;
 
+import com.cr.coderunner.controller.ClientId;
 import com.cr.coderunner.controller.ProblemController;
 import com.cr.coderunner.model.UserData;
+import com.cr.coderunner.service.ExecutionBackends;
+import com.cr.coderunner.service.ExecutionScheduler;
+import com.cr.coderunner.service.SandboxCapacity;
+import com.cr.coderunner.service.SandboxLimits;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.webmvc.test.autoconfigure.WebMvcTest;
@@ -17,6 +22,21 @@ public class ProblemControllerTest {
     @MockitoBean
     private UserData userData;
 
+    @MockitoBean
+    private ExecutionBackends backends;
+
+    @MockitoBean
+    private ExecutionScheduler scheduler;
+
+    @MockitoBean
+    private SandboxLimits limits;
+
+    @MockitoBean
+    private SandboxCapacity sandboxes;
+
+    @MockitoBean
+    private ClientId clientId;
+
     @Test
     void addAndGet_match() {
         
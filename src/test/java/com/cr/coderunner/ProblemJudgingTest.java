@@ -0,0 +1,161 @@
+package com.cr.coderunner;
+
+import com.cr.coderunner.model.CodeExecution;
+import com.cr.coderunner.model.CodeSubmission;
+import com.cr.coderunner.model.OutputCapture;
+import com.cr.coderunner.model.Problem;
+import com.cr.coderunner.service.ExecutionBackend;
+import com.cr.coderunner.service.SandboxCapacity;
+import com.cr.coderunner.service.SandboxLimits;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ProblemJudgingTest {
+
+    //Runs each case as a shell line through the real output capture, so comparator kills reach a real process
+    static class ShellBackend implements ExecutionBackend {
+        private final String[] programs;
+        //Programs actually started, to tell judged cases from skipped ones
+        final AtomicInteger started = new AtomicInteger();
+
+        ShellBackend(String... programs) {
+            this.programs = programs;
+        }
+
+        @Override
+        public String name() {
+            return "shell";
+        }
+
+        @Override
+        public Capabilities capabilities() {
+            return new Capabilities(false, false, false, true, false);
+        }
+
+        @Override
+        public boolean handles(String language) {
+            return true;
+        }
+
+        @Override
+        public void run(CodeExecution exec) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public CodeExecution[] runAll(CodeSubmission submission, String[] inputs, SandboxLimits.TimeLimits[] caseLimits, CaseListener listener) {
+            CodeExecution[] executions = CodeExecution.forCases(submission, inputs.length, caseLimits, SandboxLimits.TimeLimits.DEFAULT,
+                    CodeExecution.DEFAULT_OUTPUT_LIMIT_BYTES, name());
+            for (int i = 0; i < inputs.length; i++) {
+                executions[i].comparator = listener.comparator(i);
+                try {
+                    started.incrementAndGet();
+                    Process process = new ProcessBuilder("sh", "-c", programs[Integer.parseInt(inputs[i])]).start();
+                    OutputCapture[] captures = OutputCapture.forProcess(process, 1 << 16, null, () -> {}, executions[i].comparator);
+                    if (!process.waitFor(10, TimeUnit.SECONDS)) {
+                        executions[i].exitStatus += "Time Limit Exceeded.\n";
+                        process.destroyForcibly().waitFor();
+                    }
+                    executions[i].exitCode = process.exitValue();
+                    executions[i].finishOutput(captures);
+                    //Settles success the way the real backends do
+                    executions[i].close(executions[i].exitCode == 0 ? "" : "Nonzero exit.\n");
+                } catch (IOException | InterruptedException e) {
+                    executions[i].exitStatus += "could not start program.";
+                }
+                if (!listener.caseFinished(i, executions[i])) {
+                    CodeExecution.skip(executions, i + 1);
+                    break;
+                }
+            }
+            return executions;
+        }
+    }
+
+    private static Problem problem(int cases) {
+        Problem.TestCase[] testCases = new Problem.TestCase[cases];
+        for (int i = 0; i < cases; i++) {
+            testCases[i] = new Problem.TestCase("ok\n", String.valueOf(i));
+        }
+        return new Problem(testCases, "desc", "judging");
+    }
+
+    @Test
+    void failFastStopsCasesRunningInOtherSlices() throws Exception {
+        //Case 0 is wrong at once; case 1 runs in another slice and would wait for input forever
+        ShellBackend backend = new ShellBackend("echo wrong", "read line; echo ok");
+        SandboxCapacity sandboxes = new SandboxCapacity(new SimpleMeterRegistry(), 4);
+        CodeSubmission submission = new CodeSubmission("", "c", "judging", "");
+
+        long start = System.nanoTime();
+        CodeExecution[] results = problem(2).runCases(submission, backend, null, Problem.JudgeMode.FAIL_FAST, sandboxes, 2);
+        long tookMs = (System.nanoTime() - start) / 1_000_000;
+
+        assertThat(tookMs).isLessThan(5_000);
+        assertThat(results[0].success).isFalse();
+        assertThat(results[0].exitStatus).contains("Incorrect output");
+        assertThat(results[1].success).isFalse();
+        assertThat(results[1].exitStatus).startsWith("Skipped");
+        assertThat(sandboxes.inUse()).isZero();
+    }
+
+    @Test
+    void failFastSkipsTheRestOfASliceAfterAFailure() throws Exception {
+        ShellBackend backend = new ShellBackend("echo ok", "echo wrong", "echo ok", "echo ok");
+        CodeSubmission submission = new CodeSubmission("", "c", "judging", "");
+
+        CodeExecution[] results = problem(4).runCases(submission, backend, null, Problem.JudgeMode.FAIL_FAST, null, 1);
+
+        assertThat(results).hasSize(4);
+        assertThat(results[0].success).isTrue();
+        assertThat(results[1].exitStatus).contains("Incorrect output");
+        assertThat(results[2].exitStatus).startsWith("Skipped");
+        assertThat(results[3].exitStatus).startsWith("Skipped");
+        assertThat(backend.started.get()).isEqualTo(2);
+    }
+
+    @Test
+    void fullJudgesEveryCaseDespiteFailures() throws Exception {
+        ShellBackend backend = new ShellBackend("echo wrong", "echo ok", "echo wrong", "echo ok");
+        CodeSubmission submission = new CodeSubmission("", "c", "judging", "");
+
+        CodeExecution[] results = problem(4).runCases(submission, backend, null, Problem.JudgeMode.FULL, null, 1);
+
+        assertThat(backend.started.get()).isEqualTo(4);
+        assertThat(results[0].success).isFalse();
+        assertThat(results[1].success).isTrue();
+        assertThat(results[2].success).isFalse();
+        assertThat(results[3].success).isTrue();
+    }
+
+    @Test
+    void sampledJudgesOnlyTheLeadingCases() throws Exception {
+        ShellBackend backend = new ShellBackend("echo ok", "echo ok", "echo wrong", "echo wrong", "echo wrong");
+        CodeSubmission submission = new CodeSubmission("", "c", "judging", "");
+        Problem problem = problem(5);
+        problem.sampleCases = 2;
+
+        CodeExecution[] results = problem.runCases(submission, backend, null, Problem.JudgeMode.SAMPLED, null, 1);
+
+        assertThat(results).hasSize(2);
+        assertThat(results[0].success).isTrue();
+        assertThat(results[1].success).isTrue();
+        assertThat(backend.started.get()).isEqualTo(2);
+    }
+
+    @Test
+    void sampledFallsBackToTheDefaultSampleSize() throws Exception {
+        ShellBackend backend = new ShellBackend("echo ok", "echo ok", "echo ok", "echo ok", "echo ok");
+        CodeSubmission submission = new CodeSubmission("", "c", "judging", "");
+
+        CodeExecution[] results = problem(5).runCases(submission, backend, null, Problem.JudgeMode.SAMPLED, null, 1);
+
+        assertThat(results).hasSize(Problem.DEFAULT_SAMPLE_CASES);
+    }
+}
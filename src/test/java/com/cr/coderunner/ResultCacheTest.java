@@ -0,0 +1,72 @@
+package com.cr.coderunner;
+
+import com.cr.coderunner.model.CodeExecution;
+import com.cr.coderunner.model.CodeSubmission;
+import com.cr.coderunner.service.ResultCache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ResultCacheTest {
+    private static ResultCache cache(boolean enabled) {
+        return new ResultCache(new SimpleMeterRegistry(), enabled, 10, 300, 1024);
+    }
+
+    private static CodeExecution finished(CodeSubmission submission, String output, int exitCode) {
+        CodeExecution execution = new CodeExecution(submission);
+        execution.success = exitCode == 0;
+        execution.output = output;
+        execution.error = "";
+        execution.exitStatus = "";
+        execution.exitCode = exitCode;
+        return execution;
+    }
+
+    @Test
+    void keysFollowTheCodeAndInput() {
+        ResultCache cache = cache(true);
+        String key = cache.keyFor(new CodeSubmission("print(input())", "python", "", "1"));
+
+        assertThat(key).isEqualTo(cache.keyFor(new CodeSubmission("print(input())", "Python", "", "1")));
+        assertThat(key.equals(cache.keyFor(new CodeSubmission("print(input())", "python", "", "2")))).isFalse();
+        assertThat(cache.keyFor(new CodeSubmission("import random\nprint(random.random())", "python", "", ""))).isNull();
+        assertThat(cache(false).keyFor(new CodeSubmission("print(1)", "python", "", ""))).isNull();
+    }
+
+    @Test
+    void identicalRunsShareOneExecutionAndItsResult() {
+        ResultCache cache = cache(true);
+        CodeSubmission submission = new CodeSubmission("print(1)", "python", "", "");
+        String key = cache.keyFor(submission);
+        CodeExecution owner = finished(submission, "1\n", 0);
+
+        assertThat(cache.lookup(key, submission)).isNull();
+        assertThat(cache.joinInFlight(key, owner)).isNull();
+        assertThat(cache.joinInFlight(key, new CodeExecution(submission))).isEqualTo(owner);
+
+        cache.complete(key, owner);
+        CodeExecution hit = cache.lookup(key, new CodeSubmission("print(1)", "python", "", ""));
+        assertThat(hit).isNotNull();
+        assertThat(hit.output).isEqualTo("1\n");
+        assertThat(hit.success).isTrue();
+        //No longer in flight, so the next miss would own its own run
+        assertThat(cache.joinInFlight(key, new CodeExecution(submission))).isNull();
+    }
+
+    @Test
+    void resultsThatDependOnTheHostAreNotMemoized() {
+        ResultCache cache = cache(true);
+        CodeSubmission submission = new CodeSubmission("while True: pass", "python", "", "");
+        String key = cache.keyFor(submission);
+        CodeExecution timedOut = finished(submission, "", -1);
+        timedOut.timeLimitExceeded = true;
+
+        cache.joinInFlight(key, timedOut);
+        cache.complete(key, timedOut);
+
+        assertThat(cache.lookup(key, submission)).isNull();
+        cache.complete(key, finished(submission, "x".repeat(2048), 0));
+        assertThat(cache.lookup(key, submission)).isNull();
+    }
+}
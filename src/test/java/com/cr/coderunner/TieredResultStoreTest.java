@@ -0,0 +1,79 @@
+package com.cr.coderunner;
+
+import com.cr.coderunner.dto.RunResult;
+import com.cr.coderunner.service.ResultStore;
+import com.cr.coderunner.service.TieredResultStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TieredResultStoreTest {
+    @TempDir
+    Path dir;
+
+    //Results over 100 bytes spill into 1MB segments, with room on disk for three of them
+    private TieredResultStore newStore() {
+        return new TieredResultStore(new SimpleMeterRegistry(), dir.toString(), 300, 100, 10_000, 3_000_000, 1_000_000);
+    }
+
+    private RunResult result(String output) {
+        RunResult result = new RunResult(true, 0.1, output, "err", "", "FINISHED");
+        result.compileMs = 3;
+        return result;
+    }
+
+    @Test
+    void largeOutputsAreSpilledAndReadRepeatedly() {
+        TieredResultStore store = newStore();
+        String big = "x".repeat(600_000) + "é";
+        store.put("small", result("hi"));
+        store.put("big", result(big));
+
+        for (int i = 0; i < 2; i++) {
+            RunResult read = store.get("big");
+            assertThat(read.output).isEqualTo(big);
+            assertThat(read.error).isEqualTo("err");
+            assertThat(read.compileMs).isEqualTo(3);
+            assertThat(store.get("small").output).isEqualTo("hi");
+        }
+        //Only metadata stays on the heap
+        assertThat(store.getMemoryBytes()).isLessThan(1_000);
+    }
+
+    @Test
+    void rangesAreReadWithoutTheWholeResult() {
+        TieredResultStore store = newStore();
+        String big = "a".repeat(300) + "b".repeat(300);
+        store.put("big", result(big));
+
+        RunResult status = store.getStatus("big");
+        assertThat(status.output).isNull();
+        assertThat(status.outputBytes).isEqualTo(600);
+        assertThat(status.errorBytes).isEqualTo(3);
+
+        ResultStore.OutputRange range = store.readOutput("big", false, 290, 20);
+        assertThat(new String(range.bytes(), StandardCharsets.UTF_8)).isEqualTo("a".repeat(10) + "b".repeat(10));
+        assertThat(range.totalBytes()).isEqualTo(600);
+        assertThat(store.readOutput("big", true, 0, 100).bytes()).isEqualTo("err".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void oldestSpilledResultsAreEvictedOverTheDiskBudget() {
+        TieredResultStore store = newStore();
+        String big = "x".repeat(600_000);
+        store.put("small", result("hi"));
+        for (int i = 0; i < 5; i++) {
+            store.put("big" + i, result(big));
+        }
+
+        assertThat(store.getDiskBytes()).isLessThanOrEqualTo(3_000_000);
+        assertThat(store.get("big0")).isNull();
+        assertThat(store.get("big4").output).isEqualTo(big);
+        assertThat(store.get("small")).isNotNull();
+    }
+}
@@ -0,0 +1,40 @@
+package com.cr.coderunner;
+
+import com.cr.coderunner.model.CodeExecution;
+import com.cr.coderunner.model.CodeSubmission;
+import com.cr.coderunner.service.TimedShell;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TimedShellTest {
+    @TempDir
+    Path dir;
+
+    //Runs the program through wrap in a plain sh, as the local backend does, and reads back its timings
+    private CodeExecution timed(String program) throws Exception {
+        String timingFile = dir.resolve(TimedShell.TIMING_FILE).toString();
+        String shell = TimedShell.wrap(timingFile, null, program, null, false, "");
+        Process process = new ProcessBuilder("sh", "-c", shell).redirectErrorStream(true).start();
+        process.getInputStream().readAllBytes();
+        assertThat(process.waitFor(30, TimeUnit.SECONDS)).isTrue();
+        CodeExecution exec = new CodeExecution(new CodeSubmission("", "python", "", ""));
+        assertThat(TimedShell.readTimings(TimedShell.readTimingFile(dir.toFile(), TimedShell.TIMING_FILE), exec, false)).isGreaterThan(0.0);
+        return exec;
+    }
+
+    @Test
+    void programCantForgeItsOwnTimes() throws Exception {
+        //Busy for a while, after appending marks that claim it used no CPU and no wall time
+        String forge = "{ echo end 0; echo 0m0.00s 0m0.00s; echo 0m0.00s 0m0.00s; echo compiled 999999; echo cg1 usage_usec 0; } >> "
+                + dir.resolve(TimedShell.TIMING_FILE) + "; i=0; while [ $i -lt 300000 ]; do i=$((i+1)); done";
+        CodeExecution exec = timed(forge);
+
+        assertThat(exec.programCpuMs).isGreaterThan(0.0);
+        assertThat(exec.programWallMs).isGreaterThan(0.0);
+    }
+}
@@ -0,0 +1,221 @@
+package com.cr.coderunner;
+
+import com.cr.coderunner.model.CodeSubmission;
+import com.cr.coderunner.service.JvmWorkerPool;
+import com.cr.coderunner.service.PythonZygotePool;
+import com.cr.coderunner.service.SandboxLimits;
+import com.cr.coderunner.service.WorkerPool;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+//Drives the real worker programs over their protocol, started through the local command override instead of Docker
+public class WorkerPoolTest {
+    private static final SandboxLimits.TimeLimits LIMITS = new SandboxLimits.TimeLimits(30_000, 10_000, 10_000, 5_000);
+    private static final int OUTPUT_LIMIT = 1 << 16;
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final List<WorkerPool> pools = new ArrayList<>();
+
+    @AfterEach
+    void shutdown() {
+        pools.forEach(WorkerPool::shutdown);
+    }
+
+    private JvmWorkerPool jvmPool() {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        JvmWorkerPool pool = new JvmWorkerPool(registry, null, null, "jvm", 1, 100, java + " runners/java/JavaWorker.java");
+        pools.add(pool);
+        return pool;
+    }
+
+    private PythonZygotePool zygotePool() {
+        PythonZygotePool pool = new PythonZygotePool(registry, null, null, "zygote", 1, 100, "python3 -u runners/python/zygote.py");
+        pools.add(pool);
+        return pool;
+    }
+
+    private static boolean hasPython() {
+        try {
+            return new ProcessBuilder("python3", "--version").start().waitFor() == 0;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private static String text(byte[] bytes) {
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private double recycled(String backend, WorkerPool.Kind kind) {
+        return registry.counter("coderunner.workers.recycled", "backend", backend, "kind", kind.name()).count();
+    }
+
+    @Test
+    void jvmWorkerRunsProgramWithInput() throws Exception {
+        String source = """
+                public class Main {
+                    public static void main(String[] args) {
+                        java.util.Scanner in = new java.util.Scanner(System.in);
+                        System.out.println(in.nextInt() + in.nextInt());
+                        System.err.print("note");
+                    }
+                }
+                """;
+        WorkerPool.Result result = jvmPool().execute("Main", source, "2 3\n", LIMITS, OUTPUT_LIMIT);
+
+        assertThat(result.kind()).isEqualTo(WorkerPool.Kind.EXITED);
+        assertThat(result.exitCode()).isZero();
+        assertThat(text(result.stdout())).isEqualTo("5\n");
+        assertThat(text(result.stderr())).isEqualTo("note");
+        assertThat(result.recycle()).isFalse();
+    }
+
+    @Test
+    void jvmWorkerReportsCompileErrors() throws Exception {
+        WorkerPool.Result result = jvmPool().execute("Main", "public class Main { oops }", "", LIMITS, OUTPUT_LIMIT);
+
+        assertThat(result.kind()).isEqualTo(WorkerPool.Kind.COMPILE_ERROR);
+        assertThat(text(result.stderr())).contains("Main.java");
+    }
+
+    @Test
+    void jvmWorkerRunsClassInAPackage() throws Exception {
+        String source = "package app.main;\npublic class Main { public static void main(String[] a) { System.out.print(Main.class.getName()); } }";
+        WorkerPool.Result result = jvmPool().execute(new CodeSubmission(source, "java", "", "").getQualifiedMainClassName(),
+                source, "", LIMITS, OUTPUT_LIMIT);
+
+        assertThat(result.kind()).isEqualTo(WorkerPool.Kind.EXITED);
+        assertThat(text(result.stdout())).isEqualTo("app.main.Main");
+    }
+
+    @Test
+    void jvmWorkerIsRecycledWhenThreadsOutliveTheProgram() throws Exception {
+        JvmWorkerPool pool = jvmPool();
+        String source = """
+                public class Main {
+                    public static void main(String[] args) {
+                        Thread t = new Thread(() -> { while (true) Thread.onSpinWait(); });
+                        t.setDaemon(true);
+                        t.start();
+                        System.out.println("left");
+                    }
+                }
+                """;
+        WorkerPool.Result leaky = pool.execute("Main", source, "", LIMITS, OUTPUT_LIMIT);
+
+        assertThat(leaky.kind()).isEqualTo(WorkerPool.Kind.EXITED);
+        assertThat(text(leaky.stdout())).isEqualTo("left\n");
+        assertThat(leaky.recycle()).isTrue();
+        assertThat(recycled("jvm", WorkerPool.Kind.EXITED)).isEqualTo(1.0);
+
+        //The next run gets a fresh worker and isn't recycled itself
+        String clean = "public class Main { public static void main(String[] a) { System.out.print(\"clean\"); } }";
+        WorkerPool.Result next = pool.execute("Main", clean, "", LIMITS, OUTPUT_LIMIT);
+        assertThat(text(next.stdout())).isEqualTo("clean");
+        assertThat(next.recycle()).isFalse();
+    }
+
+    @Test
+    void jvmWorkerRestoresDefaultsBetweenRuns() throws Exception {
+        JvmWorkerPool pool = jvmPool();
+        String change = """
+                public class Main {
+                    public static void main(String[] args) {
+                        java.util.Locale.setDefault(java.util.Locale.GERMANY);
+                        System.setProperty("leak", "yes");
+                    }
+                }
+                """;
+        String read = """
+                public class Main {
+                    public static void main(String[] args) {
+                        System.out.print(String.format("%.1f", 1.5) + " " + System.getProperty("leak"));
+                    }
+                }
+                """;
+        String before = text(pool.execute("Main", read, "", LIMITS, OUTPUT_LIMIT).stdout());
+        pool.execute("Main", change, "", LIMITS, OUTPUT_LIMIT);
+        WorkerPool.Result after = pool.execute("Main", read, "", LIMITS, OUTPUT_LIMIT);
+
+        assertThat(text(after.stdout())).isEqualTo(before);
+        assertThat(text(after.stdout())).contains("null");
+    }
+
+    @Test
+    void jvmWorkerTimesOutAndIsReplaced() throws Exception {
+        JvmWorkerPool pool = jvmPool();
+        String spin = "public class Main { public static void main(String[] a) { while (true) Thread.onSpinWait(); } }";
+        WorkerPool.Result result = pool.execute("Main", spin, "", new SandboxLimits.TimeLimits(30_000, 500, 10_000, 5_000), OUTPUT_LIMIT);
+
+        assertThat(result.kind()).isEqualTo(WorkerPool.Kind.TIME_LIMIT);
+        assertThat(result.recycle()).isTrue();
+        assertThat(recycled("jvm", WorkerPool.Kind.TIME_LIMIT)).isEqualTo(1.0);
+
+        String hello = "public class Main { public static void main(String[] a) { System.out.print(\"up\"); } }";
+        assertThat(text(pool.execute("Main", hello, "", LIMITS, OUTPUT_LIMIT).stdout())).isEqualTo("up");
+    }
+
+    @Test
+    void zygoteRunsProgramWithInput() throws Exception {
+        assumeTrue(hasPython(), "python3 not installed");
+        WorkerPool.Result result = zygotePool().execute(null, "print(sum(map(int, input().split())))", "2 3\n", LIMITS, OUTPUT_LIMIT);
+
+        assertThat(result.kind()).isEqualTo(WorkerPool.Kind.EXITED);
+        assertThat(result.exitCode()).isZero();
+        assertThat(text(result.stdout())).isEqualTo("5\n");
+        assertThat(result.recycle()).isFalse();
+    }
+
+    @Test
+    void zygoteIsRecycledWhenProcessesOutliveTheProgram() throws Exception {
+        assumeTrue(hasPython(), "python3 not installed");
+        PythonZygotePool pool = zygotePool();
+        //Detaches a grandchild into its own session, so it isn't in the run's process group
+        String source = """
+                import os, time
+                if os.fork() == 0:
+                    os.setsid()
+                    if os.fork() == 0:
+                        time.sleep(60)
+                    os._exit(0)
+                os.wait()
+                print("left")
+                """;
+        WorkerPool.Result leaky = pool.execute(null, source, "", LIMITS, OUTPUT_LIMIT);
+
+        assertThat(leaky.kind()).isEqualTo(WorkerPool.Kind.EXITED);
+        assertThat(text(leaky.stdout())).isEqualTo("left\n");
+        assertThat(leaky.recycle()).isTrue();
+        assertThat(recycled("zygote", WorkerPool.Kind.EXITED)).isEqualTo(1.0);
+    }
+
+    @Test
+    void zygoteRunsDontSeeEachOthersFiles() throws Exception {
+        assumeTrue(hasPython(), "python3 not installed");
+        //Only a root zygote can drop runs to their own uid (as it does in its container)
+        assumeTrue("root".equals(System.getProperty("user.name")), "zygote not running as root");
+        PythonZygotePool pool = zygotePool();
+        String shared = "/tmp/cr-left-" + UUID.randomUUID();
+        String write = "import os\nopen('left.txt', 'w').write('x')\nopen('" + shared + "', 'w').write('x')\nprint(os.getuid())";
+        String read = "import os\nprint(os.path.exists('" + shared + "'), os.listdir('.'))";
+
+        WorkerPool.Result first = pool.execute(null, write, "", LIMITS, OUTPUT_LIMIT);
+        assertThat(first.kind()).isEqualTo(WorkerPool.Kind.EXITED);
+        assertThat(text(first.stdout()).trim().equals("0")).isFalse();
+        //Same zygote for the next run
+        assertThat(first.recycle()).isFalse();
+
+        WorkerPool.Result second = pool.execute(null, read, "", LIMITS, OUTPUT_LIMIT);
+        assertThat(text(second.stdout())).isEqualTo("False []\n");
+    }
+}